@@ -0,0 +1,66 @@
+/**
+ *
+ */
+package com.sogou.map.kubbo.bench;
+
+import com.sogou.map.kubbo.boot.Kubbo;
+import com.sogou.map.kubbo.remote.transport.netty4.NettyTransportStatistics;
+import com.sogou.map.kubbo.rpc.Exporter;
+import com.sogou.map.kubbo.sample.api.SampleService;
+
+/**
+ * NIO vs epoll(transport.native=epoll) 吞吐/延迟对比
+ *
+ * @author liufuliang
+ *
+ */
+public class NativeTransportBenchDemo {
+
+    public static class SampleServiceImpl implements SampleService {
+        @Override
+        public String echo(String message) {
+            return message;
+        }
+
+        @Override
+        public void update(byte[] buf) {
+        }
+    }
+
+    static Statistics bench(String transport, int port) {
+        String url = "kubbo://127.0.0.1:" + port + "/sample?transport.native=" + transport + "&timeout=2000&corethreads=50&maxthreads=200&queues=1000";
+        Exporter<SampleService> exporter = Kubbo.export(new SampleServiceImpl(), SampleService.class, url);
+        try {
+            final SampleService service = Kubbo.refer(SampleService.class, url);
+            System.out.println("transport.native=" + transport);
+            return Benchmark.builder()
+                .concurrency(50)
+                .total(200000)
+                .job(new Job(){
+                    @Override
+                    public boolean execute() {
+                        try{
+                            service.echo("xxxxx");
+                            return true;
+                        } catch(Throwable t){
+                            return false;
+                        }
+                    }
+                })
+                .run();
+        } finally {
+            exporter.unexport();
+        }
+    }
+
+    /**
+     * @param args
+     */
+    public static void main(String[] args) {
+        bench("nio", 40661);
+        bench("epoll", 40662);
+        System.out.println(NettyTransportStatistics.report());
+        Kubbo.destroy();
+    }
+
+}
@@ -0,0 +1,67 @@
+/**
+ *
+ */
+package com.sogou.map.kubbo.bench;
+
+import com.sogou.map.kubbo.boot.Kubbo;
+import com.sogou.map.kubbo.rpc.Exporter;
+import com.sogou.map.kubbo.sample.api.SampleService;
+
+/**
+ * 同机调用: loopback TCP vs unix domain socket(unix.socket) 吞吐/延迟对比
+ *
+ * @author liufuliang
+ *
+ */
+public class UnixSocketBenchDemo {
+
+    public static class SampleServiceImpl implements SampleService {
+        @Override
+        public String echo(String message) {
+            return message;
+        }
+
+        @Override
+        public void update(byte[] buf) {
+        }
+    }
+
+    static Statistics bench(String socket, int port) {
+        String url = "kubbo://127.0.0.1:" + port + "/sample?transport.native=epoll&timeout=2000&corethreads=50&maxthreads=200&queues=1000";
+        if (socket != null) {
+            url += "&unix.socket=" + socket;
+        }
+        Exporter<SampleService> exporter = Kubbo.export(new SampleServiceImpl(), SampleService.class, url);
+        try {
+            final SampleService service = Kubbo.refer(SampleService.class, url);
+            System.out.println("unix.socket=" + socket);
+            return Benchmark.builder()
+                .concurrency(50)
+                .total(200000)
+                .job(new Job(){
+                    @Override
+                    public boolean execute() {
+                        try{
+                            service.echo("xxxxx");
+                            return true;
+                        } catch(Throwable t){
+                            return false;
+                        }
+                    }
+                })
+                .run();
+        } finally {
+            exporter.unexport();
+        }
+    }
+
+    /**
+     * @param args
+     */
+    public static void main(String[] args) {
+        bench(null, 40663);
+        bench("unix:///tmp/kubbo-bench.sock", 40664);
+        Kubbo.destroy();
+    }
+
+}
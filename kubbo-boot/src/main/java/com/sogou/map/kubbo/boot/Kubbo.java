@@ -2,9 +2,11 @@
  * 
  */package com.sogou.map.kubbo.boot;
 
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 
 import com.sogou.map.kubbo.common.Constants;
 import com.sogou.map.kubbo.common.URL;
@@ -16,12 +18,18 @@ import com.sogou.map.kubbo.configuration.element.ApplicationConfiguration;
 import com.sogou.map.kubbo.distributed.Distributions;
 import com.sogou.map.kubbo.metrics.KubboMetrics;
 import com.sogou.map.kubbo.rpc.Exporter;
+import com.sogou.map.kubbo.rpc.InvocationBatch;
+import com.sogou.map.kubbo.rpc.Invoker;
 import com.sogou.map.kubbo.rpc.InvokerProxy;
 import com.sogou.map.kubbo.rpc.Protocol;
 import com.sogou.map.kubbo.rpc.Protocols;
 import com.sogou.map.kubbo.rpc.RpcContext;
 import com.sogou.map.kubbo.rpc.RpcException;
+import com.sogou.map.kubbo.rpc.concurrent.CallbackExecutors;
 import com.sogou.map.kubbo.rpc.concurrent.ExceptionWrappedListenableFuture;
+import com.sogou.map.kubbo.rpc.concurrent.ListenableFuture;
+import com.sogou.map.kubbo.rpc.protocol.AbstractExporterDelegate;
+import com.sogou.map.kubbo.rpc.protocol.injvm.InjvmProtocol;
 import com.sogou.map.kubbo.trace.KubboTrace;
 import com.sogou.map.kubbo.trace.Trace;
 
@@ -66,18 +74,37 @@ public class Kubbo {
     public static <T> Exporter<T> export(T service, Class<T> type, URL url) throws RpcException {
         URL exportURL = attachApplicationName(url)
                 .addParameter(Constants.INTERFACE_KEY, type.getName());
-                
-        return getProtocol(url).export(
-                getAdaptiveInvokerProxy().getInvoker(service, type, exportURL)
-                );
+        
+        return export(getAdaptiveInvokerProxy().getInvoker(service, type, exportURL), url);
     }
+    
     public static Exporter<?> exportGeneric(Object service, Class<?> type, URL url) throws RpcException {
         URL exportURL = attachApplicationName(url)
                 .addParameter(Constants.INTERFACE_KEY, type.getName());
 
-        return getProtocol(url).export(
-                getAdaptiveInvokerProxy().getGenericInvoker(service, type, exportURL)
-                );
+        return export(getAdaptiveInvokerProxy().getGenericInvoker(service, type, exportURL), url);
+    }
+    
+    /*
+     * 同时暴露到injvm, 同一JVM内的引用可以直接调用, 不经过编解码和网络
+     */
+    private static <T> Exporter<T> export(Invoker<T> invoker, URL url) {
+        final Exporter<T> exporter = getProtocol(url).export(invoker);
+        if (InjvmProtocol.NAME.equals(url.getProtocol()) 
+                || !url.getParameter(Constants.INJVM_KEY, Constants.DEFAULT_INJVM)) {
+            return exporter;
+        }
+        final Exporter<T> injvmExporter = getProtocol(InjvmProtocol.NAME).export(invoker);
+        return new AbstractExporterDelegate<T>(exporter) {
+            @Override
+            public void unexport() {
+                try {
+                    injvmExporter.unexport();
+                } finally {
+                    super.unexport();
+                }
+            }
+        };
     }
     
     public static <T> T refer(Class<T> type, String url) throws RpcException {
@@ -194,6 +221,51 @@ public class Kubbo {
         }
     }
     
+    /**
+     * 批量调用, 收集runnable中的调用, 同一连接上的调用合并为一帧发送, 服务端并行执行后合并返回.
+     * 适合对同一服务的大量小调用.
+     * <pre>
+     * List&lt;ListenableFuture&lt;?&gt;&gt; futures = Kubbo.batch(new Runnable() {
+     *     public void run() {
+     *         for (String key : keys) {
+     *             service.get(key);
+     *         }
+     *     }
+     * });
+     * </pre>
+     * @param runnable rpc调用封装
+     * @return 按调用顺序返回每个调用的future
+     * @exception RpcException rpc调用异常, 此时所有调用都不会发送
+     */
+    public static List<ListenableFuture<?>> batch(Runnable runnable) throws RpcException {
+        RpcContext context = RpcContext.get();
+        if (context.getBatch() != null) {
+            throw new RpcException("Nested batch is not supported.");
+        }
+        InvocationBatch batch = new InvocationBatch();
+        try {
+            context.setBatch(batch);
+            context.setAttachment(Constants.ASYNC_KEY, Constants.TRUE);
+            runnable.run();
+        } catch (Throwable e) {
+            batch.cancel();
+            throw new RpcException("batch runnable error. " + e.getMessage(), e);
+        } finally {
+            context.removeAttachment(Constants.ASYNC_KEY);
+            context.setBatch(null);
+        }
+        return batch.send();
+    }
+    
+    /**
+     * 注册异步调用回调的Executor, 引用配置callback=name时, 该引用的FutureListener在executor中执行
+     * @param name callback参数的值
+     * @param executor 回调的执行线程
+     */
+    public static void registerCallbackExecutor(String name, Executor executor){
+        CallbackExecutors.register(name, executor);
+    }
+    
     /**
      * 监控
      * @param method 监控项名称, 可以使用方法名或者http路径 
@@ -30,6 +30,14 @@ public final class Constants {
 
     public static final boolean DEFAULT_SEND_BLOCKING              = false;
 
+    public static final String  WRITE_COALESCE_KEY                 = "write.coalesce";
+
+    public static final boolean DEFAULT_WRITE_COALESCE             = false;
+
+    public static final String  WRITE_COALESCE_BATCH_KEY           = "write.coalesce.batch";
+
+    public static final int     DEFAULT_WRITE_COALESCE_BATCH       = 128;
+
     public static final String  DEFAULT_CHARSET                    = "UTF-8";
 
     public static final String  DEFAULT_APPLICATION_NAME           = NetUtils.getLocalAddress().toString();
@@ -143,6 +151,21 @@ public final class Constants {
 
     public static final String  ACCESSLOG_KEY                      = "accesslog";
 
+    public static final String  CACHE_KEY                          = "cache";
+
+    public static final String  CACHE_SIZE_KEY                     = "cache.size";
+
+    public static final int     DEFAULT_CACHE_SIZE                 = 1000;
+
+    public static final String  CACHE_TTL_KEY                      = "cache.ttl";
+
+    public static final int     DEFAULT_CACHE_TTL                  = 60 * 1000;
+
+    public static final String  CACHE_REFRESH_KEY                  = "cache.refresh";
+
+    // 小于0时为cache.ttl的1/5
+    public static final int     DEFAULT_CACHE_REFRESH              = -1;
+
     public static final String  INVOKER_LISTENER_KEY               = "invoker.listener";
 
     public static final String  EXPORTER_LISTENER_KEY              = "exporter.listener";
@@ -171,6 +194,30 @@ public final class Constants {
 
     public static final String  TRANSPORTLAYER_KEY                 = "transportlayer";
 
+    public static final String  TRANSPORT_NATIVE_KEY               = "transport.native";
+
+    public static final String  TRANSPORT_NATIVE_EPOLL             = "epoll";
+
+    public static final String  DEFAULT_TRANSPORT_NATIVE           = "";
+
+    public static final String  UNIX_SOCKET_KEY                    = "unix.socket";
+
+    public static final String  UNIX_SOCKET_PREFIX                 = "unix://";
+
+    public static final String  INJVM_KEY                          = "injvm";
+
+    public static final boolean DEFAULT_INJVM                      = true;
+
+    public static final String  INJVM_COPY_KEY                     = "injvm.copy";
+
+    public static final boolean DEFAULT_INJVM_COPY                 = false;
+
+    public static final String  CANCEL_KEY                         = "cancel";
+
+    public static final boolean DEFAULT_CANCEL                     = true;
+
+    public static final String  CALLBACK_KEY                       = "callback";
+
     public static final String  SERVER_KEY                         = "server";
 
     public static final String  CLIENT_KEY                         = "client";
@@ -255,6 +302,45 @@ public final class Constants {
 
     public static final String  CHANNEL_SEND_READONLYEVENT_KEY     = "channel.readonly.send";
 
+    public static final String  CHANNEL_ATTRIBUTE_UNWRITABLE_KEY   = "channel.unwritable";
+
+    /*
+     * write buffer water mark & backpressure
+     */
+    public static final String  WRITE_BUFFER_HIGH_WATER_MARK_KEY   = "write.buffer.high";
+
+    public static final int     DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK = 64 * 1024;
+
+    public static final String  WRITE_BUFFER_LOW_WATER_MARK_KEY    = "write.buffer.low";
+
+    public static final int     DEFAULT_WRITE_BUFFER_LOW_WATER_MARK = 32 * 1024;
+
+    public static final String  BACKPRESSURE_KEY                   = "backpressure";
+
+    public static final String  BACKPRESSURE_NONE                  = "none";
+
+    public static final String  BACKPRESSURE_BLOCK                 = "block";
+
+    public static final String  BACKPRESSURE_FAILFAST              = "failfast";
+
+    public static final String  DEFAULT_BACKPRESSURE               = BACKPRESSURE_NONE;
+
+    public static final String  CONNECTIONS_MIN_KEY                = "connections.min";
+
+    public static final int     DEFAULT_CONNECTIONS_MIN            = 1;
+
+    public static final String  CONNECTIONS_MAX_KEY                = "connections.max";
+
+    public static final int     DEFAULT_CONNECTIONS_MAX            = 0;
+
+    public static final String  CONNECTIONS_PENDING_KEY            = "connections.pending";
+
+    public static final int     DEFAULT_CONNECTIONS_PENDING        = 64;
+
+    public static final String  CONNECTIONS_IDLE_KEY               = "connections.idle";
+
+    public static final int     DEFAULT_CONNECTIONS_IDLE           = 60 * 1000;
+
     public static final String  SHUTDOWN_WAIT_KEY                  = "kubbo.shutdown.wait";
 
     /**
@@ -279,6 +365,18 @@ public final class Constants {
     public static final String KUBBO_CONFIGURATION_KEY              = "kubbo.configuration";
 
     public static final String DEFAULT_KUBBO_CONFIGURATION          = "kubbo.properties";
+
+    public static final String TIMER_TICK_KEY                       = "kubbo.timer.tick";
+
+    public static final int    DEFAULT_TIMER_TICK                   = 10; // ms
+
+    public static final String TIMER_WHEEL_KEY                      = "kubbo.timer.wheel";
+
+    public static final int    DEFAULT_TIMER_WHEEL                  = 512;
+
+    public static final String CALLBACK_THREADS_KEY                 = "kubbo.callback.threads";
+
+    public static final int    DEFAULT_CALLBACK_THREADS             = Runtime.getRuntime().availableProcessors();
     
     /*
      * metrics
@@ -303,10 +401,23 @@ public final class Constants {
 
     public static final boolean DEFAULT_DECODE_EXECUTE_IN_TASK_THREAD = false;
 
-    public static final String  DECODE_BUFFER_KEY                    = "decode.buffer";
-    
-    public static final int     DEFAULT_DECODE_BUFFER_SIZE           = 8 * 1024; // default decode buffer size is 8k.
-    
+    public static final String  DECODE_ADAPTIVE_KEY                  = "decode.adaptive";
+
+    public static final boolean DEFAULT_DECODE_ADAPTIVE              = false;
+
+    public static final String  DECODE_ADAPTIVE_BYTES_KEY            = "decode.adaptive.bytes";
+
+    public static final int     DEFAULT_DECODE_ADAPTIVE_BYTES        = 64 * 1024;
+
+    // 微秒
+    public static final String  DECODE_ADAPTIVE_ELAPSED_KEY          = "decode.adaptive.elapsed";
+
+    public static final int     DEFAULT_DECODE_ADAPTIVE_ELAPSED      = 200;
+
+    public static final String  DICTIONARY_KEY                       = "dictionary";
+
+    public static final boolean DEFAULT_DICTIONARY                   = true;
+
     public static final String  ENCODE_BUFFER_KEY                    = "encode.buffer";
     
     public static final int     DEFAULT_ENCODE_BUFFER_SIZE           = 1 * 1024; // default encode buffer size is 8k.
@@ -0,0 +1,365 @@
+package com.sogou.map.kubbo.common.timer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sogou.map.kubbo.common.logger.Logger;
+import com.sogou.map.kubbo.common.logger.LoggerFactory;
+
+/**
+ * 时间轮定时器, 添加和取消都是O(1), 适合大量很少真正到期的超时任务(如请求超时).
+ * 添加和取消的任务先进入无锁队列, 由唯一的工作线程在每个tick移入/移出对应的槽,
+ * 到期时间的精度为tick.
+ *
+ * @author liufuliang
+ */
+public class HashedWheelTimer {
+
+    private static final Logger logger = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+    // 每个tick最多从队列移入槽的任务数, 避免添加过多时工作线程饿死到期任务
+    private static final int MAX_TRANSFER_PER_TICK = 100000;
+
+    private static final int WORKER_STATE_INIT = 0;
+
+    private static final int WORKER_STATE_STARTED = 1;
+
+    private static final int WORKER_STATE_SHUTDOWN = 2;
+
+    private final AtomicInteger workerState = new AtomicInteger(WORKER_STATE_INIT);
+
+    private final Thread workerThread;
+
+    private final long tickDuration; // 纳秒
+
+    private final Bucket[] wheel;
+
+    private final int mask;
+
+    private final Queue<HashedWheelTimeout> timeouts = new ConcurrentLinkedQueue<HashedWheelTimeout>();
+
+    private final Queue<HashedWheelTimeout> cancelledTimeouts = new ConcurrentLinkedQueue<HashedWheelTimeout>();
+
+    private final AtomicLong pendingTimeouts = new AtomicLong();
+
+    private volatile long startTime;
+
+    private long tick; // 只在工作线程内访问
+
+    public HashedWheelTimer(ThreadFactory threadFactory, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (threadFactory == null) {
+            throw new IllegalArgumentException("threadFactory == NULL");
+        }
+        if (unit == null) {
+            throw new IllegalArgumentException("unit == NULL");
+        }
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be greater than 0: " + tickDuration);
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+            throw new IllegalArgumentException("ticksPerWheel must be in (0, 2^30]: " + ticksPerWheel);
+        }
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; ++i) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.tickDuration = unit.toNanos(tickDuration);
+        if (this.tickDuration >= Long.MAX_VALUE / size) {
+            throw new IllegalArgumentException("tickDuration is too long: " + tickDuration + " " + unit);
+        }
+        this.workerThread = threadFactory.newThread(new Worker());
+    }
+
+    /**
+     * 添加一个延迟执行的任务, 首次调用时启动工作线程
+     */
+    public Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+        if (task == null) {
+            throw new IllegalArgumentException("task == NULL");
+        }
+        if (unit == null) {
+            throw new IllegalArgumentException("unit == NULL");
+        }
+        start();
+        long deadline = System.nanoTime() + unit.toNanos(delay) - startTime;
+        HashedWheelTimeout timeout = new HashedWheelTimeout(this, task, deadline);
+        pendingTimeouts.incrementAndGet();
+        timeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * 尚未到期且未取消的任务数
+     */
+    public long pendingTimeouts() {
+        return pendingTimeouts.get();
+    }
+
+    /**
+     * 停止工作线程, 未到期的任务不再执行
+     */
+    public void stop() {
+        if (workerState.getAndSet(WORKER_STATE_SHUTDOWN) == WORKER_STATE_STARTED) {
+            workerThread.interrupt();
+        }
+    }
+
+    private void start() {
+        switch (workerState.get()) {
+        case WORKER_STATE_STARTED:
+            return;
+        case WORKER_STATE_INIT:
+            if (workerState.compareAndSet(WORKER_STATE_INIT, WORKER_STATE_STARTED)) {
+                startTime = System.nanoTime();
+                if (startTime == 0) {
+                    startTime = 1; // 0表示未初始化
+                }
+                workerThread.start();
+                return;
+            }
+            // 其它线程正在启动
+            while (startTime == 0) {
+                Thread.yield();
+            }
+            return;
+        default:
+            throw new IllegalStateException("cannot be started once stopped");
+        }
+    }
+
+    private final class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            while (startTime == 0) {
+                Thread.yield();
+            }
+            while (workerState.get() == WORKER_STATE_STARTED) {
+                long deadline = waitForNextTick();
+                if (deadline > 0) {
+                    processCancelledTasks();
+                    transferTimeoutsToBuckets();
+                    wheel[(int) (tick & mask)].expireTimeouts(deadline);
+                    tick++;
+                }
+            }
+        }
+
+        private void transferTimeoutsToBuckets() {
+            for (int i = 0; i < MAX_TRANSFER_PER_TICK; ++i) {
+                HashedWheelTimeout timeout = timeouts.poll();
+                if (timeout == null) {
+                    break;
+                }
+                if (timeout.state() == HashedWheelTimeout.ST_CANCELLED) {
+                    continue;
+                }
+                long calculated = timeout.deadline / tickDuration;
+                timeout.remainingRounds = (calculated - tick) / wheel.length;
+                // 已经过期的任务放入当前槽, 本次tick执行
+                long ticks = Math.max(calculated, tick);
+                wheel[(int) (ticks & mask)].add(timeout);
+            }
+        }
+
+        private void processCancelledTasks() {
+            for (;;) {
+                HashedWheelTimeout timeout = cancelledTimeouts.poll();
+                if (timeout == null) {
+                    break;
+                }
+                try {
+                    timeout.remove();
+                } catch (Throwable t) {
+                    logger.warn("An exception was thrown while process a cancellation task", t);
+                }
+            }
+        }
+
+        /**
+         * @return 当前tick的截止时间(相对startTime), 被stop中断时返回-1
+         */
+        private long waitForNextTick() {
+            long deadline = tickDuration * (tick + 1);
+            for (;;) {
+                long currentTime = System.nanoTime() - startTime;
+                long sleepTimeMs = (deadline - currentTime + 999999) / 1000000;
+                if (sleepTimeMs <= 0) {
+                    return currentTime;
+                }
+                try {
+                    Thread.sleep(sleepTimeMs);
+                } catch (InterruptedException e) {
+                    if (workerState.get() == WORKER_STATE_SHUTDOWN) {
+                        return -1;
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class HashedWheelTimeout implements Timeout {
+
+        static final int ST_INIT = 0;
+
+        static final int ST_CANCELLED = 1;
+
+        static final int ST_EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<HashedWheelTimeout> STATE_UPDATER =
+                AtomicIntegerFieldUpdater.newUpdater(HashedWheelTimeout.class, "state");
+
+        private final HashedWheelTimer timer;
+
+        private final TimerTask task;
+
+        private final long deadline;
+
+        private volatile int state = ST_INIT;
+
+        // 以下字段只在工作线程内访问
+        long remainingRounds;
+
+        HashedWheelTimeout next;
+
+        HashedWheelTimeout prev;
+
+        Bucket bucket;
+
+        HashedWheelTimeout(HashedWheelTimer timer, TimerTask task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public TimerTask task() {
+            return task;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+            // 由工作线程从槽中移除, 这里只入队
+            timer.pendingTimeouts.decrementAndGet();
+            timer.cancelledTimeouts.add(this);
+            return true;
+        }
+
+        void remove() {
+            Bucket b = this.bucket;
+            if (b != null) {
+                b.remove(this);
+            }
+        }
+
+        int state() {
+            return state;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state == ST_CANCELLED;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return state == ST_EXPIRED;
+        }
+
+        void expire() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_EXPIRED)) {
+                return;
+            }
+            timer.pendingTimeouts.decrementAndGet();
+            try {
+                task.run(this);
+            } catch (Throwable t) {
+                logger.warn("An exception was thrown by " + TimerTask.class.getSimpleName() + '.', t);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "HashedWheelTimeout [deadline=" + deadline + ", state=" + state + ", task=" + task + "]";
+        }
+    }
+
+    /**
+     * 时间轮的一个槽, 双向链表, 只在工作线程内访问
+     */
+    private static final class Bucket {
+
+        private HashedWheelTimeout head;
+
+        private HashedWheelTimeout tail;
+
+        void add(HashedWheelTimeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void expireTimeouts(long deadline) {
+            HashedWheelTimeout timeout = head;
+            while (timeout != null) {
+                HashedWheelTimeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    if (timeout.deadline <= deadline) {
+                        timeout.expire();
+                    } else {
+                        // 不会发生, 放入了错误的槽
+                        throw new IllegalStateException(String.format(
+                                "timeout.deadline (%d) > deadline (%d)", timeout.deadline, deadline));
+                    }
+                } else if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        void remove(HashedWheelTimeout timeout) {
+            HashedWheelTimeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                if (timeout == tail) {
+                    tail = null;
+                    head = null;
+                } else {
+                    head = next;
+                }
+            } else if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+}
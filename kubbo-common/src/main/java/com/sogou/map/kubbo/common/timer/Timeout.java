@@ -0,0 +1,22 @@
+package com.sogou.map.kubbo.common.timer;
+
+/**
+ * {@link HashedWheelTimer#newTimeout}返回的句柄
+ *
+ * @author liufuliang
+ */
+public interface Timeout {
+
+    TimerTask task();
+
+    boolean isExpired();
+
+    boolean isCancelled();
+
+    /**
+     * 取消未到期的任务, O(1)
+     *
+     * @return 任务已经到期或者已经取消时返回false
+     */
+    boolean cancel();
+}
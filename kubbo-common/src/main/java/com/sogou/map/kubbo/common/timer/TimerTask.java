@@ -0,0 +1,14 @@
+package com.sogou.map.kubbo.common.timer;
+
+/**
+ * 到期后在{@link HashedWheelTimer}的工作线程内执行的任务
+ *
+ * @author liufuliang
+ */
+public interface TimerTask {
+
+    /**
+     * @param timeout 与该任务关联的timeout
+     */
+    void run(Timeout timeout) throws Exception;
+}
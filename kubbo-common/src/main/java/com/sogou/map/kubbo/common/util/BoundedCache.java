@@ -0,0 +1,231 @@
+package com.sogou.map.kubbo.common.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 有大小上限和过期时间的缓存, 线程安全.
+ * <ul>
+ * <li>lru: 满时淘汰最近最少访问的项</li>
+ * <li>tinylfu: 同lru选出待淘汰的项, 但只有新项的访问频率(近似计数)高于该项时才替换,
+ * 避免偶尔访问一次的key冲掉热点数据</li>
+ * </ul>
+ *
+ * @author liufuliang
+ */
+public class BoundedCache<K, V> {
+
+    public static final String LRU = "lru";
+
+    public static final String TINYLFU = "tinylfu";
+
+    private final int maxSize;
+
+    // 毫秒, <=0表示不过期
+    private final long ttl;
+
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    private final FrequencySketch sketch;
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    private long evictions = 0;
+
+    public BoundedCache(int maxSize, long ttl) {
+        this(LRU, maxSize, ttl);
+    }
+
+    /**
+     * @param policy lru或tinylfu
+     * @param maxSize 最多的项数
+     * @param ttl 过期时间(毫秒), &lt;=0表示不过期
+     */
+    public BoundedCache(String policy, int maxSize, long ttl) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be >= 1: " + maxSize);
+        }
+        if (TINYLFU.equalsIgnoreCase(policy)) {
+            sketch = new FrequencySketch(maxSize);
+        } else if (policy == null || LRU.equalsIgnoreCase(policy)) {
+            sketch = null;
+        } else {
+            throw new IllegalArgumentException("Unsupported cache policy " + policy + ", expect lru or tinylfu");
+        }
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+    }
+
+    public synchronized V get(K key) {
+        if (sketch != null) {
+            sketch.increment(key.hashCode());
+        }
+        Entry<V> entry = entries.get(key);
+        if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            ++misses;
+            return null;
+        }
+        ++hits;
+        return entry.value;
+    }
+
+    /**
+     * @return 加入缓存时返回true, tinylfu策略下访问频率不够时返回false
+     */
+    public synchronized boolean put(K key, V value) {
+        long now = System.currentTimeMillis();
+        Entry<V> entry = new Entry<V>(value, ttl > 0 ? now + ttl : Long.MAX_VALUE);
+        if (entries.containsKey(key) || entries.size() < maxSize) {
+            entries.put(key, entry);
+            return true;
+        }
+        Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+        Map.Entry<K, Entry<V>> victim = it.next();
+        if (sketch != null && !victim.getValue().isExpired(now)
+                && sketch.frequency(key.hashCode()) <= sketch.frequency(victim.getKey().hashCode())) {
+            return false;
+        }
+        it.remove();
+        ++evictions;
+        entries.put(key, entry);
+        return true;
+    }
+
+    public synchronized V remove(K key) {
+        Entry<V> entry = entries.remove(key);
+        return entry == null ? null : entry.value;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BoundedCache [policy=" + (sketch == null ? LRU : TINYLFU) + ", size=" + entries.size() + "/" + maxSize
+                + ", ttl=" + ttl + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+    }
+
+    private static final class Entry<V> {
+        final V value;
+
+        final long expireAt;
+
+        Entry(V value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expireAt;
+        }
+    }
+
+    /**
+     * 4位计数的Count-Min Sketch, 每个long保存16个计数.
+     * 计数次数达到表大小的10倍时所有计数减半, 使频率随时间衰减.
+     */
+    static final class FrequencySketch {
+
+        private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+
+        private final int tableMask;
+
+        private final int sampleSize;
+
+        private int additions = 0;
+
+        FrequencySketch(int maxSize) {
+            // 较小的缓存同样保留足够的计数, 避免冲突和过快的衰减
+            int capacity = 64;
+            while (capacity < maxSize && capacity < (1 << 26)) {
+                capacity <<= 1;
+            }
+            table = new long[capacity];
+            tableMask = capacity - 1;
+            sampleSize = capacity * 10;
+        }
+
+        int frequency(int hashCode) {
+            int hash = spread(hashCode);
+            int start = (hash & 3) << 2;
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; ++i) {
+                int offset = (start + i) << 2;
+                int count = (int) ((table[indexOf(hash, i)] >>> offset) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        void increment(int hashCode) {
+            int hash = spread(hashCode);
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; ++i) {
+                added |= incrementAt(indexOf(hash, i), start + i);
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        private boolean incrementAt(int index, int counter) {
+            int offset = counter << 2;
+            long mask = 0xfL << offset;
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << offset;
+                return true;
+            }
+            return false;
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; ++i) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            additions >>>= 1;
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return ((int) h) & tableMask;
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+}
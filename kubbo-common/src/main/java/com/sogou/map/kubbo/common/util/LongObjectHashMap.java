@@ -0,0 +1,188 @@
+package com.sogou.map.kubbo.common.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * long为key的开放寻址(线性探测)哈希表, key不装箱, 没有Entry对象.
+ * 删除时回移后续元素, 不留墓碑. 非线程安全.
+ *
+ * @author liufuliang
+ */
+public class LongObjectHashMap<V> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+
+    private Object[] values; // null表示空槽
+
+    private int mask;
+
+    private int shift;
+
+    private int size;
+
+    private int maxSize;
+
+    public LongObjectHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LongObjectHashMap(int initialCapacity) {
+        if (initialCapacity < 1) {
+            throw new IllegalArgumentException("initialCapacity must be >= 1: " + initialCapacity);
+        }
+        int capacity = 2;
+        while (capacity < initialCapacity / LOAD_FACTOR) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int index = indexOf(key);
+        return index < 0 ? null : (V) values[index];
+    }
+
+    public boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * @return 旧值
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value == NULL");
+        }
+        int index = hash(key);
+        for (;;) {
+            Object old = values[index];
+            if (old == null) {
+                keys[index] = key;
+                values[index] = value;
+                if (++size > maxSize) {
+                    rehash(keys.length << 1);
+                }
+                return null;
+            }
+            if (keys[index] == key) {
+                values[index] = value;
+                return (V) old;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        Object old = values[index];
+        removeAt(index);
+        return (V) old;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * @return 所有value的拷贝
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<V> list = new ArrayList<V>(size);
+        for (Object value : values) {
+            if (value != null) {
+                list.add((V) value);
+            }
+        }
+        return list;
+    }
+
+    private int indexOf(long key) {
+        int index = hash(key);
+        for (;;) {
+            if (values[index] == null) {
+                return -1;
+            }
+            if (keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    // 回移删除位置之后同一探测链上的元素, 保证查找不会在空槽提前结束
+    private void removeAt(int index) {
+        --size;
+        values[index] = null;
+        int hole = index;
+        int i = (index + 1) & mask;
+        while (values[i] != null) {
+            int bucket = hash(keys[i]);
+            // bucket不在(hole, i]之间时才能移到hole
+            boolean movable = hole <= i ? (bucket <= hole || bucket > i) : (bucket <= hole && bucket > i);
+            if (movable) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                values[i] = null;
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private int hash(long key) {
+        // 乘法散列打散递增的key(如请求id), 否则线性探测会形成连续的大簇, 删除时回移退化为O(n)
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        maxSize = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; ++i) {
+            Object value = oldValues[i];
+            if (value != null) {
+                int index = hash(oldKeys[i]);
+                while (values[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = value;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LongObjectHashMap [size=" + size + "]";
+    }
+}
@@ -113,6 +113,13 @@ public class NetUtils {
         return ! isInvalidLocalHost(host);
     }
 
+    /**
+     * 是否指向本机(回环地址, 任意地址或本机网卡IP)
+     */
+    public static boolean isSameHost(String host) {
+        return isInvalidLocalHost(host) || host.equals(getHostAddress());
+    }
+
     public static InetSocketAddress getLocalSocketAddress(String host, int port) {
         return isInvalidLocalHost(host) ? 
                 new InetSocketAddress(port) : new InetSocketAddress(host, port);
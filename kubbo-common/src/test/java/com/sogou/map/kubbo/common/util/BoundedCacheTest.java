@@ -0,0 +1,70 @@
+/**
+ *
+ */
+package com.sogou.map.kubbo.common.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author liufuliang
+ *
+ */
+public class BoundedCacheTest {
+    @Test
+    public void testLru(){
+        BoundedCache<String, String> cache = new BoundedCache<String, String>(2, 0);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        // 访问a之后, b是最近最少访问的
+        Assert.assertEquals("1", cache.get("a"));
+        Assert.assertTrue(cache.put("c", "3"));
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals("1", cache.get("a"));
+        Assert.assertEquals("3", cache.get("c"));
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertEquals(3, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testTtl() throws Exception{
+        BoundedCache<String, String> cache = new BoundedCache<String, String>(10, 50);
+        cache.put("a", "1");
+        Assert.assertEquals("1", cache.get("a"));
+        Thread.sleep(100);
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testTinyLfu(){
+        BoundedCache<String, String> cache = new BoundedCache<String, String>(BoundedCache.TINYLFU, 2, 0);
+        for (int i = 0; i < 5; ++i) {
+            cache.get("a");
+            cache.put("a", "1");
+            cache.get("b");
+            cache.put("b", "2");
+        }
+        // 只访问一次的key不能替换热点数据
+        for (int i = 0; i < 100; ++i) {
+            cache.get("x" + i);
+            Assert.assertFalse(cache.put("x" + i, "x"));
+        }
+        Assert.assertEquals("1", cache.get("a"));
+        Assert.assertEquals("2", cache.get("b"));
+
+        // 访问多次之后可以替换
+        for (int i = 0; i < 10; ++i) {
+            cache.get("y");
+        }
+        Assert.assertTrue(cache.put("y", "y"));
+        Assert.assertEquals("y", cache.get("y"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalPolicy(){
+        new BoundedCache<String, String>("fifo", 10, 0);
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ *
+ */
+package com.sogou.map.kubbo.common.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author liufuliang
+ *
+ */
+public class LongObjectHashMapTest {
+    @Test
+    public void testPutGetRemove(){
+        LongObjectHashMap<String> map = new LongObjectHashMap<String>();
+        Assert.assertNull(map.put(1L, "a"));
+        Assert.assertEquals("a", map.put(1L, "b"));
+        Assert.assertEquals("b", map.get(1L));
+        Assert.assertEquals(1, map.size());
+        Assert.assertEquals("b", map.remove(1L));
+        Assert.assertNull(map.get(1L));
+        Assert.assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testRandomAgainstHashMap(){
+        LongObjectHashMap<Long> map = new LongObjectHashMap<Long>(4);
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        Random random = new Random(7);
+        for (int i = 0; i < 200000; ++i) {
+            // 小范围的key制造大量冲突和回移
+            long key = random.nextInt(2048) + (random.nextBoolean() ? 0 : (1L << 32));
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                Assert.assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+            }
+            Assert.assertEquals(expected.size(), map.size());
+        }
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        Assert.assertEquals(expected.size(), map.values().size());
+    }
+}
@@ -53,6 +53,11 @@ public class EtcdDiscoveryDirectory<T> extends AbstractDiscoveryDirectory<T>{
         }
     }
     
+    @Override
+    protected String getServicePath() {
+        return DEFAULT_SERVICE_PATH;
+    }
+    
     /**
      * TODO model
      * 为了简单起见, 直接使用kubernetes的Endpoints Api
@@ -1,6 +1,7 @@
 package com.sogou.map.kubbo.distributed.discovery;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -8,14 +9,19 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
+import com.sogou.map.kubbo.common.Constants;
 import com.sogou.map.kubbo.common.URL;
+import com.sogou.map.kubbo.common.logger.Logger;
+import com.sogou.map.kubbo.common.logger.LoggerFactory;
 import com.sogou.map.kubbo.common.threadpool.impl.CachedThreadPool;
+import com.sogou.map.kubbo.common.util.NetUtils;
 import com.sogou.map.kubbo.distributed.directory.AbstractDirectory;
 import com.sogou.map.kubbo.rpc.Invocation;
 import com.sogou.map.kubbo.rpc.Invoker;
 import com.sogou.map.kubbo.rpc.Protocol;
 import com.sogou.map.kubbo.rpc.Protocols;
 import com.sogou.map.kubbo.rpc.RpcException;
+import com.sogou.map.kubbo.rpc.protocol.injvm.InjvmProtocol;
 
 /**
  * AbstractDiscoveryDirectory
@@ -26,16 +32,22 @@ import com.sogou.map.kubbo.rpc.RpcException;
  */
 public abstract class AbstractDiscoveryDirectory<T> extends AbstractDirectory<T> {
 
+    private static final Logger logger = LoggerFactory.getLogger(AbstractDiscoveryDirectory.class);
+
     private static final String DISCOVERY_POOL_NAME = "kubbo-discovery";
     
     protected volatile List<Invoker<T>> invokers;
     
+    // 同一JVM内暴露了匹配的服务时优先使用
+    private volatile List<Invoker<T>> injvmInvokers;
+    
     protected Executor workLoop = CachedThreadPool.getExecutor(2, 2, 3, TimeUnit.MINUTES, 
             new LinkedBlockingQueue<Runnable>(), DISCOVERY_POOL_NAME, true);
     
     protected AbstractDiscoveryDirectory(Class<T> type, URL url) {
         super(type, url);
         invokers = new ArrayList<Invoker<T>>();
+        referInjvm();
     }
 
     @Override
@@ -43,6 +55,10 @@ public abstract class AbstractDiscoveryDirectory<T> extends AbstractDirectory<T>
         if (isDestroyed()) {
             return false;
         }
+        List<Invoker<T>> injvm = injvmInvokers;
+        if (injvm != null && injvm.get(0).isAvailable()) {
+            return true;
+        }
         for(Invoker<T> invoker : new ArrayList<Invoker<T>>(invokers)){
             if(invoker.isAvailable()){
                 return true;
@@ -53,6 +69,10 @@ public abstract class AbstractDiscoveryDirectory<T> extends AbstractDirectory<T>
 
     @Override
     protected List<Invoker<T>> doList(Invocation invocation) throws RpcException {
+        List<Invoker<T>> injvm = injvmInvokers;
+        if (injvm != null && injvm.get(0).isAvailable()) {
+            return injvm;
+        }
         return invokers;
     }
 
@@ -117,7 +137,7 @@ public abstract class AbstractDiscoveryDirectory<T> extends AbstractDirectory<T>
             String identity = entry.getKey();
             URL notifyAddress = entry.getValue();
             if(!identityAndInvokers.containsKey(identity)){
-                URL invokeUrl = notifyAddress.addParametersIfAbsent(url.getParameters());
+                URL invokeUrl = preferLocalSocket(notifyAddress.addParametersIfAbsent(url.getParameters()));
                 Protocol protocol = Protocols.getExtension(invokeUrl);
                 Invoker<T> invoker = null;
                 try{
@@ -137,6 +157,54 @@ public abstract class AbstractDiscoveryDirectory<T> extends AbstractDirectory<T>
         }
     }
     
+    /*
+     * 服务提供者暴露服务的path, 与发现的地址一致
+     */
+    protected String getServicePath() {
+        return url.getPath();
+    }
+    
+    /*
+     * group, version取目录的参数, 构造时引用一次injvm invoker, 
+     * 不依赖发现的结果, 本地暴露了匹配的服务时即可使用
+     */
+    private void referInjvm() {
+        if (!url.getParameter(Constants.INJVM_KEY, Constants.DEFAULT_INJVM)) {
+            return;
+        }
+        URL injvmUrl = url.withProtocol(InjvmProtocol.NAME).withPath(getServicePath());
+        try {
+            Invoker<T> invoker = Protocols.getExtension(InjvmProtocol.NAME).refer(type, injvmUrl);
+            injvmInvokers = Collections.singletonList(invoker);
+        } catch (Throwable t) {
+            logger.warn("Failed to refer injvm invoker for " + injvmUrl, t);
+        }
+    }
+    
+    @Override
+    public void destroy() {
+        super.destroy();
+        List<Invoker<T>> injvm = injvmInvokers;
+        injvmInvokers = null;
+        if (injvm != null) {
+            injvm.get(0).destroy();
+        }
+    }
+    
+    /*
+     * 服务提供者与消费者在同一主机(同pod)时, 保留unix.socket参数, 优先走unix domain socket;
+     * 其他主机的服务提供者移除该参数, 走TCP
+     */
+    protected URL preferLocalSocket(URL invokeUrl) {
+        if (!invokeUrl.hasParameter(Constants.UNIX_SOCKET_KEY)) {
+            return invokeUrl;
+        }
+        if (NetUtils.isSameHost(invokeUrl.getHost())) {
+            return invokeUrl;
+        }
+        return invokeUrl.removeParameter(Constants.UNIX_SOCKET_KEY);
+    }
+    
     /**
      * async
      */
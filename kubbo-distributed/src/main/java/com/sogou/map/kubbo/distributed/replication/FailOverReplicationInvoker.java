@@ -14,6 +14,7 @@ import com.sogou.map.kubbo.rpc.Invocation;
 import com.sogou.map.kubbo.rpc.Invoker;
 import com.sogou.map.kubbo.rpc.Result;
 import com.sogou.map.kubbo.rpc.RpcException;
+import com.sogou.map.kubbo.rpc.RpcInvocation;
 
 
 /**
@@ -52,6 +53,10 @@ public class FailOverReplicationInvoker<T> extends AbstractReplicationInvoker<T>
             //注意：如果列表发生了变化，那么invoked判断会失效，因为invoker示例已经改变
             if (i > 0) {
                 copyinvokers = list(invocation);
+                //之后还会重试时, 参数只编码一次, 之后的重试直接发送编码后的字节
+                if (i < tries - 1 && invocation instanceof RpcInvocation) {
+                    ((RpcInvocation) invocation).setEncodeOnce(true);
+                }
             }
             Invoker<T> invoker = select(invocation, copyinvokers, invoked, loadbalance);
             invoked.add(invoker);
@@ -0,0 +1,95 @@
+/**
+ *
+ */
+package com.sogou.map.kubbo.distributed.discovery;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sogou.map.kubbo.common.URL;
+import com.sogou.map.kubbo.common.extension.Extensions;
+import com.sogou.map.kubbo.rpc.Exporter;
+import com.sogou.map.kubbo.rpc.Invoker;
+import com.sogou.map.kubbo.rpc.InvokerProxy;
+import com.sogou.map.kubbo.rpc.Protocol;
+import com.sogou.map.kubbo.rpc.Protocols;
+import com.sogou.map.kubbo.rpc.protocol.injvm.InjvmProtocol;
+
+/**
+ * @author liufuliang
+ *
+ */
+public class AbstractDiscoveryDirectoryTest {
+    private static Protocol protocol = Protocols.getExtension(InjvmProtocol.NAME);
+    private static InvokerProxy proxy = Extensions.getAdaptiveExtension(InvokerProxy.class);
+
+    public interface SampleService {
+        String echo(String message);
+    }
+
+    public static class SampleServiceImpl implements SampleService {
+        @Override
+        public String echo(String message) {
+            return message;
+        }
+    }
+
+    /*
+     * 发现的结果始终为空
+     */
+    static class EmptyDiscoveryDirectory<T> extends AbstractDiscoveryDirectory<T> {
+        EmptyDiscoveryDirectory(Class<T> type, URL url) {
+            super(type, url);
+        }
+
+        @Override
+        protected String getServicePath() {
+            return "";
+        }
+
+        @Override
+        protected List<URL> fetch() {
+            return Collections.emptyList();
+        }
+    }
+
+    @Test
+    public void testInjvmWithoutDiscoveredProvider() {
+        Exporter<SampleService> exporter = protocol.export(proxy.getInvoker(
+                new SampleServiceImpl(), SampleService.class, URL.valueOf("injvm://127.0.0.1/?version=1.0.0")));
+        EmptyDiscoveryDirectory<SampleService> directory = new EmptyDiscoveryDirectory<SampleService>(
+                SampleService.class, URL.valueOf("discovery://127.0.0.1:2379/default/sample?version=1.0.0"));
+        directory.synchronize();
+
+        // 没有发现任何服务提供者时, 使用本地暴露的服务
+        Assert.assertTrue(directory.isAvailable());
+        List<Invoker<SampleService>> invokers = directory.list(null);
+        Assert.assertEquals(1, invokers.size());
+        Invoker<SampleService> injvm = invokers.get(0);
+        Assert.assertEquals(InjvmProtocol.NAME, injvm.getUrl().getProtocol());
+        Assert.assertEquals("123456", proxy.getProxy(injvm).echo("123456"));
+
+        // 目录销毁时一同销毁injvm invoker
+        directory.destroy();
+        Assert.assertFalse(directory.isAvailable());
+        Assert.assertFalse(injvm.isAvailable());
+        exporter.unexport();
+    }
+
+    @Test
+    public void testInjvmVersionMismatch() {
+        Exporter<SampleService> exporter = protocol.export(proxy.getInvoker(
+                new SampleServiceImpl(), SampleService.class, URL.valueOf("injvm://127.0.0.1/?version=1.0.0")));
+        EmptyDiscoveryDirectory<SampleService> directory = new EmptyDiscoveryDirectory<SampleService>(
+                SampleService.class, URL.valueOf("discovery://127.0.0.1:2379/default/sample?version=2.0.0"));
+        directory.synchronize();
+
+        Assert.assertFalse(directory.isAvailable());
+        Assert.assertTrue(directory.list(null).isEmpty());
+        directory.destroy();
+        exporter.unexport();
+    }
+}
@@ -9,6 +9,7 @@ package com.sogou.map.kubbo.metrics;
  */
 public interface Metric {
     public static final String FREQUENCY_ELAPSED            = "kubbo/frequency_elapsed";
+    public static final String CALLBACK_ELAPSED             = "kubbo/callback_elapsed";
     
     public static final String MEASUREMENT_KEY              = "measurement";
     
@@ -0,0 +1,120 @@
+package com.sogou.map.kubbo.metrics.filter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.sogou.map.kubbo.common.Constants;
+import com.sogou.map.kubbo.common.extension.Activate;
+import com.sogou.map.kubbo.metrics.FrequencyElapsedRecorder;
+import com.sogou.map.kubbo.metrics.Metric;
+import com.sogou.map.kubbo.metrics.SharedMetricsRegistry;
+import com.sogou.map.kubbo.rpc.Filter;
+import com.sogou.map.kubbo.rpc.Invocation;
+import com.sogou.map.kubbo.rpc.Invoker;
+import com.sogou.map.kubbo.rpc.Result;
+import com.sogou.map.kubbo.rpc.RpcContext;
+import com.sogou.map.kubbo.rpc.RpcException;
+import com.sogou.map.kubbo.rpc.RpcResult;
+import com.sogou.map.kubbo.rpc.concurrent.FutureListener;
+import com.sogou.map.kubbo.rpc.concurrent.ListenableFuture;
+
+/**
+ * 异步调用回调(FutureListener)的执行耗时, 用于发现阻塞响应处理的慢回调
+ * 
+ * @author liufuliang
+ */
+@Activate(group = { Constants.CONSUMER }, order = 1)
+public class CallbackMetricsFilter implements Filter {
+    private static final ConcurrentHashMap<String, FrequencyElapsedRecorder> RECORDERS = new ConcurrentHashMap<String, FrequencyElapsedRecorder>();
+
+    @Override
+    public Result invoke(Invoker<?> invoker, Invocation invocation) throws RpcException {
+        Result result = invoker.invoke(invocation);
+        if (result == RpcResult.ASYNC && SharedMetricsRegistry.isReportEnabled()) {
+            ListenableFuture<Object> future = RpcContext.get().getFuture();
+            if (future != null) {
+                String method = invoker.getInterface().getCanonicalName() + "." + invocation.getMethodName();
+                RpcContext.get().setFuture(new MeasuredListenableFuture<Object>(future, recorder(method)));
+            }
+        }
+        return result;
+    }
+
+    private static FrequencyElapsedRecorder recorder(String method) {
+        FrequencyElapsedRecorder recorder = RECORDERS.get(method);
+        if (recorder == null) {
+            FrequencyElapsedRecorder rec = SharedMetricsRegistry.instance().frequencyElapsedRecorder("callback:" + method);
+            rec.setAttribute(Metric.MEASUREMENT_KEY, Metric.CALLBACK_ELAPSED);
+            rec.setAttribute(Metric.TAG_METHOD, method);
+            RECORDERS.putIfAbsent(method, rec);
+            recorder = RECORDERS.get(method);
+        }
+        return recorder;
+    }
+
+    /*
+     * 记录每个回调在执行线程中的耗时
+     */
+    static class MeasuredListenableFuture<V> implements ListenableFuture<V> {
+        private final ListenableFuture<V> future;
+        private final FrequencyElapsedRecorder recorder;
+
+        MeasuredListenableFuture(ListenableFuture<V> future, FrequencyElapsedRecorder recorder) {
+            this.future = future;
+            this.recorder = recorder;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return future.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return future.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return future.isDone();
+        }
+
+        @Override
+        public V get() throws InterruptedException, ExecutionException {
+            return future.get();
+        }
+
+        @Override
+        public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return future.get(timeout, unit);
+        }
+
+        @Override
+        public ListenableFuture<V> addListener(final FutureListener<V> listener) {
+            future.addListener(new FutureListener<V>() {
+                @Override
+                public void done(V result) {
+                    long start = System.currentTimeMillis();
+                    try {
+                        listener.done(result);
+                    } finally {
+                        recorder.mark(System.currentTimeMillis() - start);
+                    }
+                }
+
+                @Override
+                public void caught(Throwable exception) {
+                    long start = System.currentTimeMillis();
+                    try {
+                        listener.caught(exception);
+                    } finally {
+                        recorder.mark(System.currentTimeMillis() - start);
+                    }
+                }
+            });
+            return this;
+        }
+    }
+}
@@ -54,6 +54,33 @@ public abstract class AbstractChannelBuffer implements ChannelBuffer {
         this.writerIndex = writerIndex;
     }
 
+    @Override
+    public int getInt(int index) {
+        return (getByte(index) & 0xff) << 24
+                | (getByte(index + 1) & 0xff) << 16
+                | (getByte(index + 2) & 0xff) << 8
+                | getByte(index + 3) & 0xff;
+    }
+
+    @Override
+    public long getLong(int index) {
+        return ((long) getInt(index) << 32) | (getInt(index + 4) & 0xffffffffL);
+    }
+
+    @Override
+    public void setInt(int index, int value) {
+        setByte(index, value >>> 24);
+        setByte(index + 1, value >>> 16);
+        setByte(index + 2, value >>> 8);
+        setByte(index + 3, value);
+    }
+
+    @Override
+    public void setLong(int index, long value) {
+        setInt(index, (int) (value >>> 32));
+        setInt(index + 4, (int) value);
+    }
+
     @Override
     public void clear() {
         readerIndex = writerIndex = 0;
@@ -290,6 +317,16 @@ public abstract class AbstractChannelBuffer implements ChannelBuffer {
         return copy(readerIndex, readableBytes());
     }
 
+    @Override
+    public ChannelBuffer retainedSlice(int index, int length) {
+        return copy(index, length);
+    }
+
+    @Override
+    public boolean release() {
+        return false;
+    }
+
     @Override
     public ByteBuffer toByteBuffer() {
         return toByteBuffer(readerIndex, readableBytes());
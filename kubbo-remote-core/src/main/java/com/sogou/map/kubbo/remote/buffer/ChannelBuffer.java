@@ -220,6 +220,24 @@ public interface ChannelBuffer extends Comparable<ChannelBuffer> {
      */
     ChannelBuffer copy(int index, int length);
 
+    /**
+     * Returns a sub-region of this buffer which holds its own reference to the
+     * content, so it stays valid after this buffer is reused or released. The
+     * caller must {@link #release()} the returned buffer. Implementations
+     * without reference counting return a {@link #copy(int, int) copy}. This
+     * method does not modify {@code readerIndex} or {@code writerIndex} of
+     * this buffer.
+     */
+    ChannelBuffer retainedSlice(int index, int length);
+
+    /**
+     * Releases a buffer returned by {@link #retainedSlice(int, int)}.
+     * Implementations without reference counting do nothing.
+     *
+     * @return {@code true} if the content has been deallocated
+     */
+    boolean release();
+
     /**
      * Discards the bytes between the 0th index and {@code readerIndex}. It
      * moves the bytes between {@code readerIndex} and {@code writerIndex} to
@@ -278,6 +296,28 @@ public interface ChannelBuffer extends Comparable<ChannelBuffer> {
      */
     byte getByte(int index);
 
+    /**
+     * Gets a 32-bit integer (big-endian) at the specified absolute {@code index}
+     * in this buffer. This method does not modify {@code readerIndex} or
+     * {@code writerIndex} of this buffer.
+     *
+     * @throws IndexOutOfBoundsException if the specified {@code index} is less
+     *                                   than {@code 0} or {@code index + 4} is
+     *                                   greater than {@code this.capacity}
+     */
+    int getInt(int index);
+
+    /**
+     * Gets a 64-bit long integer (big-endian) at the specified absolute
+     * {@code index} in this buffer. This method does not modify
+     * {@code readerIndex} or {@code writerIndex} of this buffer.
+     *
+     * @throws IndexOutOfBoundsException if the specified {@code index} is less
+     *                                   than {@code 0} or {@code index + 8} is
+     *                                   greater than {@code this.capacity}
+     */
+    long getLong(int index);
+
     /**
      * Transfers this buffer's data to the specified destination starting at the
      * specified absolute {@code index}. This method does not modify {@code
@@ -593,6 +633,28 @@ public interface ChannelBuffer extends Comparable<ChannelBuffer> {
      */
     void setByte(int index, int value);
 
+    /**
+     * Sets the specified 32-bit integer (big-endian) at the specified absolute
+     * {@code index} in this buffer. This method does not modify
+     * {@code readerIndex} or {@code writerIndex} of this buffer.
+     *
+     * @throws IndexOutOfBoundsException if the specified {@code index} is less
+     *                                   than {@code 0} or {@code index + 4} is
+     *                                   greater than {@code this.capacity}
+     */
+    void setInt(int index, int value);
+
+    /**
+     * Sets the specified 64-bit long integer (big-endian) at the specified
+     * absolute {@code index} in this buffer. This method does not modify
+     * {@code readerIndex} or {@code writerIndex} of this buffer.
+     *
+     * @throws IndexOutOfBoundsException if the specified {@code index} is less
+     *                                   than {@code 0} or {@code index + 8} is
+     *                                   greater than {@code this.capacity}
+     */
+    void setLong(int index, long value);
+
     /**
      * Transfers the specified source array's data to this buffer starting at
      * the specified absolute {@code index}. This method does not modify {@code
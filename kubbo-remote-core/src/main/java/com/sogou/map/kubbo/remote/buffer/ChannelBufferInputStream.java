@@ -9,15 +9,31 @@ import java.io.InputStream;
  */
 public class ChannelBufferInputStream extends InputStream {
 
-    private final ChannelBuffer buffer;
-    private final int startIndex;
-    private final int endIndex;
+    private ChannelBuffer buffer;
+    private int startIndex;
+    private int endIndex;
+
+    // 持有buffer的独立引用, close时释放
+    private boolean retained;
+    
+    /**
+     * 未绑定buffer, 使用前调用reset
+     */
+    public ChannelBufferInputStream() {
+    }
     
     public ChannelBufferInputStream(ChannelBuffer buffer) {
         this(buffer, buffer.readableBytes());
     }
     
     public ChannelBufferInputStream(ChannelBuffer buffer, int length) {
+        reset(buffer, length);
+    }
+
+    /**
+     * 绑定到buffer当前读位置开始的length个字节, 复用同一个实例
+     */
+    public ChannelBufferInputStream reset(ChannelBuffer buffer, int length) {
         if (buffer == null) {
             throw new NullPointerException("buffer");
         }
@@ -32,6 +48,27 @@ public class ChannelBufferInputStream extends InputStream {
         startIndex = buffer.readerIndex();
         endIndex = startIndex + length;
         buffer.markReaderIndex();
+        return this;
+    }
+
+    /**
+     * 读出剩余的字节作为独立的流, 与buffer共享内容而不拷贝(见{@link ChannelBuffer#retainedSlice(int, int)}),
+     * 原buffer可以继续复用或释放, 返回的流使用后需要close.
+     */
+    public ChannelBufferInputStream readRetainedStream() {
+        int length = endIndex - buffer.readerIndex();
+        ChannelBuffer slice = buffer.retainedSlice(buffer.readerIndex(), length);
+        buffer.skipBytes(length);
+        ChannelBufferInputStream stream = new ChannelBufferInputStream(slice, length);
+        stream.retained = true;
+        return stream;
+    }
+
+    /**
+     * 解除对buffer的引用
+     */
+    public void clear() {
+        buffer = null;
     }
 
     public int readBytes() {
@@ -55,7 +92,7 @@ public class ChannelBufferInputStream extends InputStream {
 
     @Override
     public int read() throws IOException {
-        if (!buffer.readable()) {
+        if (available() <= 0) {
             return -1;
         }
         return buffer.readByte() & 0xff;
@@ -93,6 +130,14 @@ public class ChannelBufferInputStream extends InputStream {
         return nBytes;
     }
     
+    @Override
+    public void close() throws IOException {
+        if (retained) {
+            retained = false;
+            buffer.release();
+        }
+    }
+
     public boolean isDirect(){
         return buffer.isDirect();
     }
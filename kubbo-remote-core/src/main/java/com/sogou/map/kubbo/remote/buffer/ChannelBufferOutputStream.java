@@ -9,15 +9,36 @@ import java.io.OutputStream;
  */
 public class ChannelBufferOutputStream extends OutputStream {
 
-    private final ChannelBuffer buffer;
-    private final int startIndex;
+    private ChannelBuffer buffer;
+    private int startIndex;
+
+    /**
+     * 未绑定buffer, 使用前调用reset
+     */
+    public ChannelBufferOutputStream() {
+    }
 
     public ChannelBufferOutputStream(ChannelBuffer buffer) {
+        reset(buffer);
+    }
+
+    /**
+     * 绑定到buffer的当前写位置, 复用同一个实例
+     */
+    public ChannelBufferOutputStream reset(ChannelBuffer buffer) {
         if (buffer == null) {
             throw new NullPointerException("buffer");
         }
         this.buffer = buffer;
         startIndex = buffer.writerIndex();
+        return this;
+    }
+
+    /**
+     * 解除对buffer的引用
+     */
+    public void clear() {
+        buffer = null;
     }
 
     public int writtenBytes() {
@@ -11,41 +11,21 @@ import com.sogou.map.kubbo.remote.session.Response;
 import com.sogou.map.kubbo.remote.transport.handler.AbstractChannelHandlerDelegate;
 
 /**
+ * 应答心跳请求, 丢弃心跳响应.
+ * 心跳的发送和超时检测由传输层在IO线程内完成, 如netty的NettyIdleHandler.
+ *
  * @author liufuliang
  */
 public class HeartbeatHandler extends AbstractChannelHandlerDelegate {
 
     private static final Logger logger = LoggerFactory.getLogger(HeartbeatHandler.class);
 
-    public static String KEY_READ_TIMESTAMP = "READ_TIMESTAMP";
-
-    public static String KEY_WRITE_TIMESTAMP = "WRITE_TIMESTAMP";
-
     public HeartbeatHandler(ChannelHandler handler) {
         super(handler);
     }
 
-    @Override
-    public void onConnected(Channel channel) throws RemotingException {
-        readAndWriteActive(channel);
-        handler.onConnected(channel);
-    }
-
-    @Override
-    public void onDisconnected(Channel channel) throws RemotingException {
-        readAndWriteInactive(channel);
-        handler.onDisconnected(channel);
-    }
-
-    @Override
-    public void onSent(Channel channel, Object message) throws RemotingException {
-        writeActive(channel);
-        handler.onSent(channel, message);
-    }
-    
     @Override
     public void onReceived(Channel channel, Object message) throws RemotingException {
-        readActive(channel);
         if (isHeartbeatRequest(message)) {
             Request req = (Request) message;
             if (req.isTwoWay()) {
@@ -75,24 +55,6 @@ public class HeartbeatHandler extends AbstractChannelHandlerDelegate {
         }
         handler.onReceived(channel, message);
     }
-    private void readAndWriteActive(Channel channel) {
-        channel.setAttribute(KEY_READ_TIMESTAMP, System.currentTimeMillis());
-        channel.setAttribute(KEY_WRITE_TIMESTAMP, System.currentTimeMillis());
-    }
-    
-    private void readActive(Channel channel) {
-        channel.setAttribute(KEY_READ_TIMESTAMP, System.currentTimeMillis());
-    }
-
-    private void writeActive(Channel channel) {
-        channel.setAttribute(KEY_WRITE_TIMESTAMP, System.currentTimeMillis());
-    }
-
-    private void readAndWriteInactive(Channel channel) {
-        channel.removeAttribute(KEY_READ_TIMESTAMP);
-        channel.removeAttribute(KEY_WRITE_TIMESTAMP);
-    }
-
     private boolean isHeartbeatRequest(Object message) {
         return (message instanceof Request) && ((Request) message).isHeartbeat();
     }
@@ -4,15 +4,26 @@
 package com.sogou.map.kubbo.remote.session;
 
 /**
+ * 已经编码的消息, 编码时直接写出字节.
+ * 可以在多次发送(重试, 广播)之间共享, 共享时不能修改字节内容.
+ * 
  * @author liufuliang
  *
  */
 public class EncodedMessage {
     
     byte[] bytes;
+
+    // 编码使用的序列化, -1表示未指定
+    final byte serializationId;
     
     public EncodedMessage(byte[] bytes) {
+        this((byte) -1, bytes);
+    }
+
+    public EncodedMessage(byte serializationId, byte[] bytes) {
         super();
+        this.serializationId = serializationId;
         this.bytes = bytes;
     }
 
@@ -23,4 +34,8 @@ public class EncodedMessage {
     public void setBytes(byte[] bytes) {
         this.bytes = bytes;
     }
+
+    public byte getSerializationId() {
+        return serializationId;
+    }
 }
@@ -0,0 +1,71 @@
+package com.sogou.map.kubbo.remote.session;
+
+import com.sogou.map.kubbo.common.util.LongObjectHashMap;
+import com.sogou.map.kubbo.remote.Channel;
+
+/**
+ * 服务端每个连接上已收到, 排队或正在处理的双向请求, 作为attribute保存在传输层的channel上.
+ * 收到请求时在IO线程中加入, 处理结束时移除, 用于按请求id取消.
+ *
+ * @author liufuliang
+ */
+public final class ProcessingRequests {
+
+    private static final String PROCESSING_KEY = ProcessingRequests.class.getName() + ".PROCESSING";
+
+    private final LongObjectHashMap<Request> requests = new LongObjectHashMap<Request>(64);
+
+    private ProcessingRequests() {
+    }
+
+    public static void add(Channel channel, Request request) {
+        ProcessingRequests processing = (ProcessingRequests) channel.getAttribute(PROCESSING_KEY);
+        if (processing == null) {
+            synchronized (channel) {
+                processing = (ProcessingRequests) channel.getAttribute(PROCESSING_KEY);
+                if (processing == null) {
+                    processing = new ProcessingRequests();
+                    channel.setAttribute(PROCESSING_KEY, processing);
+                }
+            }
+        }
+        synchronized (processing) {
+            processing.requests.put(request.getId(), request);
+        }
+    }
+
+    public static void remove(Channel channel, Request request) {
+        ProcessingRequests processing = (ProcessingRequests) channel.getAttribute(PROCESSING_KEY);
+        if (processing == null) {
+            return;
+        }
+        synchronized (processing) {
+            // 同一id只移除自己, 避免误删
+            if (processing.requests.get(request.getId()) == request) {
+                processing.requests.remove(request.getId());
+            }
+        }
+    }
+
+    /**
+     * 标记请求已取消, 排队的请求不再执行, 正在执行的请求可以通过标记提前结束
+     *
+     * @return 请求已经处理结束或不存在时返回false
+     */
+    public static boolean cancel(Channel channel, long id) {
+        ProcessingRequests processing = (ProcessingRequests) channel.getAttribute(PROCESSING_KEY);
+        if (processing == null) {
+            return false;
+        }
+        Request request;
+        synchronized (processing) {
+            request = processing.requests.remove(id);
+        }
+        if (request == null) {
+            return false;
+        }
+        request.setCancelled(true);
+        return true;
+    }
+
+}
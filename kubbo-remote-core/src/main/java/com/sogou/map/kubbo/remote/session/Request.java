@@ -16,6 +16,9 @@ public class Request {
 
     /** readonly event */
     public static final String EVENT_READONLY = "R";
+
+    /** cancel event, 请求id即被取消的请求的id */
+    public static final String EVENT_CANCEL = "C";
     
     /** request id seq */
     private static final AtomicLong REQUEST_SEQ = new AtomicLong(0);
@@ -32,6 +35,15 @@ public class Request {
 
     private Object data;
 
+    // 调用方等待的截止时间(本地时钟), 0表示没有
+    private long deadline = 0;
+
+    // 服务端收到调用方的取消
+    private volatile boolean cancelled = false;
+
+    // 服务端收到的批量请求, 响应合并发送
+    private ResponseBatch batch;
+
     public Request() {
         id = newId();
     }
@@ -89,6 +101,41 @@ public class Request {
         this.data = msg;
     }
 
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * 双向请求已经超过调用方的截止时间, 结果不再有人等待
+     */
+    public boolean isExpired() {
+        return twoWay && deadline > 0 && System.currentTimeMillis() > deadline;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void setCancelled(boolean cancelled) {
+        this.cancelled = cancelled;
+    }
+
+    public ResponseBatch getBatch() {
+        return batch;
+    }
+
+    public void setBatch(ResponseBatch batch) {
+        this.batch = batch;
+    }
+
+    public boolean isCancel() {
+        return event && EVENT_CANCEL.equals(data);
+    }
+
     public boolean isHeartbeat() {
         return event && EVENT_HEARTBEAT == data;
     }
@@ -0,0 +1,35 @@
+package com.sogou.map.kubbo.remote.session;
+
+import com.sogou.map.kubbo.remote.RemotingException;
+
+/**
+ * 批量请求. 加入的请求立即创建future并开始计时, send时合并为一帧发送.
+ * 非线程安全, 由创建的线程使用.
+ * 
+ * @author liufuliang
+ */
+public interface RequestBatch {
+
+    /**
+     * add request, 暂不发送.
+     * 
+     * @param request
+     * @param timeout
+     * @return response future
+     * @throws RemotingException
+     */
+    ResponseFuture request(Object request, int timeout) throws RemotingException;
+
+    /**
+     * 合并发送所有请求, 发送失败时所有请求的future失败.
+     * 
+     * @throws RemotingException
+     */
+    void send() throws RemotingException;
+
+    /**
+     * @return 请求数
+     */
+    int size();
+
+}
@@ -0,0 +1,55 @@
+package com.sogou.map.kubbo.remote.session;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sogou.map.kubbo.common.logger.Logger;
+import com.sogou.map.kubbo.common.logger.LoggerFactory;
+import com.sogou.map.kubbo.remote.Channel;
+import com.sogou.map.kubbo.remote.RemotingException;
+import com.sogou.map.kubbo.remote.transport.MessageArray;
+
+/**
+ * 服务端对同一批量请求的响应, 所有请求处理结束后合并为一帧发送.
+ * 被丢弃(超时, 取消)或没有执行的请求同样要结束, 否则其它响应不会发出.
+ * 
+ * @author liufuliang
+ */
+public final class ResponseBatch {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResponseBatch.class);
+
+    private final List<Object> responses;
+
+    private int remaining;
+
+    public ResponseBatch(int size) {
+        this.responses = new ArrayList<Object>(size);
+        this.remaining = size;
+    }
+
+    public synchronized void add(Response response) {
+        responses.add(response);
+    }
+
+    /**
+     * 一个请求处理结束, 最后一个结束时发送所有响应
+     */
+    public void finish(Channel channel) {
+        MessageArray array;
+        synchronized (this) {
+            if (--remaining > 0 || responses.isEmpty()) {
+                return;
+            }
+            array = MessageArray.create(responses);
+            responses.clear();
+        }
+        try {
+            channel.send(array.size() == 1 ? array.get(0) : array);
+        } catch (RemotingException e) {
+            logger.warn("Fail to send batch responses, channel: " + channel.getLocalAddress() + " -> " + channel.getRemoteAddress()
+                    + ", cause: " + e.getMessage(), e);
+        }
+    }
+
+}
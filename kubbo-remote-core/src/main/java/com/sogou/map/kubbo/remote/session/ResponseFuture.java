@@ -40,7 +40,9 @@ public interface ResponseFuture {
     
     /**
      * concal the future
+     * 
+     * @return 由本次调用完成时返回true, 已经完成(响应, 超时或已取消)时返回false
      */
-    void cancel();
+    boolean cancel();
 
 }
\ No newline at end of file
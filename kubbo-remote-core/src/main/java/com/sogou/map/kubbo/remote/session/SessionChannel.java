@@ -29,6 +29,13 @@ public interface SessionChannel extends Channel {
      */
     ResponseFuture request(Object request, int timeout) throws RemotingException;
 
+    /**
+     * create request batch, 合并发送多个请求.
+     * 
+     * @return request batch
+     */
+    RequestBatch batch();
+
     /**
      * get message handler.
      * 
@@ -21,6 +21,8 @@ import com.sogou.map.kubbo.remote.serialization.Serializations;
 import com.sogou.map.kubbo.remote.session.EncodedMessage;
 import com.sogou.map.kubbo.remote.session.Request;
 import com.sogou.map.kubbo.remote.session.Response;
+import com.sogou.map.kubbo.remote.session.ResponseBatch;
+import com.sogou.map.kubbo.remote.transport.MessageArray;
 import com.sogou.map.kubbo.remote.transport.codec.TransportCodec;
 
 /**
@@ -52,6 +54,15 @@ public class SessionCodec extends TransportCodec {
     protected static final byte FLAG_EVENT = (byte) 0x20;
 
     protected static final int SERIALIZATION_MASK = 0x1f;
+
+    // 响应没有双向标记, 该位表示服务端是支持扩展帧格式的版本, 与服务端的配置无关; 低版本的客户端忽略该位
+    protected static final byte FLAG_EXTENDED = FLAG_TWOWAY;
+
+    // 批量帧, header[3]标记, 消息体是若干个完整的请求帧或响应帧
+    protected static final byte BATCH = (byte) 0xff;
+
+    // 客户端: 收到过带FLAG_EXTENDED的响应, 对端支持扩展帧格式
+    private static final String EXTENDED_KEY = SessionCodec.class.getName() + ".EXTENDED";
     
     public Short getMagicCode() {
         return MAGIC;
@@ -63,6 +74,8 @@ public class SessionCodec extends TransportCodec {
             encodeRequest(channel, buffer, (Request) msg);
         } else if (msg instanceof Response) {
             encodeResponse(channel, buffer, (Response) msg);
+        } else if (msg instanceof MessageArray) {
+            encodeBatch(channel, buffer, (MessageArray) msg);
         } else {
             super.encode(channel, buffer, msg);
         }
@@ -70,121 +83,180 @@ public class SessionCodec extends TransportCodec {
 
     @Override
     public Object decode(Channel channel, ChannelBuffer buffer) throws IOException {
-        int readable = buffer.readableBytes();
-        byte[] header = new byte[Math.min(readable, HEADER_LENGTH)];
-        buffer.readBytes(header);
-        return decode(channel, buffer, readable, header);
+        return decodeFrame(channel, buffer);
+    }
+
+    // 只解码一帧, 子类的decode(Channel, ChannelBuffer)可能连续解码多帧
+    private Object decodeFrame(Channel channel, ChannelBuffer buffer) throws IOException {
+        return decode(channel, buffer, buffer.readableBytes());
+    }
+
+    /**
+     * 客户端: 对端是否支持扩展帧格式(如批量帧), 收到第一个带标记的响应之前为false
+     */
+    protected static boolean isExtendedSupported(Channel channel) {
+        return channel.getAttribute(EXTENDED_KEY) != null;
+    }
+
+    /**
+     * 批量帧: 外层header + 若干完整的子帧. 
+     * 请求批量帧的id为第一个请求的id, 服务端处理完所有请求后同样以批量帧返回响应.
+     * 对端不支持批量帧时, 请求逐个编码为独立的帧.
+     */
+    protected void encodeBatch(Channel channel, ChannelBuffer buffer, MessageArray array) throws IOException {
+        if (array.isEmpty()) {
+            return;
+        }
+        Object first = array.get(0);
+        if (array.size() == 1 || first instanceof Request && !isExtendedSupported(channel)) {
+            for (Object msg : array) {
+                encode(channel, buffer, msg);
+            }
+            return;
+        }
+        Serialization serialization = Serializations.getSerialization(channel.getUrl());
+
+        // set request and serialization flag.
+        byte flag = 0;
+        long id;
+        if (first instanceof Request) {
+            flag = (byte) (FLAG_REQUEST | FLAG_TWOWAY);
+            id = ((Request) first).getId();
+        } else if (first instanceof Response) {
+            id = ((Response) first).getId();
+        } else {
+            throw new IOException("Unsupported batch message: " + first);
+        }
+        flag |= serialization.getContentTypeId();
+
+        // encode messages.
+        int savedWriteIndex = buffer.writerIndex();
+        buffer.writerIndex(savedWriteIndex + HEADER_LENGTH);
+        for (int i = 0; i < array.size(); ++i) {
+            Object msg = array.get(i);
+            if (!(msg instanceof Request) && !(msg instanceof Response)) {
+                throw new IOException("Unsupported batch message: " + msg);
+            }
+            encode(channel, buffer, msg);
+        }
+
+        // len
+        int len = buffer.writerIndex() - savedWriteIndex - HEADER_LENGTH;
+        checkPayload(channel, len);
+
+        // write header.
+        setHeader(buffer, savedWriteIndex, flag, BATCH, id, len);
+    }
+
+    // 在预留的位置上直接写header, 不分配header数组
+    private static void setHeader(ChannelBuffer buffer, int index, byte flag, byte status, long id, int len) {
+        buffer.setByte(index, MAGIC_HIGH);
+        buffer.setByte(index + 1, MAGIC_LOW);
+        buffer.setByte(index + 2, flag);
+        buffer.setByte(index + 3, status);
+        buffer.setLong(index + 4, id);
+        buffer.setInt(index + 12, len);
     }
     
     protected void encodeRequest(Channel channel, ChannelBuffer buffer, Request req) throws IOException {
         Serialization serialization = Serializations.getSerialization(channel.getUrl());
-        // header.
-        byte[] header = new byte[HEADER_LENGTH];
-        // set magic number.
-        header[0] = MAGIC_HIGH;
-        header[1] = MAGIC_LOW;
 
         // set request and serialization flag.
-        header[2] = FLAG_REQUEST;
-        if (req.isTwoWay()) header[2] |= FLAG_TWOWAY;
-        if (req.isEvent()) header[2] |= FLAG_EVENT;
-        header[2] = (byte) (header[2] | serialization.getContentTypeId());
-
-        // set request id.
-        Bytes.long2bytes(req.getId(), header, 4);
+        byte flag = FLAG_REQUEST;
+        if (req.isTwoWay()) flag |= FLAG_TWOWAY;
+        if (req.isEvent()) flag |= FLAG_EVENT;
+        flag |= serialization.getContentTypeId();
 
         // encode request data.
         int savedWriteIndex = buffer.writerIndex();
         buffer.writerIndex(savedWriteIndex + HEADER_LENGTH);
-        ChannelBufferOutputStream stream = new ChannelBufferOutputStream(buffer);
-
-        ObjectOutput objectOutput = serialization.serialize(stream);
-        try{
-            if(req.isEvent()){
-                encodeData(channel, objectOutput, req.getData());
-            } else{
-                encodeRequestData(channel, objectOutput, req.getData());
+        Streams streams = Streams.acquire(channel);
+        ChannelBufferOutputStream stream = streams.output(buffer);
+        try {
+            ObjectOutput objectOutput = serialization.serialize(stream);
+            try{
+                if(req.isEvent()){
+                    encodeData(channel, objectOutput, req.getData());
+                } else{
+                    encodeRequestData(channel, objectOutput, req);
+                }
+                objectOutput.flushBuffer();
+            } finally{
+                Serializations.releaseSafely(objectOutput);
             }
-            objectOutput.flushBuffer();
-        } finally{
-            Serializations.releaseSafely(objectOutput);
-        }
 
-        // flush stream
-        stream.flush();
+            // flush stream
+            stream.flush();
+        } finally {
+            streams.release(stream);
+        }
         
         // len
-        int len = stream.writtenBytes();
+        int len = buffer.writerIndex() - savedWriteIndex - HEADER_LENGTH;
         checkPayload(channel, len);
-        Bytes.int2bytes(len, header, 12);
 
-        // write
-        buffer.writerIndex(savedWriteIndex);
-        buffer.writeBytes(header); // write header.
-        buffer.writerIndex(savedWriteIndex + HEADER_LENGTH + len);
-        
-        // close stream
-        stream.close();
+        // write header.
+        setHeader(buffer, savedWriteIndex, flag, (byte) 0, req.getId(), len);
     }
     
+    // 已经编码的结果, 编码时的序列化与连接不同时重新编码
+    private static boolean isEncoded(Object result, Serialization serialization) {
+        if (!(result instanceof EncodedMessage)) {
+            return false;
+        }
+        byte id = ((EncodedMessage) result).getSerializationId();
+        return id == -1 || id == serialization.getContentTypeId();
+    }
+
     protected void encodeResponse(Channel channel, ChannelBuffer buffer, Response res) throws IOException {
         try {
             Serialization serialization = Serializations.getSerialization(channel.getUrl());
-            // header.
-            byte[] header = new byte[HEADER_LENGTH];
-            // set magic number.
-            header[0] = MAGIC_HIGH;
-            header[1] = MAGIC_LOW;
             
             // set request and serialization flag.
-            header[2] = serialization.getContentTypeId();
-            if (res.isEvent()) header[2] |= FLAG_EVENT;
+            byte flag = serialization.getContentTypeId();
+            if (res.isEvent()) flag |= FLAG_EVENT;
+            flag |= FLAG_EXTENDED;
             
             // set response status.
             byte status = res.getStatus();
-            header[3] = status;
-            
-            // set request id.
-            Bytes.long2bytes(res.getId(), header, 4);
 
             int savedWriteIndex = buffer.writerIndex();
             buffer.writerIndex(savedWriteIndex + HEADER_LENGTH);
-            ChannelBufferOutputStream stream = new ChannelBufferOutputStream(buffer);
-            ObjectOutput objectOutput = serialization.serialize(stream);
+            Streams streams = Streams.acquire(channel);
+            ChannelBufferOutputStream stream = streams.output(buffer);
             try {
-                // encode response data or error message.
-                if (res.isOK()) {
-                    if (res.isEvent()) {
-                        encodeData(channel, serialization, stream, res.getResult());
-                    } else if (res.getResult() instanceof EncodedMessage){
-                        EncodedMessage ecodedResult = (EncodedMessage)res.getResult();
-                        stream.write(ecodedResult.getBytes());
+                ObjectOutput objectOutput = serialization.serialize(stream);
+                try {
+                    // encode response data or error message.
+                    if (res.isOK()) {
+                        if (res.isEvent()) {
+                            encodeData(channel, serialization, stream, res.getResult());
+                        } else if (isEncoded(res.getResult(), serialization)){
+                            EncodedMessage ecodedResult = (EncodedMessage)res.getResult();
+                            stream.write(ecodedResult.getBytes());
+                        } else {
+                            encodeResponseData(channel, objectOutput, res.getResult());
+                        }
                     } else {
-                        encodeResponseData(channel, objectOutput, res.getResult());
+                        objectOutput.writeUTF(res.getErrorMessage());
                     }
-                } else {
-                    objectOutput.writeUTF(res.getErrorMessage());
+                    objectOutput.flushBuffer();
+                } finally {
+                    Serializations.releaseSafely(objectOutput);
                 }
-                objectOutput.flushBuffer();
+               
+                // flush stream
+                stream.flush();
             } finally {
-                Serializations.releaseSafely(objectOutput);
+                streams.release(stream);
             }
-           
-            // flush stream
-            stream.flush();
             
             // len
-            int len = stream.writtenBytes();
+            int len = buffer.writerIndex() - savedWriteIndex - HEADER_LENGTH;
             checkPayload(channel, len);
-            Bytes.int2bytes(len, header, 12);
-            
-            // write
-            buffer.writerIndex(savedWriteIndex);
-            buffer.writeBytes(header); // write header.
-            buffer.writerIndex(savedWriteIndex + HEADER_LENGTH + len);
             
-            // close stream
-            stream.close();
+            // write header.
+            setHeader(buffer, savedWriteIndex, flag, status, res.getId(), len);
         } catch (Throwable t) {
             if (!res.isEvent() && res.getStatus() != Response.BAD_RESPONSE) {
                 try {
@@ -214,23 +286,22 @@ public class SessionCodec extends TransportCodec {
         }
     }
     
-    protected Object decode(Channel channel, ChannelBuffer buffer, int readable, byte[] header) throws IOException {
+    protected Object decode(Channel channel, ChannelBuffer buffer, int readable) throws IOException {
+        int index = buffer.readerIndex();
         // check magic number.
-        if (readable > 0 && header[0] != MAGIC_HIGH 
-                || readable > 1 && header[1] != MAGIC_LOW) {
-            int length = header.length;
-            if (header.length < readable) {
-                header = Bytes.copyOf(header, readable);
-                buffer.readBytes(header, length, readable - length);
-            }
-            byte[] msg = header;
-            for (int i = 1; i < msg.length - 1; i ++) {
-                if (header[i] == MAGIC_HIGH && header[i + 1] == MAGIC_LOW) {
-                    buffer.readerIndex(buffer.readerIndex() - msg.length + i);
-                    msg = Bytes.copyOf(msg, i);
+        if (readable > 0 && buffer.getByte(index) != MAGIC_HIGH 
+                || readable > 1 && buffer.getByte(index + 1) != MAGIC_LOW) {
+            // 跳到下一个magic number之前, 之前的数据原样返回
+            int end = index + readable;
+            int next = end;
+            for (int i = index + 1; i < end - 1; i ++) {
+                if (buffer.getByte(i) == MAGIC_HIGH && buffer.getByte(i + 1) == MAGIC_LOW) {
+                    next = i;
                     break;
                 }
             }
+            byte[] msg = new byte[next - index];
+            buffer.readBytes(msg);
             return msg;
         }
         // check length.
@@ -239,7 +310,7 @@ public class SessionCodec extends TransportCodec {
         }
 
         // get data length.
-        int len = Bytes.bytes2int(header, 12);
+        int len = buffer.getInt(index + 12);
         checkPayload(channel, len);
 
         int tt = len + HEADER_LENGTH;
@@ -247,11 +318,21 @@ public class SessionCodec extends TransportCodec {
             return DecodeResult.NEED_MORE_INPUT;
         }
 
+        // header
+        byte flag = buffer.getByte(index + 2);
+        byte status = buffer.getByte(index + 3);
+        long id = buffer.getLong(index + 4);
+        buffer.skipBytes(HEADER_LENGTH);
+
+        if (status == BATCH) {
+            return decodeBatch(channel, buffer, len, flag);
+        }
+
         // wrap input stream.
-        ChannelBufferInputStream input = new ChannelBufferInputStream(buffer, len);
-                
+        Streams streams = Streams.acquire(channel);
+        ChannelBufferInputStream input = streams.input(buffer, len);
         try {
-            return decodeBody(channel, input, header);
+            return decodeBody(channel, input, flag, status, id);
         } finally {
             if (input.available() > 0) {
                 try {
@@ -263,24 +344,61 @@ public class SessionCodec extends TransportCodec {
                     logger.warn(e.getMessage(), e);
                 }
             }
+            streams.release(input);
         }
     }
     
-    protected Object decodeBody(Channel channel, InputStream is, byte[] header) throws IOException {
-        byte flag = header[2];
+    protected Object decodeBatch(Channel channel, ChannelBuffer buffer, int len, byte flag) throws IOException {
+        int end = buffer.readerIndex() + len;
+        MessageArray array = MessageArray.create();
+        while (buffer.readerIndex() < end) {
+            Object msg = decodeFrame(channel, buffer);
+            if (!(msg instanceof Request) && !(msg instanceof Response) || buffer.readerIndex() > end) {
+                throw new IOException("Broken batch frame, length: " + len + ", channel: " + channel.getRemoteAddress());
+            }
+            array.addMessage(msg);
+        }
+        // 批量请求的响应合并返回
+        if ((flag & FLAG_REQUEST) != 0) {
+            int count = 0;
+            for (Object msg : array) {
+                if (isBatchable(msg)) {
+                    ++count;
+                }
+            }
+            if (count > 0) {
+                ResponseBatch batch = new ResponseBatch(count);
+                for (Object msg : array) {
+                    if (isBatchable(msg)) {
+                        ((Request) msg).setBatch(batch);
+                    }
+                }
+            }
+        }
+        return array;
+    }
+
+    private static boolean isBatchable(Object msg) {
+        if (!(msg instanceof Request)) {
+            return false;
+        }
+        Request req = (Request) msg;
+        return req.isTwoWay() && !req.isEvent();
+    }
+
+    protected Object decodeBody(Channel channel, InputStream is, byte flag, byte status, long id) throws IOException {
         byte serializationId = (byte) (flag & SERIALIZATION_MASK);
         Serialization serialization = Serializations.getSerialization(channel.getUrl(), serializationId);
-
-        // get request id.
-        long id = Bytes.bytes2long(header, 4);
         
         if ((flag & FLAG_REQUEST) == 0) {  // decode response.
+            if ((flag & FLAG_EXTENDED) != 0 && !isExtendedSupported(channel)) {
+                channel.setAttribute(EXTENDED_KEY, Boolean.TRUE);
+            }
             Response res = new Response(id);
             if ((flag & FLAG_EVENT) != 0) {
                 res.setEvent(true);
             }
-            // get status.
-            byte status = header[3];
+            // set status.
             res.setStatus(status);
             if (status == Response.OK) {
                 try {
@@ -340,6 +458,10 @@ public class SessionCodec extends TransportCodec {
 //        return decodeData(channel, in);
 //    }
     
+    protected void encodeRequestData(Channel channel, ObjectOutput out, Request request) throws IOException {
+        encodeRequestData(channel, out, request.getData());
+    }
+
     protected void encodeRequestData(Channel channel, ObjectOutput out, Object data) throws IOException {
         encodeData(out, data);
     }
@@ -355,4 +477,59 @@ public class SessionCodec extends TransportCodec {
     protected Object decodeResponseData(Channel channel, Serialization serialization, InputStream input, Response response) throws IOException {
         return decodeData(channel, serialization, input);
     }
-}
\ No newline at end of file
+
+    /**
+     * 每个连接复用的输入输出流, 编解码都在连接的IO线程中进行.
+     * 重入时(如编码失败时发送BAD_RESPONSE)使用临时的实例.
+     */
+    private static final class Streams {
+        private static final String STREAMS_KEY = Streams.class.getName() + ".STREAMS";
+
+        private final ChannelBufferOutputStream output = new ChannelBufferOutputStream();
+
+        private final ChannelBufferInputStream input = new ChannelBufferInputStream();
+
+        private boolean encoding;
+
+        private boolean decoding;
+
+        static Streams acquire(Channel channel) {
+            Streams streams = (Streams) channel.getAttribute(STREAMS_KEY);
+            if (streams == null) {
+                streams = new Streams();
+                channel.setAttribute(STREAMS_KEY, streams);
+            }
+            return streams;
+        }
+
+        ChannelBufferOutputStream output(ChannelBuffer buffer) {
+            if (encoding) {
+                return new ChannelBufferOutputStream(buffer);
+            }
+            encoding = true;
+            return output.reset(buffer);
+        }
+
+        void release(ChannelBufferOutputStream stream) {
+            if (stream == output) {
+                encoding = false;
+                output.clear();
+            }
+        }
+
+        ChannelBufferInputStream input(ChannelBuffer buffer, int length) {
+            if (decoding) {
+                return new ChannelBufferInputStream(buffer, length);
+            }
+            decoding = true;
+            return input.reset(buffer, length);
+        }
+
+        void release(ChannelBufferInputStream stream) {
+            if (stream == input) {
+                decoding = false;
+                input.clear();
+            }
+        }
+    }
+}
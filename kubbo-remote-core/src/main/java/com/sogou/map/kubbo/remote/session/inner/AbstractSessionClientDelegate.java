@@ -1,6 +1,7 @@
 package com.sogou.map.kubbo.remote.session.inner;
 
 import com.sogou.map.kubbo.remote.RemotingException;
+import com.sogou.map.kubbo.remote.session.RequestBatch;
 import com.sogou.map.kubbo.remote.session.ResponseFuture;
 import com.sogou.map.kubbo.remote.session.SessionClient;
 import com.sogou.map.kubbo.remote.session.SessionClientDelegate;
@@ -40,6 +41,11 @@ public class AbstractSessionClientDelegate extends AbstractClientDelegate implem
         return client.request(request, timeout);
     }
 
+    @Override
+    public RequestBatch batch() {
+        return client.batch();
+    }
+
     @Override
     public SessionHandler getSessionHandler() {
         return client.getSessionHandler();
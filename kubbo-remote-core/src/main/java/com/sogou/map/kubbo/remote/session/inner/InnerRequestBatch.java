@@ -0,0 +1,83 @@
+package com.sogou.map.kubbo.remote.session.inner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sogou.map.kubbo.common.Version;
+import com.sogou.map.kubbo.remote.Channel;
+import com.sogou.map.kubbo.remote.RemotingException;
+import com.sogou.map.kubbo.remote.session.Request;
+import com.sogou.map.kubbo.remote.session.RequestBatch;
+import com.sogou.map.kubbo.remote.session.ResponseFuture;
+import com.sogou.map.kubbo.remote.transport.MessageArray;
+
+/**
+ * InnerRequestBatch
+ * 
+ * @author liufuliang
+ */
+final class InnerRequestBatch implements RequestBatch {
+
+    private final InnerSessionChannel session;
+
+    private final Channel channel;
+
+    private final List<Request> requests = new ArrayList<Request>();
+
+    private final List<InternalResponseFuture> futures = new ArrayList<InternalResponseFuture>();
+
+    InnerRequestBatch(InnerSessionChannel session, Channel channel) {
+        this.session = session;
+        this.channel = channel;
+    }
+
+    @Override
+    public ResponseFuture request(Object request, int timeout) throws RemotingException {
+        if (session.isClosed()) {
+            throw new RemotingException(session.getLocalAddress(), null, "Failed to send request " + request + ", cause: The channel " + session + " is closed!");
+        }
+        // create request.
+        Request req = new Request();
+        req.setVersion(Version.getVersion());
+        req.setTwoWay(true);
+        req.setData(request);
+        InternalResponseFuture future = new InternalResponseFuture(channel, req, timeout);
+        requests.add(req);
+        futures.add(future);
+        return future;
+    }
+
+    @Override
+    public void send() throws RemotingException {
+        if (requests.isEmpty()) {
+            return;
+        }
+        Object message;
+        if (requests.size() == 1) {
+            message = requests.get(0);
+        } else {
+            MessageArray array = MessageArray.create();
+            for (Request req : requests) {
+                array.addMessage(req);
+            }
+            message = array;
+        }
+        try {
+            channel.send(message);
+        } catch (RemotingException e) {
+            for (InternalResponseFuture future : futures) {
+                future.cancel();
+            }
+            throw e;
+        } finally {
+            requests.clear();
+            futures.clear();
+        }
+    }
+
+    @Override
+    public int size() {
+        return requests.size();
+    }
+
+}
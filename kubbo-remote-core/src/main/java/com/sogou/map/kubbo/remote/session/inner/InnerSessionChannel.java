@@ -6,6 +6,7 @@ import com.sogou.map.kubbo.common.logger.Logger;
 import com.sogou.map.kubbo.common.logger.LoggerFactory;
 import com.sogou.map.kubbo.remote.Channel;
 import com.sogou.map.kubbo.remote.RemotingException;
+import com.sogou.map.kubbo.remote.session.RequestBatch;
 import com.sogou.map.kubbo.remote.session.SessionChannel;
 import com.sogou.map.kubbo.remote.session.SessionHandler;
 import com.sogou.map.kubbo.remote.session.Request;
@@ -102,6 +103,11 @@ final class InnerSessionChannel extends AbstractChannelDelegate implements Sessi
         return future;
     }
 
+    @Override
+    public RequestBatch batch() {
+        return new InnerRequestBatch(this, channel);
+    }
+
     @Override
     public boolean isClosed() {
         return closed;
@@ -1,10 +1,13 @@
 package com.sogou.map.kubbo.remote.session.inner;
 
 import com.sogou.map.kubbo.common.Constants;
+import com.sogou.map.kubbo.common.logger.Logger;
+import com.sogou.map.kubbo.common.logger.LoggerFactory;
 import com.sogou.map.kubbo.common.util.StringUtils;
 import com.sogou.map.kubbo.remote.Channel;
 import com.sogou.map.kubbo.remote.RemoteExecutionException;
 import com.sogou.map.kubbo.remote.RemotingException;
+import com.sogou.map.kubbo.remote.session.ProcessingRequests;
 import com.sogou.map.kubbo.remote.session.SessionChannel;
 import com.sogou.map.kubbo.remote.session.SessionHandler;
 import com.sogou.map.kubbo.remote.session.Request;
@@ -18,6 +21,8 @@ import com.sogou.map.kubbo.remote.transport.handler.AbstractChannelHandlerDelega
  */
 public class InnerSessionHandler extends AbstractChannelHandlerDelegate {
 
+    private static final Logger logger = LoggerFactory.getLogger(InnerSessionHandler.class);
+
     private final SessionHandler handler;
 
     public InnerSessionHandler(SessionHandler handler){
@@ -31,15 +36,12 @@ public class InnerSessionHandler extends AbstractChannelHandlerDelegate {
     @Override
     public void onConnected(Channel channel) throws RemotingException {
         SessionChannel sessionChannel = InnerSessionChannel.getOrAddChannel(channel);
-        try {
-            handler.onConnected(sessionChannel);
-        } finally {
-            InnerSessionChannel.removeChannelIfDisconnected(channel);
-        }
+        handler.onConnected(sessionChannel);
     }
 
     @Override
     public void onDisconnected(Channel channel) throws RemotingException {
+        InternalResponseFuture.disconnected(channel);
         SessionChannel sessionChannel = InnerSessionChannel.getOrAddChannel(channel);
         try {
             handler.onDisconnected(sessionChannel);
@@ -53,11 +55,7 @@ public class InnerSessionHandler extends AbstractChannelHandlerDelegate {
         Throwable exception = null;
         try {
             SessionChannel sessionChannel = InnerSessionChannel.getOrAddChannel(channel);
-            try {
-                handler.onSent(sessionChannel, message);
-            } finally {
-                InnerSessionChannel.removeChannelIfDisconnected(channel);
-            }
+            handler.onSent(sessionChannel, message);
         } catch (Throwable t) {
             exception = t;
         }
@@ -84,29 +82,38 @@ public class InnerSessionHandler extends AbstractChannelHandlerDelegate {
     @Override
     public void onReceived(Channel channel, Object message) throws RemotingException {
         SessionChannel sessionChannel = InnerSessionChannel.getOrAddChannel(channel);
-        try {
-            if (message instanceof Request) {
-                // handle request.
-                Request request = (Request) message;
-                if (request.isEvent()) {
-                    handleEvent(channel, request);
-                } else if (request.isTwoWay()) {
-                    Response response = handleRequest(sessionChannel, request);
-                    channel.send(response);
+        if (message instanceof Request) {
+            // handle request.
+            Request request = (Request) message;
+            if (request.isEvent()) {
+                handleEvent(channel, request);
+            } else if (request.isExpired()) {
+                // 调用方已经超时, 不再处理(在task线程中解码时截止时间在这里才可见)
+                logger.warn("Drop expired request, deadline: " + request.getDeadline()
+                        + ", channel: " + channel.getRemoteAddress() + " -> " + channel.getLocalAddress() + ", request: " + request);
+            } else if (request.isTwoWay()) {
+                Response response = handleRequest(sessionChannel, request);
+                // 已被取消的请求调用方不再等待结果
+                if (request.isCancelled()) {
+                    return;
+                }
+                if (request.getBatch() != null) {
+                    // 批量请求全部处理结束后合并发送
+                    request.getBatch().add(response);
                 } else {
-                    handleRequest(sessionChannel, request);
+                    channel.send(response);
                 }
-            } else if (message instanceof Response) {
-                // handle response.
-                handleResponse(channel, (Response) message);
-            } else if (message instanceof String) {
-                handler.onReceived(sessionChannel, message);
             } else {
-                // handle none
-                handler.onReceived(sessionChannel, message);
+                handleRequest(sessionChannel, request);
             }
-        } finally {
-            InnerSessionChannel.removeChannelIfDisconnected(channel);
+        } else if (message instanceof Response) {
+            // handle response.
+            handleResponse(channel, (Response) message);
+        } else if (message instanceof String) {
+            handler.onReceived(sessionChannel, message);
+        } else {
+            // handle none
+            handler.onReceived(sessionChannel, message);
         }
     }
 
@@ -127,16 +134,16 @@ public class InnerSessionHandler extends AbstractChannelHandlerDelegate {
             }
         }
         SessionChannel sessionChannel = InnerSessionChannel.getOrAddChannel(channel);
-        try {
-            handler.onExceptonCaught(sessionChannel, exception);
-        } finally {
-            InnerSessionChannel.removeChannelIfDisconnected(channel);
-        }
+        handler.onExceptonCaught(sessionChannel, exception);
     }
     
     protected void handleEvent(Channel channel, Request req) throws RemotingException {
         if (req.getData() != null && req.getData().equals(Request.EVENT_READONLY)) {
             channel.setAttribute(Constants.CHANNEL_ATTRIBUTE_READONLY_KEY, Boolean.TRUE);
+        } else if (req.isCancel()) {
+            if (ProcessingRequests.cancel(channel, req.getId()) && logger.isDebugEnabled()) {
+                logger.debug("Cancel request " + req.getId() + ", channel: " + channel.getRemoteAddress() + " -> " + channel.getLocalAddress());
+            }
         }
     }
 
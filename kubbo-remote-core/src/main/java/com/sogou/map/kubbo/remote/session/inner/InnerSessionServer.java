@@ -3,22 +3,15 @@ package com.sogou.map.kubbo.remote.session.inner;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 
 import com.sogou.map.kubbo.common.Constants;
 import com.sogou.map.kubbo.common.URL;
 import com.sogou.map.kubbo.common.Version;
 import com.sogou.map.kubbo.common.logger.Logger;
 import com.sogou.map.kubbo.common.logger.LoggerFactory;
-import com.sogou.map.kubbo.common.threadpool.NamedThreadFactory;
 import com.sogou.map.kubbo.remote.Channel;
 import com.sogou.map.kubbo.remote.RemotingException;
 import com.sogou.map.kubbo.remote.Server;
-import com.sogou.map.kubbo.remote.heartbeat.HeartBeatTask;
 import com.sogou.map.kubbo.remote.session.SessionChannel;
 import com.sogou.map.kubbo.remote.session.SessionServer;
 import com.sogou.map.kubbo.remote.session.Request;
@@ -34,26 +27,16 @@ public class InnerSessionServer extends AbstractServerDelegate implements Sessio
     
     private static final Logger logger = LoggerFactory.getLogger(InnerSessionServer.class);
 
-    private final ScheduledExecutorService scheduled = Executors.newScheduledThreadPool(1, new NamedThreadFactory( "kubbo-server-heartbeat", true));
-
-    // 心跳定时器
-    private ScheduledFuture<?> heatbeatTimer;
-
-    // 心跳超时，毫秒。缺省0，不会执行心跳。
-    private int heartbeat;
-
-    private int heartbeatTimeout;
-    
     private volatile boolean closed = false;
 
     public InnerSessionServer(Server server) {
         super(server);
-        this.heartbeat = server.getUrl().getParameter(Constants.HEARTBEAT_KEY, 0);
-        this.heartbeatTimeout = server.getUrl().getParameter(Constants.HEARTBEAT_TIMEOUT_KEY, heartbeat * 3);
+        // 心跳由传输层在IO线程内发送, 这里只校验参数
+        int heartbeat = server.getUrl().getParameter(Constants.HEARTBEAT_KEY, 0);
+        int heartbeatTimeout = server.getUrl().getParameter(Constants.HEARTBEAT_TIMEOUT_KEY, heartbeat * 3);
         if (heartbeatTimeout < heartbeat * 2) {
             throw new IllegalStateException("heartbeatTimeout < heartbeatInterval * 2");
         }
-        startHeatbeatTimer();
     }
     
     private boolean isRunning() {
@@ -114,12 +97,6 @@ public class InnerSessionServer extends AbstractServerDelegate implements Sessio
             return;
         }
         closed = true;
-        stopHeartbeatTimer();
-        try {
-            scheduled.shutdown();
-        } catch (Throwable t) {
-            logger.warn(t.getMessage(), t);
-        }
     }
 
     public Collection<SessionChannel> getSessionChannels() {
@@ -151,20 +128,16 @@ public class InnerSessionServer extends AbstractServerDelegate implements Sessio
 
     @Override
     public void reset(URL url) {
+        // 传输层每个心跳周期从url读取参数, 新的心跳参数在下个周期生效
         super.reset(url);
         try {
             if (url.hasParameter(Constants.HEARTBEAT_KEY)
                     || url.hasParameter(Constants.HEARTBEAT_TIMEOUT_KEY)) {
-                int h = url.getParameter(Constants.HEARTBEAT_KEY, heartbeat);
-                int t = url.getParameter(Constants.HEARTBEAT_TIMEOUT_KEY, h * 3);
+                int h = getUrl().getParameter(Constants.HEARTBEAT_KEY, 0);
+                int t = getUrl().getParameter(Constants.HEARTBEAT_TIMEOUT_KEY, h * 3);
                 if (t < h * 2) {
                     throw new IllegalStateException("heartbeatTimeout < heartbeatInterval * 2");
                 }
-                if (h != heartbeat || t != heartbeatTimeout) {
-                    heartbeat = h;
-                    heartbeatTimeout = t;
-                    startHeatbeatTimer();
-                }
             }
         } catch (Throwable t) {
             logger.error(t.getMessage(), t);
@@ -187,31 +160,4 @@ public class InnerSessionServer extends AbstractServerDelegate implements Sessio
         super.send(message, blocking);
     }
 
-    private void startHeatbeatTimer() {
-        stopHeartbeatTimer();
-        if (heartbeat > 0) {
-            heatbeatTimer = scheduled.scheduleWithFixedDelay(
-                    new HeartBeatTask( new HeartBeatTask.ChannelProvider() {
-                        public Collection<Channel> getChannels() {
-                            return Collections.unmodifiableCollection(
-                                    InnerSessionServer.this.getChannels() );
-                        }
-                    }, heartbeat, heartbeatTimeout),
-                    heartbeat, heartbeat,TimeUnit.MILLISECONDS);
-        }
-    }
-
-    private void stopHeartbeatTimer() {
-        try {
-            ScheduledFuture<?> timer = heatbeatTimer;
-            if (timer != null && ! timer.isCancelled()) {
-                timer.cancel(true);
-            }
-        } catch (Throwable t) {
-            logger.warn(t.getMessage(), t);
-        } finally {
-            heatbeatTimer =null;
-        }
-    }
-
 }
\ No newline at end of file
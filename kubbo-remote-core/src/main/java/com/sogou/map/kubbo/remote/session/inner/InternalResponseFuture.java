@@ -2,21 +2,21 @@ package com.sogou.map.kubbo.remote.session.inner;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 import com.sogou.map.kubbo.common.Constants;
 import com.sogou.map.kubbo.common.logger.Logger;
 import com.sogou.map.kubbo.common.logger.LoggerFactory;
 import com.sogou.map.kubbo.common.threadpool.NamedThreadFactory;
+import com.sogou.map.kubbo.common.timer.HashedWheelTimer;
+import com.sogou.map.kubbo.common.timer.Timeout;
+import com.sogou.map.kubbo.common.timer.TimerTask;
+import com.sogou.map.kubbo.common.util.SystemPropertyUtils;
 import com.sogou.map.kubbo.remote.Channel;
 import com.sogou.map.kubbo.remote.RemotingException;
 import com.sogou.map.kubbo.remote.TimeoutException;
@@ -27,6 +27,8 @@ import com.sogou.map.kubbo.remote.session.ResponseListener;
 
 /**
  * InternalResponseFuture.
+ * 无锁实现: 完成和添加监听者都是对state的CAS, 除监听者多于一个时外不再额外分配对象.
+ * 只有同步get()的线程在未完成时park等待.
  * 
  * @author liufuliang
  */
@@ -34,9 +36,14 @@ public class InternalResponseFuture implements ResponseFuture {
 
     private static final Logger logger = LoggerFactory.getLogger(InternalResponseFuture.class);
 
-    private static final Map<Long, Channel> CHANNELS = new ConcurrentHashMap<Long, Channel>();
+    // 每个请求创建时按超时时间加入时间轮, 完成时取消, 均为O(1)
+    private static final HashedWheelTimer TIMER = new HashedWheelTimer(
+            new NamedThreadFactory("kubbo-response-timer", true),
+            SystemPropertyUtils.getInt(Constants.TIMER_TICK_KEY, Constants.DEFAULT_TIMER_TICK), TimeUnit.MILLISECONDS,
+            SystemPropertyUtils.getInt(Constants.TIMER_WHEEL_KEY, Constants.DEFAULT_TIMER_WHEEL));
 
-    private static final Map<Long, InternalResponseFuture> FUTURES = new ConcurrentHashMap<Long, InternalResponseFuture>();
+    private static final AtomicReferenceFieldUpdater<InternalResponseFuture, Object> STATE_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(InternalResponseFuture.class, Object.class, "state");
 
     private static final DateFormat TIME_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
 
@@ -49,17 +56,16 @@ public class InternalResponseFuture implements ResponseFuture {
 
     private final int timeout;
 
-    private final Lock lock = new ReentrantLock();
-
-    private final Condition done = lock.newCondition();
-
     private final long start = System.currentTimeMillis();
 
     private volatile long sent;
 
-    private volatile Response response;
+    // null: 未完成; ResponseListener/ResponseListener[]: 未完成, 等待通知的监听者; Response: 已完成
+    private volatile Object state;
 
-    private List<ResponseListener> listeners;
+    private final PendingRequests pending;
+
+    private final Timeout timeoutHandle;
 
     public InternalResponseFuture(Channel channel, Request request, int timeout) {
         this.channel = channel;
@@ -67,10 +73,14 @@ public class InternalResponseFuture implements ResponseFuture {
         this.id = request.getId();
         this.timeout = timeout > 0 ? timeout
                 : channel.getUrl().getPositiveParameter(Constants.TIMEOUT_KEY, Constants.DEFAULT_TIMEOUT);
-        this.listeners = new ArrayList<ResponseListener>(2);
-        // put into waiting map.
-        FUTURES.put(id, this);
-        CHANNELS.put(id, channel);
+        // put into waiting map of the channel.
+        this.pending = PendingRequests.getOrCreate(channel);
+        if (pending.add(this)) {
+            this.timeoutHandle = TIMER.newTimeout(new TimeoutTask(this), this.timeout, TimeUnit.MILLISECONDS);
+        } else {
+            this.timeoutHandle = null;
+            this.state = newDisconnectedResponse(this);
+        }
     }
 
     @Override
@@ -83,89 +93,170 @@ public class InternalResponseFuture implements ResponseFuture {
         if (timeout <= 0) {
             timeout = Constants.DEFAULT_TIMEOUT;
         }
-        if (!isDone()) {
-            long start = System.currentTimeMillis();
-            lock.lock();
-            try {
-                while (!isDone()) {
-                    done.await(timeout, TimeUnit.MILLISECONDS);
-                    if (isDone() || System.currentTimeMillis() - start > timeout) {
-                        break;
-                    }
-                }
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            } finally {
-                lock.unlock();
+        Object s = state;
+        if (!(s instanceof Response)) {
+            s = await(timeout);
+            if (!(s instanceof Response)) {
+                throw new TimeoutException(sent > 0, channel, getTimeoutMessage());
             }
+        }
+        return createResult((Response) s);
+    }
 
-            if (!isDone()) {
-                throw new TimeoutException(sent > 0, channel, getTimeoutMessage());
+    private Object await(int timeout) {
+        Waiter waiter = new Waiter(Thread.currentThread());
+        addListener(waiter);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        try {
+            for (;;) {
+                Object s = state;
+                if (s instanceof Response) {
+                    return s;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return s;
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new RuntimeException(new InterruptedException());
+                }
             }
+        } finally {
+            // 超时返回时从监听者中移除, 多次超时的get()不会使监听者无限增长
+            waiter.thread = null;
+            removeListener(waiter);
         }
-        return createResult();
     }
 
     @Override
-    public void cancel() {
+    public boolean cancel() {
         Response errorResult = new Response(id);
+        errorResult.setStatus(Response.CLIENT_ERROR);
         errorResult.setErrorMessage("request future has been canceled.");
-        response = errorResult;
-        FUTURES.remove(id);
-        CHANNELS.remove(id);
+        if (!complete(errorResult)) {
+            return false;
+        }
+        pending.remove(id);
+        if (timeoutHandle != null) {
+            timeoutHandle.cancel();
+        }
+        sendCancel();
+        return true;
     }
 
     @Override
     public boolean isDone() {
-        return response != null;
+        return state instanceof Response;
     }
 
     @Override
     public void addListener(ResponseListener listener) {
-        if (isDone()) {
-            notifyListener(listener);
-        } else {
-            boolean isdone = false;
-            lock.lock();
-            try {
-                if (!isDone()) {
-                    this.listeners.add(listener);
+        if (listener == null) {
+            throw new NullPointerException("listener == NULL");
+        }
+        for (;;) {
+            Object s = state;
+            if (s instanceof Response) {
+                notifyListener(listener, (Response) s);
+                return;
+            }
+            Object update;
+            if (s == null) {
+                update = listener;
+            } else if (s instanceof ResponseListener) {
+                update = new ResponseListener[] { (ResponseListener) s, listener };
+            } else {
+                ResponseListener[] listeners = (ResponseListener[]) s;
+                ResponseListener[] copy = Arrays.copyOf(listeners, listeners.length + 1);
+                copy[listeners.length] = listener;
+                update = copy;
+            }
+            if (STATE_UPDATER.compareAndSet(this, s, update)) {
+                return;
+            }
+        }
+    }
+
+    private void removeListener(ResponseListener listener) {
+        for (;;) {
+            Object s = state;
+            Object update;
+            if (s == listener) {
+                update = null;
+            } else if (s instanceof ResponseListener[]) {
+                ResponseListener[] listeners = (ResponseListener[]) s;
+                int index = -1;
+                for (int i = 0; i < listeners.length; ++i) {
+                    if (listeners[i] == listener) {
+                        index = i;
+                        break;
+                    }
+                }
+                if (index < 0) {
+                    return;
+                }
+                if (listeners.length == 2) {
+                    update = listeners[1 - index];
                 } else {
-                    isdone = true;
+                    ResponseListener[] copy = new ResponseListener[listeners.length - 1];
+                    System.arraycopy(listeners, 0, copy, 0, index);
+                    System.arraycopy(listeners, index + 1, copy, index, copy.length - index);
+                    update = copy;
                 }
-            } finally {
-                lock.unlock();
+            } else {
+                // 已完成或不在监听者中
+                return;
             }
-            if (isdone) {
-                notifyListener(listener);
+            if (STATE_UPDATER.compareAndSet(this, s, update)) {
+                return;
             }
         }
     }
 
-    private void notifyListeners(){
-        if(listeners.isEmpty()){
-            return;
+    // 未完成时等待通知的监听者数
+    int getListenerCount() {
+        Object s = state;
+        if (s instanceof ResponseListener) {
+            return 1;
         }
-        
-        for(ResponseListener listener : listeners){
-            notifyListener(listener);
+        if (s instanceof ResponseListener[]) {
+            return ((ResponseListener[]) s).length;
         }
+        return 0;
     }
-    
-    private void notifyListener(ResponseListener listener){
-        ResponseListener listenerCopy = listener;
-        if (listenerCopy == null) {
-            throw new NullPointerException("listener == NULL");
+
+    /**
+     * @return 只有第一次完成返回true
+     */
+    private boolean complete(Response res) {
+        for (;;) {
+            Object s = state;
+            if (s instanceof Response) {
+                return false;
+            }
+            if (STATE_UPDATER.compareAndSet(this, s, res)) {
+                if (s instanceof ResponseListener) {
+                    notifyListener((ResponseListener) s, res);
+                } else if (s != null) {
+                    for (ResponseListener listener : (ResponseListener[]) s) {
+                        notifyListener(listener, res);
+                    }
+                }
+                return true;
+            }
         }
-        listener = null;
-        Response res = response;
-        if (res == null) {
-            throw new IllegalStateException("response cannot be null. url: " + channel.getUrl());
+    }
+
+    private void notifyListener(ResponseListener listener, Response res){
+        if (listener instanceof Waiter) {
+            ((Waiter) listener).wakeup();
+            return;
         }
 
         if (res.getStatus() == Response.OK) {
             try {
-                listenerCopy.done(res);
+                listener.done(res);
             } catch (Exception e) {
                 logger.error("Response listener invoke error. reasult: " + res.getResult() + ", url: " + channel.getUrl(), e);
             }
@@ -173,25 +264,21 @@ public class InternalResponseFuture implements ResponseFuture {
             try {
                 TimeoutException te = new TimeoutException(res.getStatus() == Response.SERVER_TIMEOUT, channel,
                         res.getErrorMessage());
-                listenerCopy.caught(te);
+                listener.caught(te);
             } catch (Exception e) {
                 logger.error("Response invoke error, url: " + channel.getUrl(), e);
             }
         } else {
             try {
                 RuntimeException re = new RuntimeException(res.getErrorMessage());
-                listenerCopy.caught(re);
+                listener.caught(re);
             } catch (Exception e) {
                 logger.error("Response invoke error, url: " + channel.getUrl(), e);
             }
         }
     }
 
-    private Object createResult() throws RemotingException {
-        Response res = response;
-        if (res == null) {
-            throw new IllegalStateException("response cannot be NULL");
-        }
+    private Object createResult(Response res) throws RemotingException {
         if (res.getStatus() == Response.OK) {
             return res.getResult();
         }
@@ -217,14 +304,6 @@ public class InternalResponseFuture implements ResponseFuture {
         return request;
     }
 
-    private int getTimeout() {
-        return timeout;
-    }
-
-    private long getStartTimestamp() {
-        return start;
-    }
-
     private String getTimeoutMessage() {
         long now = System.currentTimeMillis();
         return new StringBuffer(32)
@@ -237,90 +316,152 @@ public class InternalResponseFuture implements ResponseFuture {
                 .append(" channel: ").append(channel.getLocalAddress()).append(" -> ").append(channel.getRemoteAddress()).toString();
     }
 
+    // 通知服务端不再等待, 服务端可以不再执行排队中的请求, 低版本服务端忽略该事件
+    private void sendCancel() {
+        if (!isSent() || !channel.getUrl().getParameter(Constants.CANCEL_KEY, Constants.DEFAULT_CANCEL)) {
+            return;
+        }
+        Request cancel = new Request(id);
+        cancel.setVersion(request.getVersion());
+        cancel.setTwoWay(false);
+        cancel.setEvent(Request.EVENT_CANCEL);
+        try {
+            channel.send(cancel, false);
+        } catch (Throwable t) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Fail to send cancel of request " + id + ", cause: " + t.getMessage(), t);
+            }
+        }
+    }
+
     private void doSent() {
         sent = System.currentTimeMillis();
     }
 
     private void doReceived(Response res) {
-        lock.lock();
-        try {
-            response = res;
-            if (done != null) {
-                done.signal();
-            }
-        } finally {
-            lock.unlock();
-        }
-        
-        notifyListeners();
+        complete(res);
     }
 
     // ================================
-    public static InternalResponseFuture getFuture(long id) {
-        return FUTURES.get(id);
+    public static InternalResponseFuture getFuture(Channel channel, long id) {
+        PendingRequests pending = PendingRequests.get(channel);
+        return pending == null ? null : pending.get(id);
     }
 
     public static boolean hasFuture(Channel channel) {
-        return CHANNELS.containsValue(channel);
+        PendingRequests pending = PendingRequests.get(channel);
+        return pending != null && !pending.isEmpty();
     }
 
     public static void sent(Channel channel, Request request) {
-        InternalResponseFuture future = FUTURES.get(request.getId());
+        InternalResponseFuture future = getFuture(channel, request.getId());
         if (future != null) {
             future.doSent();
         }
     }
     
     public static void received(Channel channel, Response response) {
-        try {
-            InternalResponseFuture future = FUTURES.remove(response.getId());
-            if (future != null) {
-                future.doReceived(response);
-            } else {
-                String msg = new StringBuffer(128)
-                        .append("The timeout response finally returned at ")
-                        .append(TIME_FORMAT.format(new Date()))
-                        .append(", response: ").append(response)
-                        .append(channel == null ? ""
-                                : ", channel: " + channel.getLocalAddress() + " -> " + channel.getRemoteAddress())
-                        .toString();
-                logger.warn(msg);
+        PendingRequests pending = PendingRequests.get(channel);
+        received(pending == null ? null : pending.remove(response.getId()), channel, response);
+    }
+
+    /**
+     * 连接断开, 该连接上所有未完成的请求立即失败, 不再等待超时
+     */
+    public static void disconnected(Channel channel) {
+        PendingRequests pending = PendingRequests.get(channel);
+        if (pending == null) {
+            return;
+        }
+        List<InternalResponseFuture> futures = pending.close();
+        for (InternalResponseFuture future : futures) {
+            future.timeoutHandle.cancel();
+            future.doReceived(newDisconnectedResponse(future));
+        }
+        if (!futures.isEmpty() && logger.isWarnEnabled()) {
+            logger.warn("Fail " + futures.size() + " pending requests on disconnected channel " 
+                    + channel.getLocalAddress() + " -> " + channel.getRemoteAddress());
+        }
+    }
+
+    private static void received(InternalResponseFuture future, Channel channel, Response response) {
+        if (future != null) {
+            if (future.timeoutHandle != null) {
+                future.timeoutHandle.cancel();
             }
-        } finally {
-            CHANNELS.remove(response.getId());
+            future.doReceived(response);
+        } else {
+            String msg = new StringBuffer(128)
+                    .append("The timeout response finally returned at ")
+                    .append(TIME_FORMAT.format(new Date()))
+                    .append(", response: ").append(response)
+                    .append(channel == null ? ""
+                            : ", channel: " + channel.getLocalAddress() + " -> " + channel.getRemoteAddress())
+                    .toString();
+            logger.warn(msg);
         }
     }
 
-    private static class RemoteInvocationTimeoutScan implements Runnable {
-        @Override
-        public void run() {
-            while (true) {
-                try {
-                    for (InternalResponseFuture future : FUTURES.values()) {
-                        if (future == null || future.isDone()) {
-                            continue;
-                        }
-                        if (System.currentTimeMillis() - future.getStartTimestamp() > future.getTimeout()) {
-                            // create exception response.
-                            Response timeoutResponse = new Response(future.getId());
-                            // set timeout status.
-                            timeoutResponse.setStatus(future.isSent() ? Response.SERVER_TIMEOUT : Response.CLIENT_TIMEOUT);
-                            timeoutResponse.setErrorMessage(future.getTimeoutMessage());
-                            // handle response.
-                            InternalResponseFuture.received(future.getChannel(), timeoutResponse);
-                        }
-                    }
-                    TimeUnit.MILLISECONDS.sleep(30);
-                } catch (Throwable e) {
-                    logger.error("Exception when scan the timeout invocation of remoting.", e);
-                }
+    private static Response newDisconnectedResponse(InternalResponseFuture future) {
+        Response res = new Response(future.id);
+        res.setStatus(Response.CLIENT_ERROR);
+        res.setErrorMessage("Channel " + future.channel.getLocalAddress() + " -> " + future.channel.getRemoteAddress()
+                + " is disconnected, request: " + future.request);
+        return res;
+    }
+
+    // 同步get()的等待线程, 作为特殊的监听者挂在state上
+    private static final class Waiter implements ResponseListener {
+
+        private volatile Thread thread;
+
+        Waiter(Thread thread) {
+            this.thread = thread;
+        }
+
+        void wakeup() {
+            Thread t = thread;
+            if (t != null) {
+                LockSupport.unpark(t);
             }
         }
+
+        @Override
+        public void done(Response response) {
+            wakeup();
+        }
+
+        @Override
+        public void caught(Throwable exception) {
+            wakeup();
+        }
     }
 
-    static {
-        ThreadFactory factory = new NamedThreadFactory("kubbo-response-timer", true);
-        factory.newThread(new RemoteInvocationTimeoutScan()).start();
+    private static class TimeoutTask implements TimerTask {
+
+        private final InternalResponseFuture future;
+
+        TimeoutTask(InternalResponseFuture future) {
+            this.future = future;
+        }
+
+        @Override
+        public void run(Timeout timeout) {
+            if (future.isDone()) {
+                return;
+            }
+            // create exception response.
+            Response timeoutResponse = new Response(future.getId());
+            // set timeout status.
+            timeoutResponse.setStatus(future.isSent() ? Response.SERVER_TIMEOUT : Response.CLIENT_TIMEOUT);
+            timeoutResponse.setErrorMessage(future.getTimeoutMessage());
+            // handle response.
+            InternalResponseFuture timedout = future.pending.remove(future.getId());
+            InternalResponseFuture.received(timedout, future.getChannel(), timeoutResponse);
+            if (timedout != null) {
+                future.sendCancel();
+            }
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,82 @@
+package com.sogou.map.kubbo.remote.session.inner;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.sogou.map.kubbo.common.util.LongObjectHashMap;
+import com.sogou.map.kubbo.remote.Channel;
+
+/**
+ * 每个连接未完成的请求, 作为attribute保存在传输层的channel上.
+ * 只有同一连接上的线程竞争, 连接断开时一次性取出全部请求.
+ *
+ * @author liufuliang
+ */
+final class PendingRequests {
+
+    private static final String PENDING_KEY = PendingRequests.class.getName() + ".PENDING";
+
+    private final LongObjectHashMap<InternalResponseFuture> futures = new LongObjectHashMap<InternalResponseFuture>(64);
+
+    private boolean closed = false;
+
+    static PendingRequests get(Channel channel) {
+        return (PendingRequests) channel.getAttribute(PENDING_KEY);
+    }
+
+    static PendingRequests getOrCreate(Channel channel) {
+        PendingRequests pending = get(channel);
+        if (pending == null) {
+            // 每个连接只创建一次
+            synchronized (channel) {
+                pending = get(channel);
+                if (pending == null) {
+                    pending = new PendingRequests();
+                    channel.setAttribute(PENDING_KEY, pending);
+                }
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * @return 连接已经断开时返回false
+     */
+    synchronized boolean add(InternalResponseFuture future) {
+        if (closed) {
+            return false;
+        }
+        futures.put(future.getRequest().getId(), future);
+        return true;
+    }
+
+    synchronized InternalResponseFuture get(long id) {
+        return futures.get(id);
+    }
+
+    synchronized InternalResponseFuture remove(long id) {
+        return futures.remove(id);
+    }
+
+    synchronized boolean isEmpty() {
+        return futures.isEmpty();
+    }
+
+    synchronized int size() {
+        return futures.size();
+    }
+
+    /**
+     * 连接断开, 取出全部未完成的请求, 之后的请求直接失败
+     */
+    synchronized List<InternalResponseFuture> close() {
+        closed = true;
+        if (futures.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<InternalResponseFuture> all = futures.values();
+        futures.clear();
+        return all;
+    }
+
+}
@@ -4,6 +4,10 @@ import com.sogou.map.kubbo.common.logger.Logger;
 import com.sogou.map.kubbo.common.logger.LoggerFactory;
 import com.sogou.map.kubbo.remote.Channel;
 import com.sogou.map.kubbo.remote.ChannelHandler;
+import com.sogou.map.kubbo.remote.serialization.Releasable;
+import com.sogou.map.kubbo.remote.session.ProcessingRequests;
+import com.sogou.map.kubbo.remote.session.Request;
+import com.sogou.map.kubbo.remote.session.Response;
 
 /**
  * @author liufuliang
@@ -64,11 +68,17 @@ public class ChannelEventRunnable implements Runnable {
                 }
                 break;
             case RECEIVED:
+                if (message instanceof Request) {
+                    received((Request) message);
+                    break;
+                }
                 try{
                     handler.onReceived(channel, message);
                 }catch (Exception e) {
                     logger.warn("ChannelEventRunnable handle " + state + " operation error, channel is " + channel
                             + ", message is "+ message,e);
+                } finally {
+                    release(message);
                 }
                 break;
             case CAUGHT:
@@ -84,6 +94,48 @@ public class ChannelEventRunnable implements Runnable {
         }
     }
 
+    private void received(Request request) {
+        try {
+            // 在队列中等待超过调用方截止时间或已被取消的请求不再处理
+            if (request.isCancelled()) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Drop cancelled request after queuing, channel is " + channel + ", message is " + request);
+                }
+                return;
+            }
+            if (request.isExpired()) {
+                logger.warn("Drop expired request after queuing, deadline: " + request.getDeadline()
+                        + ", channel is " + channel + ", message is " + request);
+                return;
+            }
+            handler.onReceived(channel, request);
+        } catch (Exception e) {
+            logger.warn("ChannelEventRunnable handle " + state + " operation error, channel is " + channel
+                    + ", message is "+ request,e);
+        } finally {
+            release(request);
+            ProcessingRequests.remove(channel, request);
+            if (request.getBatch() != null) {
+                request.getBatch().finish(channel);
+            }
+        }
+    }
+
+    /**
+     * 延迟解码的消息持有网络缓冲的引用, 解码后已经释放, 没有解码就丢弃时在这里释放
+     */
+    static void release(Object message) {
+        Object data = message;
+        if (message instanceof Request) {
+            data = ((Request) message).getData();
+        } else if (message instanceof Response) {
+            data = ((Response) message).getResult();
+        }
+        if (data instanceof Releasable) {
+            ((Releasable) data).release();
+        }
+    }
+
     /**
      * ChannelState
      * 
@@ -3,16 +3,21 @@ package com.sogou.map.kubbo.remote.transport.handler;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import com.sogou.map.kubbo.common.Constants;
 import com.sogou.map.kubbo.common.URL;
 import com.sogou.map.kubbo.common.extension.Extensions;
 import com.sogou.map.kubbo.common.logger.Logger;
 import com.sogou.map.kubbo.common.logger.LoggerFactory;
 import com.sogou.map.kubbo.common.threadpool.NamedThreadFactory;
 import com.sogou.map.kubbo.common.threadpool.ThreadPool;
+import com.sogou.map.kubbo.common.util.StringUtils;
 import com.sogou.map.kubbo.remote.Channel;
 import com.sogou.map.kubbo.remote.ChannelHandler;
 import com.sogou.map.kubbo.remote.RemoteExecutionException;
 import com.sogou.map.kubbo.remote.RemotingException;
+import com.sogou.map.kubbo.remote.session.ProcessingRequests;
+import com.sogou.map.kubbo.remote.session.Request;
+import com.sogou.map.kubbo.remote.session.Response;
 import com.sogou.map.kubbo.remote.transport.handler.ChannelEventRunnable.ChannelState;
 
 /**
@@ -29,10 +34,14 @@ public class ExecutorWrappedChannelHandler extends AbstractChannelHandlerDelegat
     protected final ExecutorService executor;
     
     protected final URL url;
+
+    // 记录收到的请求, 以便调用方取消
+    protected final boolean cancellable;
     
     public ExecutorWrappedChannelHandler(ChannelHandler handler, URL url) {
         super(handler);
         this.url = url;
+        this.cancellable = url.getParameter(Constants.CANCEL_KEY, Constants.DEFAULT_CANCEL);
         executor = (ExecutorService) Extensions.getAdaptiveExtension(ThreadPool.class).getExecutor(url);
     }
 
@@ -58,10 +67,33 @@ public class ExecutorWrappedChannelHandler extends AbstractChannelHandlerDelegat
 
     @Override
     public void onReceived(Channel channel, Object message) throws RemotingException {
+        Request request = message instanceof Request ? (Request) message : null;
+        if (request != null && request.isCancel()) {
+            // 取消不排队, 直接在IO线程中处理, 才能赶上排队中的请求
+            handler.onReceived(channel, message);
+            return;
+        }
+        boolean processing = cancellable && request != null && request.isTwoWay() && !request.isEvent();
+        if (processing) {
+            ProcessingRequests.add(channel, request);
+        }
         ExecutorService cexecutor = getExecutorSafely();
         try {
             cexecutor.execute(new ChannelEventRunnable(channel, handler, ChannelState.RECEIVED, message));
         } catch (Throwable t) {
+            ChannelEventRunnable.release(message);
+            if (processing) {
+                ProcessingRequests.remove(channel, request);
+            }
+            if (request != null && request.getBatch() != null) {
+                // 批量请求的错误响应同样合并发送
+                Response response = new Response(request.getId(), request.getVersion());
+                response.setStatus(Response.SERVER_ERROR);
+                response.setErrorMessage(StringUtils.toString(getClass() + " error when process onReceived event .", t));
+                request.getBatch().add(response);
+                request.getBatch().finish(channel);
+                return;
+            }
             throw new RemoteExecutionException(message, channel, getClass() + " error when process onReceived event .", t);
         }
     }
@@ -27,4 +27,16 @@ public class MessageArrayHandler extends AbstractChannelHandlerDelegate {
             handler.onReceived(channel, message);
         }
     }
+
+    @Override
+    public void onSent(Channel channel, Object message) throws RemotingException {
+        if (message instanceof MessageArray) {
+            MessageArray array = (MessageArray)message;
+            for(Object obj : array) {
+                handler.onSent(channel, obj);
+            }
+        } else {
+            handler.onSent(channel, message);
+        }
+    }
 }
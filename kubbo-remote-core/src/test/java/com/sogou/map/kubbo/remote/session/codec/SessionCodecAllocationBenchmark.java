@@ -0,0 +1,139 @@
+/**
+ *
+ */
+package com.sogou.map.kubbo.remote.session.codec;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sogou.map.kubbo.common.URL;
+import com.sogou.map.kubbo.remote.Channel;
+import com.sogou.map.kubbo.remote.buffer.ChannelBuffer;
+import com.sogou.map.kubbo.remote.buffer.ChannelBufferInputStream;
+import com.sogou.map.kubbo.remote.buffer.ChannelBufferOutputStream;
+import com.sogou.map.kubbo.remote.buffer.ChannelBuffers;
+import com.sogou.map.kubbo.remote.serialization.ObjectInput;
+import com.sogou.map.kubbo.remote.serialization.ObjectOutput;
+import com.sogou.map.kubbo.remote.serialization.Serialization;
+import com.sogou.map.kubbo.remote.serialization.Serializations;
+import com.sogou.map.kubbo.remote.session.Request;
+import com.sogou.map.kubbo.remote.session.Response;
+
+/**
+ * 每个消息编解码的内存分配: 编解码全过程 vs 只做同样的序列化, 差值即分帧(header, 流包装)的开销
+ *
+ * @author liufuliang
+ *
+ */
+public class SessionCodecAllocationBenchmark {
+
+    private static final int MESSAGES = 1000000;
+
+    private static final Channel CHANNEL = (Channel) Proxy.newProxyInstance(
+            SessionCodecAllocationBenchmark.class.getClassLoader(), new Class<?>[] { Channel.class },
+            new InvocationHandler() {
+                final URL url = URL.valueOf("kubbo://127.0.0.1:40660/bench?serialization=kryo&payload=104857600");
+                final InetSocketAddress address = new InetSocketAddress("127.0.0.1", 40660);
+                final Map<Object, Object> attributes = new ConcurrentHashMap<Object, Object>();
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method.getName();
+                    if ("getUrl".equals(name)) {
+                        return url;
+                    }
+                    if ("getLocalAddress".equals(name) || "getRemoteAddress".equals(name)) {
+                        return address;
+                    }
+                    if ("getAttribute".equals(name)) {
+                        return attributes.get(args[0]);
+                    }
+                    if ("setAttribute".equals(name)) {
+                        attributes.put(args[0], args[1]);
+                        return null;
+                    }
+                    if ("isConnected".equals(name)) {
+                        return Boolean.TRUE;
+                    }
+                    if ("hashCode".equals(name)) {
+                        return System.identityHashCode(proxy);
+                    }
+                    if ("equals".equals(name)) {
+                        return proxy == args[0];
+                    }
+                    return null;
+                }
+            });
+
+    private static final Object DATA = "hello";
+
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // 请求和响应各编码解码一次
+    static long codec(SessionCodec codec, ChannelBuffer buffer) throws Exception {
+        Request req = new Request(1);
+        req.setData(DATA);
+        Response res = new Response(1);
+        res.setResult(DATA);
+        long start = allocatedBytes();
+        for (int i = 0; i < MESSAGES; ++i) {
+            buffer.clear();
+            codec.encode(CHANNEL, buffer, req);
+            codec.encode(CHANNEL, buffer, res);
+            codec.decode(CHANNEL, buffer);
+            codec.decode(CHANNEL, buffer);
+        }
+        return allocatedBytes() - start;
+    }
+
+    // 同样的序列化和反序列化, 不分帧, 解码出的Request/Response对象单独计算
+    static long serialization(ChannelBuffer buffer) throws Exception {
+        Serialization serialization = Serializations.getSerialization(CHANNEL.getUrl());
+        ChannelBufferOutputStream output = new ChannelBufferOutputStream();
+        ChannelBufferInputStream input = new ChannelBufferInputStream();
+        int[] lengths = new int[2];
+        long start = allocatedBytes();
+        for (int i = 0; i < MESSAGES; ++i) {
+            buffer.clear();
+            for (int j = 0; j < 2; ++j) {
+                int index = buffer.writerIndex();
+                ObjectOutput out = serialization.serialize(output.reset(buffer));
+                out.writeObject(DATA);
+                out.flushBuffer();
+                Serializations.releaseSafely(out);
+                lengths[j] = buffer.writerIndex() - index;
+            }
+            for (int j = 0; j < 2; ++j) {
+                ObjectInput in = serialization.deserialize(input.reset(buffer, lengths[j]));
+                in.readObject();
+                Serializations.releaseSafely(in);
+            }
+            new Request(1);
+            new Response(1);
+        }
+        return allocatedBytes() - start;
+    }
+
+    /**
+     * @param args
+     */
+    public static void main(String[] args) throws Exception {
+        SessionCodec codec = new SessionCodec();
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(4096);
+        for (int i = 0; i < 3; ++i) {
+            long all = codec(codec, buffer);
+            long serialization = serialization(buffer);
+            System.out.printf("codec %.1f B/msg, serialization + message objects %.1f B/msg, framing %.1f B/msg%n",
+                    (double) all / MESSAGES / 2, (double) serialization / MESSAGES / 2, (double) (all - serialization) / MESSAGES / 2);
+        }
+    }
+
+}
@@ -0,0 +1,239 @@
+/**
+ *
+ */
+package com.sogou.map.kubbo.remote.session.inner;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sogou.map.kubbo.common.URL;
+import com.sogou.map.kubbo.remote.Channel;
+import com.sogou.map.kubbo.remote.RemotingException;
+import com.sogou.map.kubbo.remote.TimeoutException;
+import com.sogou.map.kubbo.remote.session.Request;
+import com.sogou.map.kubbo.remote.session.Response;
+import com.sogou.map.kubbo.remote.session.ResponseListener;
+
+/**
+ * @author liufuliang
+ *
+ */
+public class InternalResponseFutureTest {
+
+    private static final Channel CHANNEL = (Channel) Proxy.newProxyInstance(
+            InternalResponseFutureTest.class.getClassLoader(), new Class<?>[] { Channel.class },
+            new InvocationHandler() {
+                final URL url = URL.valueOf("kubbo://127.0.0.1:40660/sample");
+                final InetSocketAddress address = new InetSocketAddress("127.0.0.1", 40660);
+                final Map<Object, Object> attributes = new ConcurrentHashMap<Object, Object>();
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method.getName();
+                    if ("getUrl".equals(name)) {
+                        return url;
+                    }
+                    if ("getLocalAddress".equals(name) || "getRemoteAddress".equals(name)) {
+                        return address;
+                    }
+                    if ("getAttribute".equals(name)) {
+                        return attributes.get(args[0]);
+                    }
+                    if ("setAttribute".equals(name)) {
+                        attributes.put(args[0], args[1]);
+                        return null;
+                    }
+                    if ("isConnected".equals(name)) {
+                        return Boolean.TRUE;
+                    }
+                    if ("hashCode".equals(name)) {
+                        return System.identityHashCode(proxy);
+                    }
+                    if ("equals".equals(name)) {
+                        return proxy == args[0];
+                    }
+                    return null;
+                }
+            });
+
+    static class CountingListener implements ResponseListener {
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger caught = new AtomicInteger();
+        volatile Object result;
+
+        @Override
+        public void done(Response response) {
+            result = response.getResult();
+            done.incrementAndGet();
+        }
+
+        @Override
+        public void caught(Throwable exception) {
+            caught.incrementAndGet();
+        }
+    }
+
+    private static InternalResponseFuture newFuture(Request request) {
+        return new InternalResponseFuture(CHANNEL, request, 60000);
+    }
+
+    private static void complete(Request request, Object result) {
+        Response response = new Response(request.getId());
+        response.setResult(result);
+        InternalResponseFuture.received(CHANNEL, response);
+    }
+
+    @Test
+    public void testMultipleListeners() throws RemotingException {
+        Request request = new Request();
+        InternalResponseFuture future = newFuture(request);
+        CountingListener[] listeners = new CountingListener[3];
+        for (int i = 0; i < listeners.length; ++i) {
+            listeners[i] = new CountingListener();
+            future.addListener(listeners[i]);
+        }
+        Assert.assertEquals(3, future.getListenerCount());
+
+        complete(request, "hello");
+        Assert.assertTrue(future.isDone());
+        Assert.assertEquals("hello", future.get());
+        for (CountingListener listener : listeners) {
+            Assert.assertEquals(1, listener.done.get());
+            Assert.assertEquals(0, listener.caught.get());
+            Assert.assertEquals("hello", listener.result);
+        }
+
+        // 重复的响应被忽略
+        complete(request, "again");
+        for (CountingListener listener : listeners) {
+            Assert.assertEquals(1, listener.done.get());
+        }
+    }
+
+    @Test
+    public void testListenerAfterCompletion() {
+        Request request = new Request();
+        InternalResponseFuture future = newFuture(request);
+        complete(request, "hello");
+
+        // 完成后添加的监听者立即得到通知
+        CountingListener listener = new CountingListener();
+        future.addListener(listener);
+        Assert.assertEquals(1, listener.done.get());
+        Assert.assertEquals("hello", listener.result);
+        Assert.assertEquals(0, future.getListenerCount());
+
+        // 取消失败的请求通知caught
+        Request canceled = new Request();
+        InternalResponseFuture canceledFuture = newFuture(canceled);
+        Assert.assertTrue(canceledFuture.cancel());
+        Assert.assertFalse(canceledFuture.cancel());
+        CountingListener late = new CountingListener();
+        canceledFuture.addListener(late);
+        Assert.assertEquals(0, late.done.get());
+        Assert.assertEquals(1, late.caught.get());
+    }
+
+    @Test
+    public void testTimedOutWaiterRemoved() throws RemotingException {
+        Request request = new Request();
+        InternalResponseFuture future = newFuture(request);
+        CountingListener listener = new CountingListener();
+        future.addListener(listener);
+
+        // 每次超时的get()都从监听者中移除等待的线程
+        for (int i = 0; i < 100; ++i) {
+            try {
+                future.get(1);
+                Assert.fail();
+            } catch (TimeoutException e) {
+                // expected
+            }
+            Assert.assertEquals(1, future.getListenerCount());
+        }
+
+        complete(request, "hello");
+        Assert.assertEquals("hello", future.get(1));
+        Assert.assertEquals(1, listener.done.get());
+    }
+
+    @Test
+    public void testWaiterRacingCompletion() throws InterruptedException {
+        for (int i = 0; i < 1000; ++i) {
+            final Request request = new Request();
+            final InternalResponseFuture future = newFuture(request);
+            final CountDownLatch started = new CountDownLatch(1);
+            final AtomicReference<Object> result = new AtomicReference<Object>();
+            Thread waiter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        result.set(future.get(5000));
+                    } catch (Throwable t) {
+                        result.set(t);
+                    }
+                }
+            });
+            waiter.start();
+            started.await();
+            // 完成与等待线程加入监听者竞争, 等待线程都能被唤醒
+            complete(request, "hello");
+            waiter.join(5000);
+            Assert.assertFalse(waiter.isAlive());
+            Assert.assertEquals("hello", result.get());
+            Assert.assertEquals(0, future.getListenerCount());
+        }
+    }
+
+    @Test
+    public void testConcurrentWaiters() throws InterruptedException {
+        final Request request = new Request();
+        final InternalResponseFuture future = newFuture(request);
+        final int waiters = 8;
+        final CountDownLatch timedOut = new CountDownLatch(waiters);
+        final CountDownLatch done = new CountDownLatch(waiters);
+        final AtomicInteger results = new AtomicInteger();
+        for (int i = 0; i < waiters; ++i) {
+            final boolean shortWait = i % 2 == 0;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (shortWait) {
+                            try {
+                                future.get(1);
+                            } catch (TimeoutException e) {
+                                timedOut.countDown();
+                            }
+                        } else {
+                            timedOut.countDown();
+                        }
+                        if ("hello".equals(future.get(5000))) {
+                            results.incrementAndGet();
+                        }
+                    } catch (Throwable t) {
+                        // 计数不增加
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        Assert.assertTrue(timedOut.await(5, TimeUnit.SECONDS));
+        complete(request, "hello");
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(waiters, results.get());
+        Assert.assertEquals(0, future.getListenerCount());
+    }
+}
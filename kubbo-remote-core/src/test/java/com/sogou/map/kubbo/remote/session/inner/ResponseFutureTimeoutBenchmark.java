@@ -0,0 +1,153 @@
+/**
+ *
+ */
+package com.sogou.map.kubbo.remote.session.inner;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sogou.map.kubbo.common.URL;
+import com.sogou.map.kubbo.common.threadpool.NamedThreadFactory;
+import com.sogou.map.kubbo.common.timer.HashedWheelTimer;
+import com.sogou.map.kubbo.common.timer.Timeout;
+import com.sogou.map.kubbo.common.timer.TimerTask;
+import com.sogou.map.kubbo.remote.Channel;
+import com.sogou.map.kubbo.remote.session.Request;
+import com.sogou.map.kubbo.remote.session.Response;
+
+/**
+ * 1M个未完成请求时的超时处理开销: 每30ms全量扫描(旧) vs 时间轮(新)
+ *
+ * @author liufuliang
+ *
+ */
+public class ResponseFutureTimeoutBenchmark {
+
+    private static final int PENDING = 1000000;
+
+    private static final Channel CHANNEL = (Channel) Proxy.newProxyInstance(
+            ResponseFutureTimeoutBenchmark.class.getClassLoader(), new Class<?>[] { Channel.class },
+            new InvocationHandler() {
+                final URL url = URL.valueOf("kubbo://127.0.0.1:40660/bench");
+                final InetSocketAddress address = new InetSocketAddress("127.0.0.1", 40660);
+                final Map<Object, Object> attributes = new ConcurrentHashMap<Object, Object>();
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method.getName();
+                    if ("getUrl".equals(name)) {
+                        return url;
+                    }
+                    if ("getLocalAddress".equals(name) || "getRemoteAddress".equals(name)) {
+                        return address;
+                    }
+                    if ("getAttribute".equals(name)) {
+                        return attributes.get(args[0]);
+                    }
+                    if ("setAttribute".equals(name)) {
+                        attributes.put(args[0], args[1]);
+                        return null;
+                    }
+                    if ("isConnected".equals(name)) {
+                        return Boolean.TRUE;
+                    }
+                    if ("hashCode".equals(name)) {
+                        return System.identityHashCode(proxy);
+                    }
+                    if ("equals".equals(name)) {
+                        return proxy == args[0];
+                    }
+                    return null;
+                }
+            });
+
+    // 扫描到的超时请求数, 输出到结果中, 避免扫描被优化掉
+    static long scannedExpired = 0;
+
+    // 旧实现: 扫描线程每30ms遍历一次全部未完成的请求
+    static long scan(Map<Long, InternalResponseFuture> futures) {
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        int expired = 0;
+        for (InternalResponseFuture future : futures.values()) {
+            if (future == null || future.isDone()) {
+                continue;
+            }
+            if (System.currentTimeMillis() - now > 60000) {
+                expired++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        scannedExpired += expired;
+        return elapsed;
+    }
+
+    static void runFutures() {
+        Request[] requests = new Request[PENDING];
+        for (int i = 0; i < PENDING; ++i) {
+            requests[i] = new Request();
+        }
+        Map<Long, InternalResponseFuture> futures = new ConcurrentHashMap<Long, InternalResponseFuture>();
+        long start = System.nanoTime();
+        for (int i = 0; i < PENDING; ++i) {
+            futures.put(requests[i].getId(), new InternalResponseFuture(CHANNEL, requests[i], 60000));
+        }
+        long create = System.nanoTime() - start;
+
+        long scan = scan(futures);
+
+        start = System.nanoTime();
+        for (int i = 0; i < PENDING; ++i) {
+            InternalResponseFuture.received(CHANNEL, new Response(requests[i].getId()));
+        }
+        long complete = System.nanoTime() - start;
+        System.out.printf("%d pending futures: create+schedule %.1f ns/op, complete+cancel %.1f ns/op, one full scan %.1f ms (every 30ms, %d expired)%n",
+                PENDING, (double) create / PENDING, (double) complete / PENDING, scan / 1e6, scannedExpired);
+    }
+
+    // 到期精度: 1M个1秒后到期的任务, 统计实际触发的延迟
+    static void runLateness(int tick) throws InterruptedException {
+        HashedWheelTimer timer = new HashedWheelTimer(new NamedThreadFactory("bench-timer", true),
+                tick, TimeUnit.MILLISECONDS, 512);
+        final CountDownLatch latch = new CountDownLatch(PENDING);
+        final AtomicLong maxLate = new AtomicLong();
+        final AtomicLong totalLate = new AtomicLong();
+        for (int i = 0; i < PENDING; ++i) {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1000);
+            timer.newTimeout(new TimerTask() {
+                @Override
+                public void run(Timeout timeout) {
+                    long late = System.nanoTime() - deadline;
+                    totalLate.addAndGet(late);
+                    if (late > maxLate.get()) {
+                        maxLate.set(late);
+                    }
+                    latch.countDown();
+                }
+            }, 1000, TimeUnit.MILLISECONDS);
+        }
+        latch.await();
+        timer.stop();
+        System.out.printf("tick %dms: %d timeouts fired, avg late %.2f ms, max late %.2f ms%n",
+                tick, PENDING, totalLate.get() / 1e6 / PENDING, maxLate.get() / 1e6);
+    }
+
+    /**
+     * @param args
+     */
+    public static void main(String[] args) throws Exception {
+        for (int i = 0; i < 3; ++i) {
+            runFutures();
+        }
+        runLateness(10);
+        runLateness(1);
+    }
+
+}
@@ -0,0 +1,487 @@
+package com.sogou.map.kubbo.remote.transport.netty4;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.sogou.map.kubbo.remote.buffer.ChannelBuffer;
+import com.sogou.map.kubbo.remote.buffer.ChannelBufferFactory;
+import com.sogou.map.kubbo.remote.buffer.ChannelBuffers;
+import com.sogou.map.kubbo.remote.buffer.HeapChannelBufferFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCounted;
+
+/**
+ * 直接包装netty ByteBuf的ChannelBuffer, 读写不经过中间拷贝.
+ * 引用计数委托给ByteBuf, 由创建者负责release.
+ *
+ * @author liufuliang
+ */
+public class NettyBackedChannelBuffer implements ChannelBuffer, ReferenceCounted {
+
+    private final ByteBuf buffer;
+
+    public NettyBackedChannelBuffer(ByteBuf buffer) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("buffer == NULL");
+        }
+        this.buffer = buffer;
+    }
+
+    public ByteBuf byteBuf() {
+        return buffer;
+    }
+
+    @Override
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    @Override
+    public void clear() {
+        buffer.clear();
+    }
+
+    @Override
+    public ChannelBuffer copy() {
+        return copy(buffer.readerIndex(), buffer.readableBytes());
+    }
+
+    @Override
+    public ChannelBuffer copy(int index, int length) {
+        byte[] data = new byte[length];
+        buffer.getBytes(index, data);
+        return ChannelBuffers.wrappedBuffer(data);
+    }
+
+    @Override
+    public ChannelBuffer retainedSlice(int index, int length) {
+        if (!(buffer instanceof CompositeByteBuf)) {
+            return new NettyBackedChannelBuffer(buffer.retainedSlice(index, length));
+        }
+        // 累积半帧的组合缓冲会丢弃读完的组件, 索引随之移动, 切片直接引用组件
+        List<ByteBuf> components = ((CompositeByteBuf) buffer).decompose(index, length);
+        if (components.isEmpty()) {
+            return new NettyBackedChannelBuffer(Unpooled.EMPTY_BUFFER);
+        }
+        if (components.size() == 1) {
+            return new NettyBackedChannelBuffer(components.get(0).retain());
+        }
+        ByteBuf[] retained = new ByteBuf[components.size()];
+        for (int i = 0; i < retained.length; ++i) {
+            retained[i] = components.get(i).retain();
+        }
+        return new NettyBackedChannelBuffer(Unpooled.wrappedBuffer(retained.length, retained));
+    }
+
+    @Override
+    public void discardReadBytes() {
+        buffer.discardReadBytes();
+    }
+
+    @Override
+    public void ensureWritableBytes(int writableBytes) {
+        buffer.ensureWritable(writableBytes);
+    }
+
+    @Override
+    public ChannelBufferFactory factory() {
+        return HeapChannelBufferFactory.getInstance();
+    }
+
+    @Override
+    public byte getByte(int index) {
+        return buffer.getByte(index);
+    }
+
+    @Override
+    public int getInt(int index) {
+        return buffer.getInt(index);
+    }
+
+    @Override
+    public long getLong(int index) {
+        return buffer.getLong(index);
+    }
+
+    @Override
+    public void getBytes(int index, byte[] dst) {
+        buffer.getBytes(index, dst);
+    }
+
+    @Override
+    public void getBytes(int index, byte[] dst, int dstIndex, int length) {
+        buffer.getBytes(index, dst, dstIndex, length);
+    }
+
+    @Override
+    public void getBytes(int index, ByteBuffer dst) {
+        buffer.getBytes(index, dst);
+    }
+
+    @Override
+    public void getBytes(int index, ChannelBuffer dst) {
+        getBytes(index, dst, dst.writableBytes());
+    }
+
+    @Override
+    public void getBytes(int index, ChannelBuffer dst, int length) {
+        if (length > dst.writableBytes()) {
+            throw new IndexOutOfBoundsException();
+        }
+        getBytes(index, dst, dst.writerIndex(), length);
+        dst.writerIndex(dst.writerIndex() + length);
+    }
+
+    @Override
+    public void getBytes(int index, ChannelBuffer dst, int dstIndex, int length) {
+        if (dst instanceof NettyBackedChannelBuffer) {
+            buffer.getBytes(index, ((NettyBackedChannelBuffer) dst).buffer, dstIndex, length);
+        } else if (dst.hasArray()) {
+            buffer.getBytes(index, dst.array(), dst.arrayOffset() + dstIndex, length);
+        } else {
+            byte[] data = new byte[length];
+            buffer.getBytes(index, data);
+            dst.setBytes(dstIndex, data);
+        }
+    }
+
+    @Override
+    public void getBytes(int index, OutputStream dst, int length) throws IOException {
+        buffer.getBytes(index, dst, length);
+    }
+
+    @Override
+    public boolean isDirect() {
+        return buffer.isDirect();
+    }
+
+    @Override
+    public void markReaderIndex() {
+        buffer.markReaderIndex();
+    }
+
+    @Override
+    public void markWriterIndex() {
+        buffer.markWriterIndex();
+    }
+
+    @Override
+    public boolean readable() {
+        return buffer.isReadable();
+    }
+
+    @Override
+    public int readableBytes() {
+        return buffer.readableBytes();
+    }
+
+    @Override
+    public byte readByte() {
+        return buffer.readByte();
+    }
+
+    @Override
+    public void readBytes(byte[] dst) {
+        buffer.readBytes(dst);
+    }
+
+    @Override
+    public void readBytes(byte[] dst, int dstIndex, int length) {
+        buffer.readBytes(dst, dstIndex, length);
+    }
+
+    @Override
+    public void readBytes(ByteBuffer dst) {
+        buffer.readBytes(dst);
+    }
+
+    @Override
+    public void readBytes(ChannelBuffer dst) {
+        readBytes(dst, dst.writableBytes());
+    }
+
+    @Override
+    public void readBytes(ChannelBuffer dst, int length) {
+        if (length > dst.writableBytes()) {
+            throw new IndexOutOfBoundsException();
+        }
+        readBytes(dst, dst.writerIndex(), length);
+        dst.writerIndex(dst.writerIndex() + length);
+    }
+
+    @Override
+    public void readBytes(ChannelBuffer dst, int dstIndex, int length) {
+        checkReadableBytes(length);
+        getBytes(buffer.readerIndex(), dst, dstIndex, length);
+        buffer.skipBytes(length);
+    }
+
+    @Override
+    public ChannelBuffer readBytes(int length) {
+        checkReadableBytes(length);
+        if (length == 0) {
+            return ChannelBuffers.EMPTY_BUFFER;
+        }
+        ChannelBuffer copied = copy(buffer.readerIndex(), length);
+        buffer.skipBytes(length);
+        return copied;
+    }
+
+    @Override
+    public void readBytes(OutputStream dst, int length) throws IOException {
+        buffer.readBytes(dst, length);
+    }
+
+    @Override
+    public void resetReaderIndex() {
+        buffer.resetReaderIndex();
+    }
+
+    @Override
+    public void resetWriterIndex() {
+        buffer.resetWriterIndex();
+    }
+
+    @Override
+    public int readerIndex() {
+        return buffer.readerIndex();
+    }
+
+    @Override
+    public void readerIndex(int readerIndex) {
+        buffer.readerIndex(readerIndex);
+    }
+
+    @Override
+    public void setByte(int index, int value) {
+        buffer.setByte(index, value);
+    }
+
+    @Override
+    public void setInt(int index, int value) {
+        buffer.setInt(index, value);
+    }
+
+    @Override
+    public void setLong(int index, long value) {
+        buffer.setLong(index, value);
+    }
+
+    @Override
+    public void setBytes(int index, byte[] src) {
+        buffer.setBytes(index, src);
+    }
+
+    @Override
+    public void setBytes(int index, byte[] src, int srcIndex, int length) {
+        buffer.setBytes(index, src, srcIndex, length);
+    }
+
+    @Override
+    public void setBytes(int index, ByteBuffer src) {
+        buffer.setBytes(index, src);
+    }
+
+    @Override
+    public void setBytes(int index, ChannelBuffer src) {
+        setBytes(index, src, src.readableBytes());
+    }
+
+    @Override
+    public void setBytes(int index, ChannelBuffer src, int length) {
+        if (length > src.readableBytes()) {
+            throw new IndexOutOfBoundsException();
+        }
+        setBytes(index, src, src.readerIndex(), length);
+        src.readerIndex(src.readerIndex() + length);
+    }
+
+    @Override
+    public void setBytes(int index, ChannelBuffer src, int srcIndex, int length) {
+        if (src instanceof NettyBackedChannelBuffer) {
+            buffer.setBytes(index, ((NettyBackedChannelBuffer) src).buffer, srcIndex, length);
+        } else if (src.hasArray()) {
+            buffer.setBytes(index, src.array(), src.arrayOffset() + srcIndex, length);
+        } else {
+            buffer.setBytes(index, src.toByteBuffer(srcIndex, length));
+        }
+    }
+
+    @Override
+    public int setBytes(int index, InputStream src, int length) throws IOException {
+        return buffer.setBytes(index, src, length);
+    }
+
+    @Override
+    public void setIndex(int readerIndex, int writerIndex) {
+        buffer.setIndex(readerIndex, writerIndex);
+    }
+
+    @Override
+    public void skipBytes(int length) {
+        buffer.skipBytes(length);
+    }
+
+    @Override
+    public ByteBuffer toByteBuffer() {
+        return buffer.nioBuffer();
+    }
+
+    @Override
+    public ByteBuffer toByteBuffer(int index, int length) {
+        return buffer.nioBuffer(index, length);
+    }
+
+    @Override
+    public boolean writable() {
+        return buffer.isWritable();
+    }
+
+    @Override
+    public int writableBytes() {
+        return buffer.writableBytes();
+    }
+
+    @Override
+    public void writeByte(int value) {
+        buffer.writeByte(value);
+    }
+
+    @Override
+    public void writeBytes(byte[] src) {
+        buffer.writeBytes(src);
+    }
+
+    @Override
+    public void writeBytes(byte[] src, int index, int length) {
+        buffer.writeBytes(src, index, length);
+    }
+
+    @Override
+    public void writeBytes(ByteBuffer src) {
+        buffer.writeBytes(src);
+    }
+
+    @Override
+    public void writeBytes(ChannelBuffer src) {
+        writeBytes(src, src.readableBytes());
+    }
+
+    @Override
+    public void writeBytes(ChannelBuffer src, int length) {
+        if (length > src.readableBytes()) {
+            throw new IndexOutOfBoundsException();
+        }
+        writeBytes(src, src.readerIndex(), length);
+        src.readerIndex(src.readerIndex() + length);
+    }
+
+    @Override
+    public void writeBytes(ChannelBuffer src, int srcIndex, int length) {
+        buffer.ensureWritable(length);
+        setBytes(buffer.writerIndex(), src, srcIndex, length);
+        buffer.writerIndex(buffer.writerIndex() + length);
+    }
+
+    @Override
+    public int writeBytes(InputStream src, int length) throws IOException {
+        return buffer.writeBytes(src, length);
+    }
+
+    @Override
+    public int writerIndex() {
+        return buffer.writerIndex();
+    }
+
+    @Override
+    public void writerIndex(int writerIndex) {
+        buffer.writerIndex(writerIndex);
+    }
+
+    @Override
+    public byte[] array() {
+        return buffer.array();
+    }
+
+    @Override
+    public boolean hasArray() {
+        return buffer.hasArray();
+    }
+
+    @Override
+    public int arrayOffset() {
+        return buffer.arrayOffset();
+    }
+
+    @Override
+    public int compareTo(ChannelBuffer that) {
+        return ChannelBuffers.compare(this, that);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ChannelBuffer
+            && ChannelBuffers.equals(this, (ChannelBuffer) o);
+    }
+
+    @Override
+    public int hashCode() {
+        return buffer.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + '(' + buffer + ')';
+    }
+
+    @Override
+    public int refCnt() {
+        return buffer.refCnt();
+    }
+
+    @Override
+    public NettyBackedChannelBuffer retain() {
+        buffer.retain();
+        return this;
+    }
+
+    @Override
+    public NettyBackedChannelBuffer retain(int increment) {
+        buffer.retain(increment);
+        return this;
+    }
+
+    @Override
+    public NettyBackedChannelBuffer touch() {
+        buffer.touch();
+        return this;
+    }
+
+    @Override
+    public NettyBackedChannelBuffer touch(Object hint) {
+        buffer.touch(hint);
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return buffer.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return buffer.release(decrement);
+    }
+
+    private void checkReadableBytes(int minimumReadableBytes) {
+        if (buffer.readableBytes() < minimumReadableBytes) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+}
@@ -2,15 +2,18 @@ package com.sogou.map.kubbo.remote.transport.netty4;
 
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
 
 import java.net.InetSocketAddress;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.net.SocketAddress;
 
 import com.sogou.map.kubbo.common.Constants;
 import com.sogou.map.kubbo.common.URL;
 import com.sogou.map.kubbo.common.logger.Logger;
 import com.sogou.map.kubbo.common.logger.LoggerFactory;
+import com.sogou.map.kubbo.common.util.NetUtils;
 import com.sogou.map.kubbo.remote.ChannelHandler;
 import com.sogou.map.kubbo.remote.RemotingException;
 import com.sogou.map.kubbo.remote.transport.AbstractChannel;
@@ -24,28 +27,47 @@ final class NettyChannel extends AbstractChannel {
 
     private static final Logger logger = LoggerFactory.getLogger(NettyChannel.class);
 
-    private static final ConcurrentMap<Channel, NettyChannel> channelMap = new ConcurrentHashMap<Channel, NettyChannel>();
+    // 与netty channel同生命周期, 无需全局映射
+    private static final AttributeKey<NettyChannel> NETTY_CHANNEL_KEY = AttributeKey.valueOf("kubbo.channel");
+
+    private static final InetSocketAddress UNIX_SOCKET_PEER_ADDRESS = new InetSocketAddress(NetUtils.LOCALHOST, 0);
 
     private final Channel channel;
 
+    private final NettyWriteQueue writeQueue;
+
+    private final String backpressure;
+
+    private final Object writabilityLock = new Object();
+
     private NettyChannel(Channel channel, URL url, ChannelHandler handler){
         super(url, handler);
         if (channel == null) {
             throw new IllegalArgumentException("netty channel == NULL");
         }
         this.channel = channel;
+        if (url.getParameter(Constants.WRITE_COALESCE_KEY, Constants.DEFAULT_WRITE_COALESCE)) {
+            int batch = url.getPositiveParameter(Constants.WRITE_COALESCE_BATCH_KEY, Constants.DEFAULT_WRITE_COALESCE_BATCH);
+            this.writeQueue = new NettyWriteQueue(channel, batch);
+        } else {
+            this.writeQueue = null;
+        }
+        this.backpressure = backpressure(url);
     }
 
+    /**
+     * NettyChannel绑定在netty channel的attribute上, 随连接一起释放, 不需要全局的map.
+     * 每个连接的handler实例可以缓存返回值, 之后无需再查找.
+     */
     static NettyChannel getOrAddChannel(Channel ch, URL url, ChannelHandler handler) {
         if (ch == null) {
             return null;
         }
-        NettyChannel channel = channelMap.get(ch);
+        Attribute<NettyChannel> attribute = ch.attr(NETTY_CHANNEL_KEY);
+        NettyChannel channel = attribute.get();
         if (channel == null) {
             NettyChannel nc = new NettyChannel(ch, url, handler);
-            if (ch.isActive()) {
-                channel = channelMap.putIfAbsent(ch, nc);
-            }
+            channel = attribute.setIfAbsent(nc);
             if (channel == null) {
                 channel = nc;
             }
@@ -53,20 +75,59 @@ final class NettyChannel extends AbstractChannel {
         return channel;
     }
 
-    static void removeChannelIfDisconnected(Channel ch) {
-        if (ch != null && !ch.isActive()) {
-            channelMap.remove(ch);
+    static WriteBufferWaterMark writeBufferWaterMark(URL url) {
+        int high = url.getPositiveParameter(Constants.WRITE_BUFFER_HIGH_WATER_MARK_KEY, Constants.DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK);
+        int low = url.getPositiveParameter(Constants.WRITE_BUFFER_LOW_WATER_MARK_KEY, Constants.DEFAULT_WRITE_BUFFER_LOW_WATER_MARK);
+        if (low > high) {
+            logger.warn("Illegal write buffer water mark, low: " + low + ", high: " + high + ", use low = high instead. url: " + url);
+            low = high;
+        }
+        return new WriteBufferWaterMark(low, high);
+    }
+
+    /**
+     * 不支持的backpressure策略(如拼写错误)按默认策略处理
+     */
+    static String backpressure(URL url) {
+        String backpressure = url.getParameter(Constants.BACKPRESSURE_KEY, Constants.DEFAULT_BACKPRESSURE);
+        if (!Constants.BACKPRESSURE_NONE.equals(backpressure)
+                && !Constants.BACKPRESSURE_BLOCK.equals(backpressure)
+                && !Constants.BACKPRESSURE_FAILFAST.equals(backpressure)) {
+            logger.warn("Unsupported backpressure: " + backpressure + ", use " + Constants.DEFAULT_BACKPRESSURE + " instead. url: " + url);
+            return Constants.DEFAULT_BACKPRESSURE;
+        }
+        return backpressure;
+    }
+
+    /**
+     * 连接在channels中的key, TCP连接为ip:port, unix domain socket连接没有对端地址, 以channel id区分
+     */
+    static String addressKey(Channel ch) {
+        SocketAddress address = ch.remoteAddress();
+        if (address instanceof InetSocketAddress) {
+            return NetUtils.toAddressString((InetSocketAddress) address);
         }
+        return Constants.UNIX_SOCKET_PREFIX + ch.id().asShortText();
     }
 
     @Override
     public InetSocketAddress getLocalAddress() {
-        return (InetSocketAddress) channel.localAddress();
+        SocketAddress address = channel.localAddress();
+        if (address instanceof InetSocketAddress) {
+            return (InetSocketAddress) address;
+        }
+        // unix domain socket: 服务端为绑定的服务地址, 客户端为本机
+        return channel.parent() != null ? getUrl().toInetSocketAddress() : UNIX_SOCKET_PEER_ADDRESS;
     }
 
     @Override
     public InetSocketAddress getRemoteAddress() {
-        return (InetSocketAddress) channel.remoteAddress();
+        SocketAddress address = channel.remoteAddress();
+        if (address instanceof InetSocketAddress) {
+            return (InetSocketAddress) address;
+        }
+        // unix domain socket: 客户端为服务提供者的TCP地址, 服务端为本机
+        return channel.parent() != null ? UNIX_SOCKET_PEER_ADDRESS : getUrl().toInetSocketAddress();
     }
 
     @Override
@@ -77,10 +138,11 @@ final class NettyChannel extends AbstractChannel {
     @Override
     public void send(Object message, boolean blocking) throws RemotingException {
         super.send(message, blocking);
+        awaitWritable(message);
         boolean success = true;
         int timeout = 0;
         try {
-            ChannelFuture future = channel.writeAndFlush(message);
+            ChannelFuture future = writeQueue == null ? channel.writeAndFlush(message) : writeQueue.write(message);
             if (blocking) {
                 timeout = getUrl().getPositiveParameter(Constants.TIMEOUT_KEY, Constants.DEFAULT_TIMEOUT);
                 success = future.syncUninterruptibly().await(timeout);
@@ -107,6 +169,61 @@ final class NettyChannel extends AbstractChannel {
         }
     }
 
+    /**
+     * 写缓冲超过高水位(channel不可写)时按backpressure策略处理:
+     * failfast直接失败, block阻塞等待至可写或超时, none不处理.
+     */
+    private void awaitWritable(Object message) throws RemotingException {
+        if (channel.isWritable() || Constants.BACKPRESSURE_NONE.equals(backpressure)) {
+            return;
+        }
+        if (Constants.BACKPRESSURE_FAILFAST.equals(backpressure)) {
+            NettyTransportStatistics.backpressureRejected();
+            throw new RemotingException(this, "Failed to send message " + message + " to " + getRemoteAddress() 
+                    + ", cause: channel is not writable, pending outbound bytes " + getPendingOutboundBytes());
+        }
+        // 不能阻塞IO线程
+        if (channel.eventLoop().inEventLoop()) {
+            return;
+        }
+        NettyTransportStatistics.backpressureBlocked();
+        int timeout = getUrl().getPositiveParameter(Constants.TIMEOUT_KEY, Constants.DEFAULT_TIMEOUT);
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (writabilityLock) {
+            while (!channel.isWritable() && channel.isActive()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    NettyTransportStatistics.backpressureRejected();
+                    throw new RemotingException(this, "Failed to send message " + message + " to " + getRemoteAddress() 
+                            + ", cause: channel is not writable in timeout(" + timeout + "ms) limit, pending outbound bytes " + getPendingOutboundBytes());
+                }
+                try {
+                    writabilityLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RemotingException(this, "Interrupted while waiting for channel writable", e);
+                }
+            }
+        }
+    }
+
+    void onWritabilityChanged() {
+        if (channel.isWritable()) {
+            removeAttribute(Constants.CHANNEL_ATTRIBUTE_UNWRITABLE_KEY);
+        } else {
+            NettyTransportStatistics.unwritable();
+            setAttribute(Constants.CHANNEL_ATTRIBUTE_UNWRITABLE_KEY, Boolean.TRUE);
+        }
+        synchronized (writabilityLock) {
+            writabilityLock.notifyAll();
+        }
+    }
+
+    long getPendingOutboundBytes() {
+        io.netty.channel.ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+        return buffer == null ? 0 : buffer.totalPendingWriteBytes();
+    }
+
     @Override
     public void close() {
         try {
@@ -114,12 +231,6 @@ final class NettyChannel extends AbstractChannel {
         } catch (Exception e) {
             logger.warn(e.getMessage(), e);
         }
-        try {
-            removeChannelIfDisconnected(channel);
-        } catch (Exception e) {
-            logger.warn(e.getMessage(), e);
-        }
-
         try {
             if (logger.isInfoEnabled()) {
                 logger.info("Close " + this);
@@ -12,6 +12,7 @@ import com.sogou.map.kubbo.remote.RemotingException;
 import com.sogou.map.kubbo.remote.transport.AbstractClient;
 
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
@@ -19,8 +20,7 @@ import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
 import io.netty.util.internal.SystemPropertyUtil;
 
 /**
@@ -36,6 +36,10 @@ public class NettyClient extends AbstractClient {
 
     private volatile Channel channel; // volatile, please copy reference to use
 
+    private volatile NettyChannel nettyChannel; // 与channel同步更新, 避免每次getChannel()查找attribute
+
+    private DomainSocketAddress domainSocketAddress; // 非null时通过unix domain socket连接
+
     public NettyClient(final URL url, final ChannelHandler handler) throws RemotingException{
         super(url, wrapChannelHandler(url, handler));
     }
@@ -51,33 +55,49 @@ public class NettyClient extends AbstractClient {
     }
 
     private static final EventLoopGroup WORKER_GROUP = new NioEventLoopGroup(DEFAULT_EVENT_LOOP_THREADS, new NamedThreadFactory("NettyClientNioEventLoop", true));
+
+    // 按需创建, 仅在transport.native=epoll时使用
+    private static class EpollWorkerGroupHolder {
+        static final EventLoopGroup WORKER_GROUP = NettyNativeTransport.newEventLoopGroup(true, DEFAULT_EVENT_LOOP_THREADS, new NamedThreadFactory("NettyClientEpollEventLoop", true));
+    }
     
     @Override
     protected void start() throws Throwable {
         NettyLoggerAdapter.setNettyLoggerFactory();
         bootstrap = new Bootstrap();
         // config
-        bootstrap.channel(NioSocketChannel.class)
-                 .group(WORKER_GROUP)
-                 .option(ChannelOption.SO_KEEPALIVE, true)
-                 .option(ChannelOption.TCP_NODELAY, true)
+        domainSocketAddress = NettyNativeTransport.domainSocketAddress(getUrl());
+        if (domainSocketAddress != null) {
+            // 同机的服务提供者, 走unix domain socket
+            bootstrap.channel(NettyNativeTransport.domainChannelClass())
+                     .group(EpollWorkerGroupHolder.WORKER_GROUP);
+        } else {
+            boolean epoll = NettyNativeTransport.isEpoll(getUrl());
+            bootstrap.channel(NettyNativeTransport.channelClass(epoll))
+                     .group(epoll ? EpollWorkerGroupHolder.WORKER_GROUP : WORKER_GROUP)
+                     .option(ChannelOption.SO_KEEPALIVE, true)
+                     .option(ChannelOption.TCP_NODELAY, true);
+            NettyNativeTransport.configure(bootstrap, epoll);
+        }
+        bootstrap.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                 .option(ChannelOption.WRITE_BUFFER_WATER_MARK, NettyChannel.writeBufferWaterMark(getUrl()))
                  .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, getConnectTimeout())
-                 .handler(new ChannelInitializer<SocketChannel>() {
-                             public void initChannel(SocketChannel ch) {
+                 .handler(new ChannelInitializer<Channel>() {
+                             public void initChannel(Channel ch) {
                                 NettyTransportEncoder encoder = new NettyTransportEncoder(getCodec(), getUrl(), NettyClient.this);
                                 NettyTransportDecoder decoder = new NettyTransportDecoder(getCodec(), getUrl(), NettyClient.this);
                                 ChannelPipeline channelPipeline = ch.pipeline();
                                 channelPipeline.addLast("decoder", decoder);
                                 channelPipeline.addLast("encoder", encoder);
+                                channelPipeline.addLast("idle", new NettyIdleHandler(NettyClient.this));
                                 channelPipeline.addLast("handler", new NettyHandler(getUrl(), NettyClient.this));
                              }
                  });
-        
     }
 
     protected void doConnect() throws Throwable {
         long start = System.currentTimeMillis();
-        ChannelFuture future = bootstrap.connect(getConnectAddress());
+        ChannelFuture future = bootstrap.connect(domainSocketAddress != null ? domainSocketAddress : getConnectAddress());
         try{
             boolean ret = future.awaitUninterruptibly(getConnectTimeout(), TimeUnit.MILLISECONDS);
             
@@ -88,14 +108,10 @@ public class NettyClient extends AbstractClient {
                     // 关闭旧的连接
                     Channel oldChannel = NettyClient.this.channel; // copy reference
                     if (oldChannel != null) {
-                        try {
-                            if (logger.isInfoEnabled()) {
-                                logger.info("Close old Netty channel " + oldChannel + " on create new Netty channel " + newChannel);
-                            }
-                            oldChannel.close().syncUninterruptibly();
-                        } finally {
-                            NettyChannel.removeChannelIfDisconnected(oldChannel);
+                        if (logger.isInfoEnabled()) {
+                            logger.info("Close old Netty channel " + oldChannel + " on create new Netty channel " + newChannel);
                         }
+                        oldChannel.close().syncUninterruptibly();
                     }
                 } finally {
                     if (NettyClient.this.isClosed()) {
@@ -106,9 +122,10 @@ public class NettyClient extends AbstractClient {
                             newChannel.close().syncUninterruptibly();
                         } finally {
                             NettyClient.this.channel = null;
-                            NettyChannel.removeChannelIfDisconnected(newChannel);
+                            NettyClient.this.nettyChannel = null;
                         }
                     } else {
+                        NettyClient.this.nettyChannel = NettyChannel.getOrAddChannel(newChannel, getUrl(), this);
                         NettyClient.this.channel = newChannel;
                     }
                 }
@@ -131,11 +148,7 @@ public class NettyClient extends AbstractClient {
 
     @Override
     protected void doDisConnect() throws Throwable {
-        try {
-            NettyChannel.removeChannelIfDisconnected(channel);
-        } catch (Throwable t) {
-            logger.warn(t.getMessage());
-        }
+        // NettyChannel随netty channel的attribute释放, 无需清理
     }
     
     @Override
@@ -145,8 +158,11 @@ public class NettyClient extends AbstractClient {
 
     @Override
     protected com.sogou.map.kubbo.remote.Channel getChannel() {
-        Channel c = channel;
-        return NettyChannel.getOrAddChannel(c, getUrl(), this);
+        NettyChannel c = nettyChannel;
+        if (c == null) {
+            return NettyChannel.getOrAddChannel(channel, getUrl(), this);
+        }
+        return c;
     }
 
 }
\ No newline at end of file
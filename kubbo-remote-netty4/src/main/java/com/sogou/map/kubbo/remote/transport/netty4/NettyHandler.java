@@ -1,12 +1,10 @@
 package com.sogou.map.kubbo.remote.transport.netty4;
 
-import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import com.sogou.map.kubbo.common.URL;
-import com.sogou.map.kubbo.common.util.NetUtils;
 import com.sogou.map.kubbo.remote.Channel;
 import com.sogou.map.kubbo.remote.ChannelHandler;
 
@@ -21,24 +19,33 @@ import io.netty.channel.ChannelPromise;
  * 
  * @author liufuliang
  */
-@io.netty.channel.ChannelHandler.Sharable
 public class NettyHandler extends ChannelHandlerAdapter implements ChannelOutboundHandler, ChannelInboundHandler {
 
-    private final Map<String, Channel> channels = new ConcurrentHashMap<String, Channel>(); // <ip:port, channel>
+    private final Map<String, Channel> channels; // <ip:port, channel>
     
     private final URL url;
     
     private final ChannelHandler handler;
 
+    private NettyChannel channel;
+
     public NettyHandler(URL url, ChannelHandler handler){
+        this(url, handler, new ConcurrentHashMap<String, Channel>());
+    }
+
+    public NettyHandler(URL url, ChannelHandler handler, Map<String, Channel> channels){
         if (url == null) {
             throw new IllegalArgumentException("url == NULL");
         }
         if (handler == null) {
             throw new IllegalArgumentException("handler == NULL");
         }
+        if (channels == null) {
+            throw new IllegalArgumentException("channels == NULL");
+        }
         this.url = url;
         this.handler = handler;
+        this.channels = channels;
     }
 
     public Map<String, Channel> getChannels() {
@@ -62,14 +69,10 @@ public class NettyHandler extends ChannelHandlerAdapter implements ChannelOutbou
     
     @Override
     public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
-        ctx.writeAndFlush(msg, promise);
+        ctx.write(msg, promise);
         
-        NettyChannel channel = NettyChannel.getOrAddChannel(ctx.channel(), url, handler);
-        try {
-            handler.onSent(channel, msg);
-        } finally {
-            NettyChannel.removeChannelIfDisconnected(ctx.channel());
-        }
+        NettyChannel channel = channel(ctx);
+        handler.onSent(channel, msg);
     }
     
     @Override
@@ -90,47 +93,32 @@ public class NettyHandler extends ChannelHandlerAdapter implements ChannelOutbou
     
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
-        NettyChannel channel = NettyChannel.getOrAddChannel(ctx.channel(), url, handler);
-        try {
-            if (channel != null) {
-                channels.put(NetUtils.toAddressString((InetSocketAddress) ctx.channel().remoteAddress()), channel);
-            }
-            handler.onConnected(channel);
-        } finally {
-            NettyChannel.removeChannelIfDisconnected(ctx.channel());
+        NettyChannel channel = channel(ctx);
+        if (channel != null) {
+            channels.put(NettyChannel.addressKey(ctx.channel()), channel);
         }
+        handler.onConnected(channel);
     }
 
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
-        NettyChannel channel = NettyChannel.getOrAddChannel(ctx.channel(), url, handler);
-        try {
-            channels.remove(NetUtils.toAddressString((InetSocketAddress) ctx.channel().remoteAddress()));
-            handler.onDisconnected(channel);
-        } finally {
-            NettyChannel.removeChannelIfDisconnected(ctx.channel());
-        }
+        NettyChannel channel = channel(ctx);
+        channel.onWritabilityChanged();
+        channels.remove(NettyChannel.addressKey(ctx.channel()));
+        handler.onDisconnected(channel);
     }
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
 
-        NettyChannel channel = NettyChannel.getOrAddChannel(ctx.channel(), url, handler);
-        try {
-            handler.onReceived(channel, msg);
-        } finally {
-            NettyChannel.removeChannelIfDisconnected(ctx.channel());
-        }
+        NettyChannel channel = channel(ctx);
+        handler.onReceived(channel, msg);
     }
 
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
-        NettyChannel channel = NettyChannel.getOrAddChannel(ctx.channel(), url, handler);
-        try {
-            handler.onExceptonCaught(channel, cause);
-        } finally {
-            NettyChannel.removeChannelIfDisconnected(ctx.channel());
-        }
+        NettyChannel channel = channel(ctx);
+        handler.onExceptonCaught(channel, cause);
     }
 
     @Override
@@ -155,6 +143,8 @@ public class NettyHandler extends ChannelHandlerAdapter implements ChannelOutbou
 
     @Override
     public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        NettyChannel channel = channel(ctx);
+        channel.onWritabilityChanged();
         ctx.fireChannelWritabilityChanged();
     }
 
@@ -163,4 +153,14 @@ public class NettyHandler extends ChannelHandlerAdapter implements ChannelOutbou
         ctx.flush();
     }
 
-}
\ No newline at end of file
+    // 每个netty channel独立的handler实例, 首次使用时绑定, 之后无需查找
+    private NettyChannel channel(ChannelHandlerContext ctx) {
+        NettyChannel ch = channel;
+        if (ch == null) {
+            ch = NettyChannel.getOrAddChannel(ctx.channel(), url, handler);
+            channel = ch;
+        }
+        return ch;
+    }
+
+}
@@ -0,0 +1,143 @@
+package com.sogou.map.kubbo.remote.transport.netty4;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.sogou.map.kubbo.common.Constants;
+import com.sogou.map.kubbo.common.URL;
+import com.sogou.map.kubbo.common.Version;
+import com.sogou.map.kubbo.common.logger.Logger;
+import com.sogou.map.kubbo.common.logger.LoggerFactory;
+import com.sogou.map.kubbo.remote.Endpoint;
+import com.sogou.map.kubbo.remote.session.Request;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * 空闲检测, 替代定时扫描所有连接的心跳任务.
+ * 读写时仅设置标记, 由所在event loop每个心跳周期检查一次:
+ * 一个周期内没有读或写则发送心跳, 超过heartbeat.timeout没有读则关闭连接(客户端随后由重连任务重连).
+ * 每个netty channel独立的实例, 所有字段只在event loop内访问.
+ *
+ * @author liufuliang
+ */
+public class NettyIdleHandler extends ChannelDuplexHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(NettyIdleHandler.class);
+
+    private final Endpoint endpoint; // 每次检查时读取url, 支持server reset
+
+    private boolean reading;
+
+    private boolean writing;
+
+    private long lastReadTime;
+
+    private long lastWriteTime;
+
+    private ScheduledFuture<?> checkFuture;
+
+    public NettyIdleHandler(Endpoint endpoint) {
+        if (endpoint == null) {
+            throw new IllegalArgumentException("endpoint == NULL");
+        }
+        this.endpoint = endpoint;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        lastReadTime = lastWriteTime = System.currentTimeMillis();
+        schedule(ctx);
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        cancel();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        cancel();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        reading = true;
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        writing = true;
+        ctx.write(msg, promise);
+    }
+
+    private void schedule(final ChannelHandlerContext ctx) {
+        int heartbeat = endpoint.getUrl().getParameter(Constants.HEARTBEAT_KEY, 0);
+        if (heartbeat <= 0 || !ctx.channel().isActive()) {
+            return;
+        }
+        checkFuture = ctx.executor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                check(ctx);
+            }
+        }, heartbeat, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancel() {
+        if (checkFuture != null) {
+            checkFuture.cancel(false);
+            checkFuture = null;
+        }
+    }
+
+    private void check(ChannelHandlerContext ctx) {
+        checkFuture = null;
+        if (!ctx.channel().isActive()) {
+            return;
+        }
+        URL url = endpoint.getUrl();
+        int heartbeat = url.getParameter(Constants.HEARTBEAT_KEY, 0);
+        if (heartbeat <= 0) {
+            return;
+        }
+        int heartbeatTimeout = url.getParameter(Constants.HEARTBEAT_TIMEOUT_KEY, heartbeat * 3);
+
+        long now = System.currentTimeMillis();
+        if (reading) {
+            reading = false;
+            lastReadTime = now;
+        }
+        if (writing) {
+            writing = false;
+            lastWriteTime = now;
+        }
+        try {
+            if (now - lastReadTime > heartbeatTimeout) {
+                logger.warn("Close channel " + ctx.channel() + ", because heartbeat timed out with " + heartbeatTimeout + "ms");
+                ctx.close();
+                return;
+            }
+            if (now - lastReadTime >= heartbeat || now - lastWriteTime >= heartbeat) {
+                Request req = new Request();
+                req.setVersion(Version.getVersion());
+                req.setTwoWay(true);
+                req.setEvent(Request.EVENT_HEARTBEAT);
+                ctx.writeAndFlush(req);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Heartbeat to remote " + ctx.channel().remoteAddress()
+                            + ", because the channel has no data-transmission in " + heartbeat + "ms");
+                }
+            }
+        } catch (Throwable t) {
+            logger.warn("Exception when heartbeat to remote " + ctx.channel().remoteAddress(), t);
+        }
+        schedule(ctx);
+    }
+
+}
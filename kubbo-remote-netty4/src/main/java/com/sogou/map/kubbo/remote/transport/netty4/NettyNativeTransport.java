@@ -0,0 +1,148 @@
+package com.sogou.map.kubbo.remote.transport.netty4;
+
+import java.io.File;
+import java.util.concurrent.ThreadFactory;
+
+import com.sogou.map.kubbo.common.Constants;
+import com.sogou.map.kubbo.common.URL;
+import com.sogou.map.kubbo.common.logger.Logger;
+import com.sogou.map.kubbo.common.logger.LoggerFactory;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
+
+/**
+ * 原生传输(epoll)选择, 通过transport.native=epoll开启.
+ * 原生库不可用时(非linux, 缺少so)自动回退到NIO.
+ * unix domain socket(unix.socket=unix:///path)同样依赖epoll, 不可用时回退到TCP.
+ *
+ * @author liufuliang
+ */
+final class NettyNativeTransport {
+
+    private static final Logger logger = LoggerFactory.getLogger(NettyNativeTransport.class);
+
+    private NettyNativeTransport() {
+    }
+
+    public static boolean isEpoll(URL url) {
+        String transport = url.getParameter(Constants.TRANSPORT_NATIVE_KEY, Constants.DEFAULT_TRANSPORT_NATIVE);
+        if (!Constants.TRANSPORT_NATIVE_EPOLL.equalsIgnoreCase(transport)) {
+            return false;
+        }
+        if (Epoll.isAvailable()) {
+            return true;
+        }
+        logger.warn("Native epoll transport unavailable, fallback to NIO. url: " + url, Epoll.unavailabilityCause());
+        return false;
+    }
+
+    public static EventLoopGroup newEventLoopGroup(boolean epoll, int threads, ThreadFactory threadFactory) {
+        if (epoll) {
+            return new EpollEventLoopGroup(threads, threadFactory);
+        }
+        return new NioEventLoopGroup(threads, threadFactory);
+    }
+
+    public static void setIoRatio(EventLoopGroup group, int ioRatio) {
+        if (group instanceof EpollEventLoopGroup) {
+            ((EpollEventLoopGroup) group).setIoRatio(ioRatio);
+        } else if (group instanceof NioEventLoopGroup) {
+            ((NioEventLoopGroup) group).setIoRatio(ioRatio);
+        }
+    }
+
+    public static Class<? extends ServerChannel> serverChannelClass(boolean epoll) {
+        return epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    public static Class<? extends io.netty.channel.Channel> channelClass(boolean epoll) {
+        return epoll ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    /**
+     * unix.socket参数指定的socket文件路径, 支持unix:///path和/path两种形式, 未配置时返回null
+     */
+    public static String domainSocketPath(URL url) {
+        String path = url.getParameter(Constants.UNIX_SOCKET_KEY);
+        if (path == null || path.length() == 0) {
+            return null;
+        }
+        if (path.startsWith(Constants.UNIX_SOCKET_PREFIX)) {
+            path = path.substring(Constants.UNIX_SOCKET_PREFIX.length());
+        }
+        return path.length() == 0 ? null : path;
+    }
+
+    public static boolean isDomainSocketAvailable(URL url) {
+        if (Epoll.isAvailable()) {
+            return true;
+        }
+        logger.warn("Unix domain socket requires native epoll transport, fallback to TCP. url: " + url, Epoll.unavailabilityCause());
+        return false;
+    }
+
+    /**
+     * 客户端: 配置了unix.socket, epoll可用且socket文件存在时使用domain socket
+     */
+    public static DomainSocketAddress domainSocketAddress(URL url) {
+        String path = domainSocketPath(url);
+        if (path == null) {
+            return null;
+        }
+        if (!new File(path).exists()) {
+            logger.info("Unix domain socket " + path + " not exists, use TCP instead. url: " + url);
+            return null;
+        }
+        if (!isDomainSocketAvailable(url)) {
+            return null;
+        }
+        return new DomainSocketAddress(path);
+    }
+
+    public static Class<? extends ServerChannel> serverDomainChannelClass() {
+        return EpollServerDomainSocketChannel.class;
+    }
+
+    public static Class<? extends io.netty.channel.Channel> domainChannelClass() {
+        return EpollDomainSocketChannel.class;
+    }
+
+    /**
+     * 边缘触发, SO_REUSEPORT, 子连接TCP_QUICKACK
+     */
+    public static void configure(ServerBootstrap bootstrap, boolean epoll) {
+        if (!epoll) {
+            return;
+        }
+        bootstrap.option(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED)
+                 .option(EpollChannelOption.SO_REUSEPORT, true)
+                 .childOption(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED)
+                 .childOption(EpollChannelOption.TCP_QUICKACK, true);
+    }
+
+    /**
+     * 边缘触发, TCP_QUICKACK
+     */
+    public static void configure(Bootstrap bootstrap, boolean epoll) {
+        if (!epoll) {
+            return;
+        }
+        bootstrap.option(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED)
+                 .option(EpollChannelOption.TCP_QUICKACK, true);
+    }
+}
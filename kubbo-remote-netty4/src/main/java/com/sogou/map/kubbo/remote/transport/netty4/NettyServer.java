@@ -10,17 +10,21 @@ import com.sogou.map.kubbo.remote.Channel;
 import com.sogou.map.kubbo.remote.ChannelHandler;
 import com.sogou.map.kubbo.remote.RemotingException;
 import com.sogou.map.kubbo.remote.transport.AbstractServer;
+import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.unix.DomainSocketAddress;
 import io.netty.util.internal.SystemPropertyUtil;
 
+import java.io.File;
 import java.net.InetSocketAddress;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * NettyServer
@@ -38,6 +42,14 @@ public class NettyServer extends AbstractServer {
     private EventLoopGroup bossGroup;
 
     private EventLoopGroup workerGroup;    
+
+    private io.netty.channel.Channel domainServerChannel;
+
+    private EventLoopGroup domainBossGroup;
+
+    private EventLoopGroup domainWorkerGroup; // 仅在TCP未使用epoll时单独创建
+
+    private String domainSocketPath;
     
     public NettyServer(URL url, ChannelHandler handler) throws RemotingException{
         super(url, wrapChannelHandler(url, handler));
@@ -57,28 +69,23 @@ public class NettyServer extends AbstractServer {
     protected void start() throws Throwable {
         NettyLoggerAdapter.setNettyLoggerFactory();
         
-        final NettyHandler nettyHandler = new NettyHandler(getUrl(), NettyServer.this);
-        channels = nettyHandler.getChannels();
+        channels = new ConcurrentHashMap<String, Channel>();
 
-        bossGroup = new NioEventLoopGroup(1, new NamedThreadFactory("NettyServerAcceptor", true));
-        workerGroup = new NioEventLoopGroup(getUrl().getPositiveParameter(Constants.IO_THREADS_KEY, DEFAULT_EVENT_LOOP_THREADS), new NamedThreadFactory("NettyServerNioEventLoop", true));
-        ((NioEventLoopGroup)workerGroup).setIoRatio(SystemPropertyUtil.getInt("kubbo.io.netty.ioratio", 50));
+        boolean epoll = NettyNativeTransport.isEpoll(getUrl());
+        bossGroup = NettyNativeTransport.newEventLoopGroup(epoll, 1, new NamedThreadFactory("NettyServerAcceptor", true));
+        workerGroup = NettyNativeTransport.newEventLoopGroup(epoll, getUrl().getPositiveParameter(Constants.IO_THREADS_KEY, DEFAULT_EVENT_LOOP_THREADS), 
+                new NamedThreadFactory(epoll ? "NettyServerEpollEventLoop" : "NettyServerNioEventLoop", true));
+        NettyNativeTransport.setIoRatio(workerGroup, SystemPropertyUtil.getInt("kubbo.io.netty.ioratio", 50));
         
         ServerBootstrap bootstrap = new ServerBootstrap()
                 .group(bossGroup, workerGroup)
-                .channel(NioServerSocketChannel.class)
+                .channel(NettyNativeTransport.serverChannelClass(epoll))
                 .option(ChannelOption.SO_BACKLOG, 100)
                 .childOption(ChannelOption.TCP_NODELAY, true)
-                .childHandler(new ChannelInitializer<SocketChannel>() {
-                        public void initChannel(SocketChannel ch) {			                
-                            NettyTransportEncoder encoder = new NettyTransportEncoder(getCodec(), getUrl(), NettyServer.this);
-                            NettyTransportDecoder decoder = new NettyTransportDecoder(getCodec(), getUrl(), NettyServer.this);
-                            ChannelPipeline channelPipeline = ch.pipeline();
-                            channelPipeline.addLast("decoder", decoder);
-                            channelPipeline.addLast("encoder", encoder);
-                            channelPipeline.addLast("handler", nettyHandler);
-                        }
-        });
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, NettyChannel.writeBufferWaterMark(getUrl()))
+                .childHandler(newChannelInitializer());
+        NettyNativeTransport.configure(bootstrap, epoll);
 
         // bind
         ChannelFuture channelFuture = bootstrap.bind(getBindAddress());
@@ -88,6 +95,85 @@ public class NettyServer extends AbstractServer {
         } else{
             throw channelFuture.cause();
         }
+
+        // 同时绑定unix domain socket, 供同机(同pod)的消费者使用
+        String path = NettyNativeTransport.domainSocketPath(getUrl());
+        if (path != null && NettyNativeTransport.isDomainSocketAvailable(getUrl())) {
+            try {
+                bindDomainSocket(path);
+            } catch (Throwable t) {
+                // 释放已经绑定的端口和线程
+                stop();
+                throw t;
+            }
+        }
+    }
+
+    private ChannelInitializer<io.netty.channel.Channel> newChannelInitializer() {
+        return new ChannelInitializer<io.netty.channel.Channel>() {
+            public void initChannel(io.netty.channel.Channel ch) {
+                NettyTransportEncoder encoder = new NettyTransportEncoder(getCodec(), getUrl(), NettyServer.this);
+                NettyTransportDecoder decoder = new NettyTransportDecoder(getCodec(), getUrl(), NettyServer.this);
+                ChannelPipeline channelPipeline = ch.pipeline();
+                channelPipeline.addLast("decoder", decoder);
+                channelPipeline.addLast("encoder", encoder);
+                channelPipeline.addLast("idle", new NettyIdleHandler(NettyServer.this));
+                channelPipeline.addLast("handler", new NettyHandler(getUrl(), NettyServer.this, channels));
+            }
+        };
+    }
+
+    private void bindDomainSocket(String path) throws Throwable {
+        domainBossGroup = NettyNativeTransport.newEventLoopGroup(true, 1, new NamedThreadFactory("NettyServerDomainAcceptor", true));
+        File file = new File(path);
+        if (file.exists()) {
+            // 只清理上次异常退出残留的socket文件, 不能接管仍在监听的服务
+            if (isListening(path)) {
+                throw new RemotingException(getLocalAddress(), null, "Unix domain socket " + path + " is in use by another server");
+            }
+            if (!file.delete()) {
+                throw new RemotingException(getLocalAddress(), null, "Failed to delete stale unix domain socket " + path);
+            }
+        }
+        EventLoopGroup worker = workerGroup;
+        if (!(worker instanceof EpollEventLoopGroup)) {
+            domainWorkerGroup = NettyNativeTransport.newEventLoopGroup(true, getUrl().getPositiveParameter(Constants.IO_THREADS_KEY, DEFAULT_EVENT_LOOP_THREADS), 
+                    new NamedThreadFactory("NettyServerDomainEventLoop", true));
+            worker = domainWorkerGroup;
+        }
+        ServerBootstrap bootstrap = new ServerBootstrap()
+                .group(domainBossGroup, worker)
+                .channel(NettyNativeTransport.serverDomainChannelClass())
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, NettyChannel.writeBufferWaterMark(getUrl()))
+                .childHandler(newChannelInitializer());
+        ChannelFuture channelFuture = bootstrap.bind(new DomainSocketAddress(path));
+        channelFuture.awaitUninterruptibly();
+        if (channelFuture.isSuccess()) {
+            domainServerChannel = channelFuture.channel();
+            domainSocketPath = path;
+            logger.info("Bind unix domain socket " + path + " for " + getUrl());
+        } else {
+            throw channelFuture.cause();
+        }
+    }
+
+    /*
+     * 尝试连接已存在的socket文件, 能连上说明有服务在监听
+     */
+    private boolean isListening(String path) {
+        Bootstrap bootstrap = new Bootstrap()
+                .group(domainBossGroup)
+                .channel(NettyNativeTransport.domainChannelClass())
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, getUrl().getPositiveParameter(Constants.CONNECT_TIMEOUT_KEY, Constants.DEFAULT_CONNECT_TIMEOUT))
+                .handler(new ChannelInboundHandlerAdapter());
+        ChannelFuture future = bootstrap.connect(new DomainSocketAddress(path));
+        future.awaitUninterruptibly();
+        if (future.isSuccess()) {
+            future.channel().close();
+            return true;
+        }
+        return false;
     }
 
     @Override
@@ -100,6 +186,16 @@ public class NettyServer extends AbstractServer {
         } catch (Throwable e) {
             logger.warn(e.getMessage(), e);
         }
+        try {
+            if (domainServerChannel != null) {
+                domainServerChannel.close().syncUninterruptibly();
+            }
+            if (domainSocketPath != null) {
+                new File(domainSocketPath).delete();
+            }
+        } catch (Throwable e) {
+            logger.warn(e.getMessage(), e);
+        }
         try {
             Collection<com.sogou.map.kubbo.remote.Channel> channels = getChannels();
             if (channels != null && channels.size() > 0) {
@@ -123,6 +219,12 @@ public class NettyServer extends AbstractServer {
             if (workerGroup != null) {
                 workerGroup.shutdownGracefully();
             }
+            if (domainBossGroup != null) {
+                domainBossGroup.shutdownGracefully();
+            }
+            if (domainWorkerGroup != null) {
+                domainWorkerGroup.shutdownGracefully();
+            }
         } catch (Throwable e) {
             logger.warn(e.getMessage(), e);
         }
@@ -139,11 +241,12 @@ public class NettyServer extends AbstractServer {
     @Override
     public Collection<Channel> getChannels() {
         Collection<Channel> chs = new HashSet<Channel>();
-        for (Channel channel : this.channels.values()) {
+        for (Iterator<Channel> it = this.channels.values().iterator(); it.hasNext(); ) {
+            Channel channel = it.next();
             if (channel.isConnected()) {
                 chs.add(channel);
             } else {
-                channels.remove(NetUtils.toAddressString(channel.getRemoteAddress()));
+                it.remove();
             }
         }
         return chs;
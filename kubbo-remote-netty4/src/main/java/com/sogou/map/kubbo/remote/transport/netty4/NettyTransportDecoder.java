@@ -1,112 +1,140 @@
 /**
- * 
+ *
  */
 package com.sogou.map.kubbo.remote.transport.netty4;
 
 import java.io.IOException;
 
-import com.sogou.map.kubbo.common.Constants;
 import com.sogou.map.kubbo.common.URL;
 import com.sogou.map.kubbo.remote.ChannelHandler;
 import com.sogou.map.kubbo.remote.Codec;
 import com.sogou.map.kubbo.remote.buffer.ChannelBuffer;
-import com.sogou.map.kubbo.remote.buffer.ChannelBuffers;
-import com.sogou.map.kubbo.remote.buffer.DynamicChannelBuffer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 
 /**
+ * 直接在netty ByteBuf上解码, 不完整的帧以组合缓冲(CompositeByteBuf)累积, 避免拷贝.
+ *
  * @author liufuliang
  *
  */
-public class NettyTransportDecoder extends io.netty.channel.SimpleChannelInboundHandler<io.netty.buffer.ByteBuf> {
+public class NettyTransportDecoder extends io.netty.channel.ChannelInboundHandlerAdapter {
+    private static final int MAX_CUMULATION_COMPONENTS = 16;
+
     private final Codec codec;
-    
+
     private final URL url;
-    
-    private final int bufferSize;
-    
-    private ChannelBuffer buffer = ChannelBuffers.EMPTY_BUFFER;
-    
+
     private final ChannelHandler handler;
 
+    private CompositeByteBuf cumulation;
+
+    private NettyChannel channel;
+
     public NettyTransportDecoder(Codec codec, URL url, ChannelHandler handler) {
         this.codec = codec;
         this.url = url;
         this.handler = handler;
-        int size = url.getPositiveParameter(Constants.DECODE_BUFFER_KEY, Constants.DEFAULT_DECODE_BUFFER_SIZE);
-        this.bufferSize = size >= Constants.MIN_BUFFER_SIZE && size <= Constants.MAX_BUFFER_SIZE ? 
-                size : Constants.DEFAULT_DECODE_BUFFER_SIZE;
     }
-    
+
 
     @Override
-    public void channelRead0(io.netty.channel.ChannelHandlerContext ctx, io.netty.buffer.ByteBuf input) throws Exception {
-        int readable = input.readableBytes();
-        if (readable <= 0) {
+    public void channelRead(io.netty.channel.ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof ByteBuf)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        ByteBuf input = (ByteBuf) msg;
+        if (!input.isReadable()) {
+            input.release();
             return;
         }
 
-        ChannelBuffer message;
-        if (buffer.readable()) {
-            if (buffer instanceof DynamicChannelBuffer) {
-                buffer.writeBytes(input.nioBuffer());
-                message = buffer;
-            } else {
-                int size = buffer.readableBytes() + input.readableBytes();
-                message = ChannelBuffers.dynamicBuffer(size > bufferSize ? size : bufferSize);
-                message.writeBytes(buffer, buffer.readableBytes());
-                message.writeBytes(input.nioBuffer());
-            }
+        ByteBuf data;
+        if (cumulation != null) {
+            cumulation.addComponent(true, input);
+            data = cumulation;
         } else {
-            message = ChannelBuffers.wrappedBuffer(input.nioBuffer());
+            data = input;
         }
+        ChannelBuffer message = new NettyBackedChannelBuffer(data);
 
-        NettyChannel channel = NettyChannel.getOrAddChannel(ctx.channel(), url, handler);
-        Object msg;
+        NettyChannel channel = channel(ctx);
+        Object decoded;
         int saveReaderIndex;
+        boolean reset = false;
 
         // decode object.
         try {
             do {
                 saveReaderIndex = message.readerIndex();
                 try {
-                    msg = codec.decode(channel, message);
+                    decoded = codec.decode(channel, message);
                 } catch (IOException e) {
-                    buffer = ChannelBuffers.EMPTY_BUFFER;
+                    reset = true;
                     throw e;
                 }
-                if (msg == Codec.DecodeResult.NEED_MORE_INPUT) {
+                if (decoded == Codec.DecodeResult.NEED_MORE_INPUT) {
                     message.readerIndex(saveReaderIndex);
                     break;
                 } else {
                     if (saveReaderIndex == message.readerIndex()) {
-                        buffer = ChannelBuffers.EMPTY_BUFFER;
+                        reset = true;
                         throw new IOException("Decode without read data.");
                     }
-                    if (msg != null) {
-                        ctx.fireChannelRead(msg);
+                    if (decoded != null) {
+                        ctx.fireChannelRead(decoded);
                     }
                 }
             } while (message.readable());
         } finally {
-            if (message.readable()) {
-                message.discardReadBytes();
-                if(message.isDirect()){
-                    int size = message.readableBytes();
-                    buffer = ChannelBuffers.dynamicBuffer(size > bufferSize ? size : bufferSize);
-                    buffer.writeBytes(message, message.readableBytes());
-                } else{
-                    buffer = message;
+            if (!reset && data.isReadable()) {
+                if (cumulation == null) {
+                    // 保留剩余的半帧, 不拷贝
+                    cumulation = ctx.alloc().compositeBuffer(MAX_CUMULATION_COMPONENTS);
+                    cumulation.addComponent(true, input);
+                } else {
+                    cumulation.discardReadComponents();
                 }
             } else {
-                buffer = ChannelBuffers.EMPTY_BUFFER;
+                data.release();
+                cumulation = null;
             }
-            NettyChannel.removeChannelIfDisconnected(ctx.channel());
         }
     }
 
+    @Override
+    public void channelInactive(io.netty.channel.ChannelHandlerContext ctx) throws Exception {
+        releaseCumulation();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(io.netty.channel.ChannelHandlerContext ctx) throws Exception {
+        releaseCumulation();
+    }
+
     @Override
     public void exceptionCaught(io.netty.channel.ChannelHandlerContext ctx, Throwable cause) throws Exception {
         ctx.fireExceptionCaught(cause);
     }
 
+    private void releaseCumulation() {
+        if (cumulation != null) {
+            cumulation.release();
+            cumulation = null;
+        }
+    }
+
+    // 解码器按连接创建, 读到第一个消息时绑定
+    private NettyChannel channel(io.netty.channel.ChannelHandlerContext ctx) {
+        NettyChannel ch = channel;
+        if (ch == null) {
+            ch = NettyChannel.getOrAddChannel(ctx.channel(), url, handler);
+            channel = ch;
+        }
+        return ch;
+    }
+
 }
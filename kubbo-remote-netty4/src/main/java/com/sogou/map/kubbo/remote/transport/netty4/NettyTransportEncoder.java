@@ -3,22 +3,21 @@
  */
 package com.sogou.map.kubbo.remote.transport.netty4;
 
-import java.util.List;
-
 import com.sogou.map.kubbo.common.Constants;
 import com.sogou.map.kubbo.common.URL;
 import com.sogou.map.kubbo.remote.ChannelHandler;
 import com.sogou.map.kubbo.remote.Codec;
-import com.sogou.map.kubbo.remote.buffer.ChannelBuffer;
-import com.sogou.map.kubbo.remote.buffer.ChannelBuffers;
+
+import io.netty.buffer.ByteBuf;
 
 /**
+ * 直接编码到池化的direct ByteBuf, 无中间堆内存拷贝
+ * 
  * @author liufuliang
  *
  */
 
-@io.netty.channel.ChannelHandler.Sharable
-public class NettyTransportEncoder extends io.netty.handler.codec.MessageToMessageEncoder<Object> {
+public class NettyTransportEncoder extends io.netty.handler.codec.MessageToByteEncoder<Object> {
     private final Codec codec;
     
     private final URL url;
@@ -27,7 +26,10 @@ public class NettyTransportEncoder extends io.netty.handler.codec.MessageToMessa
     
     private final ChannelHandler handler;
 
+    private NettyChannel channel;
+
     public NettyTransportEncoder(Codec codec, URL url, ChannelHandler handler) {
+        super(Object.class, true);
         this.codec = codec;
         this.url = url;
         this.handler = handler;
@@ -37,26 +39,31 @@ public class NettyTransportEncoder extends io.netty.handler.codec.MessageToMessa
     }
     
     @Override
-    protected void encode(io.netty.channel.ChannelHandlerContext ctx, Object msg, List<Object> out) throws Exception {
-        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(this.bufferSize);
-        NettyChannel channel = NettyChannel.getOrAddChannel(ctx.channel(), url, handler);
-               
-        try {
-            codec.encode(channel, buffer, msg);
-        } finally {
-            NettyChannel.removeChannelIfDisconnected(ctx.channel());
-        }
-
-        out.add(io.netty.buffer.Unpooled.wrappedBuffer(buffer.toByteBuffer()));
+    protected ByteBuf allocateBuffer(io.netty.channel.ChannelHandlerContext ctx, Object msg, boolean preferDirect) throws Exception {
+        return preferDirect ? ctx.alloc().ioBuffer(bufferSize) : ctx.alloc().heapBuffer(bufferSize);
+    }
+    
+    @Override
+    protected void encode(io.netty.channel.ChannelHandlerContext ctx, Object msg, ByteBuf out) throws Exception {
+        NettyChannel channel = channel(ctx);
+        codec.encode(channel, new NettyBackedChannelBuffer(out), msg);
+        NettyTransportStatistics.encoded(bufferSize, out.capacity(), out.readableBytes());
     }
     
     @Override
     public void exceptionCaught(io.netty.channel.ChannelHandlerContext ctx, Throwable cause) throws Exception {
-        NettyChannel channel = NettyChannel.getOrAddChannel(ctx.channel(), url, handler);
-        try {
-            handler.onExceptonCaught(channel, cause);
-        } finally {
-            NettyChannel.removeChannelIfDisconnected(ctx.channel());
+        NettyChannel channel = channel(ctx);
+        handler.onExceptonCaught(channel, cause);
+    }
+
+    // 编码器按连接创建, 第一次写出时绑定
+    private NettyChannel channel(io.netty.channel.ChannelHandlerContext ctx) {
+        NettyChannel ch = channel;
+        if (ch == null) {
+            ch = NettyChannel.getOrAddChannel(ctx.channel(), url, handler);
+            channel = ch;
         }
+        return ch;
     }
+
 }
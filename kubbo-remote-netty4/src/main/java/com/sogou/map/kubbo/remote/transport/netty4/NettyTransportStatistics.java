@@ -0,0 +1,147 @@
+package com.sogou.map.kubbo.remote.transport.netty4;
+
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sogou.map.kubbo.remote.ChannelDelegate;
+import com.sogou.map.kubbo.remote.ClientDelegate;
+import com.sogou.map.kubbo.remote.Endpoint;
+
+/**
+ * netty传输层统计(进程级)
+ *
+ * @author liufuliang
+ */
+public final class NettyTransportStatistics {
+
+    // 编码统计按线程(event loop)分别累加, 读取时求和, 每个消息的编码不再竞争全局的计数
+    private static final List<EncodeCounter> ENCODE_COUNTERS = new CopyOnWriteArrayList<EncodeCounter>();
+
+    private static final FastThreadLocal<EncodeCounter> ENCODE_COUNTER = new FastThreadLocal<EncodeCounter>() {
+        @Override
+        protected EncodeCounter initialValue() {
+            EncodeCounter counter = new EncodeCounter();
+            ENCODE_COUNTERS.add(counter);
+            return counter;
+        }
+    };
+
+    // channel变为不可写(超过高水位)的次数
+    private static final AtomicLong UNWRITABLE_EVENTS = new AtomicLong();
+
+    // 因不可写而阻塞等待的发送次数
+    private static final AtomicLong BACKPRESSURE_BLOCKED = new AtomicLong();
+
+    // 因不可写而失败的发送次数
+    private static final AtomicLong BACKPRESSURE_REJECTED = new AtomicLong();
+
+    private NettyTransportStatistics() {
+    }
+
+    static void unwritable() {
+        UNWRITABLE_EVENTS.incrementAndGet();
+    }
+
+    static void backpressureBlocked() {
+        BACKPRESSURE_BLOCKED.incrementAndGet();
+    }
+
+    static void backpressureRejected() {
+        BACKPRESSURE_REJECTED.incrementAndGet();
+    }
+
+    static void encoded(int initialCapacity, int capacity, int bytes) {
+        EncodeCounter counter = ENCODE_COUNTER.get();
+        counter.allocations++;
+        counter.bytes += bytes;
+        if (capacity > initialCapacity) {
+            counter.expansions++;
+        }
+    }
+
+    public static long getEncodeBufferAllocations() {
+        long sum = 0;
+        for (EncodeCounter counter : ENCODE_COUNTERS) {
+            sum += counter.allocations;
+        }
+        return sum;
+    }
+
+    public static long getEncodeBufferExpansions() {
+        long sum = 0;
+        for (EncodeCounter counter : ENCODE_COUNTERS) {
+            sum += counter.expansions;
+        }
+        return sum;
+    }
+
+    public static long getEncodedBytes() {
+        long sum = 0;
+        for (EncodeCounter counter : ENCODE_COUNTERS) {
+            sum += counter.bytes;
+        }
+        return sum;
+    }
+
+    public static long getUnwritableEvents() {
+        return UNWRITABLE_EVENTS.get();
+    }
+
+    public static long getBackpressureBlocked() {
+        return BACKPRESSURE_BLOCKED.get();
+    }
+
+    public static long getBackpressureRejected() {
+        return BACKPRESSURE_REJECTED.get();
+    }
+
+    /**
+     * 连接当前待发送的字节数(实时值)
+     *
+     * @param endpoint netty的channel, client或包装它们的session
+     * @return 不是netty的连接或未连接时返回-1
+     */
+    public static long getPendingOutboundBytes(Endpoint endpoint) {
+        Endpoint e = endpoint;
+        while (e != null) {
+            if (e instanceof NettyChannel) {
+                return ((NettyChannel) e).getPendingOutboundBytes();
+            } else if (e instanceof NettyClient) {
+                e = ((NettyClient) e).getChannel();
+            } else if (e instanceof ChannelDelegate) {
+                e = ((ChannelDelegate) e).getChannel();
+            } else if (e instanceof ClientDelegate) {
+                e = ((ClientDelegate) e).getClient();
+            } else {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    public static String report() {
+        return "encode.buffer.allocations=" + getEncodeBufferAllocations()
+                + ", encode.buffer.expansions=" + getEncodeBufferExpansions()
+                + ", encode.bytes=" + getEncodedBytes()
+                + ", unwritable.events=" + getUnwritableEvents()
+                + ", backpressure.blocked=" + getBackpressureBlocked()
+                + ", backpressure.rejected=" + getBackpressureRejected();
+    }
+
+    /*
+     * 单个线程的编码统计, 只由所属线程写入, volatile保证读取时可见
+     */
+    private static final class EncodeCounter {
+        // 编码缓冲分配次数
+        volatile long allocations;
+
+        // 编码缓冲扩容次数(编码结果超过初始容量)
+        volatile long expansions;
+
+        // 编码字节数
+        volatile long bytes;
+    }
+}
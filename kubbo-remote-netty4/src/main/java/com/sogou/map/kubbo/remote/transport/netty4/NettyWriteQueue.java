@@ -0,0 +1,83 @@
+package com.sogou.map.kubbo.remote.transport.netty4;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * 合并写: 非IO线程的写入先入队, 由event loop批量写出并合并flush,
+ * 降低小包场景下的write系统调用和线程切换.
+ *
+ * @author liufuliang
+ */
+final class NettyWriteQueue implements Runnable {
+
+    private final Channel channel;
+
+    private final int batch;
+
+    private final Queue<PendingWrite> queue = new ConcurrentLinkedQueue<PendingWrite>();
+
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    NettyWriteQueue(Channel channel, int batch) {
+        this.channel = channel;
+        this.batch = batch;
+    }
+
+    ChannelFuture write(Object message) {
+        if (channel.eventLoop().inEventLoop()) {
+            // 先写出已入队的消息, 保持顺序
+            drain();
+            return channel.writeAndFlush(message);
+        }
+        ChannelPromise promise = channel.newPromise();
+        queue.offer(new PendingWrite(message, promise));
+        if (scheduled.compareAndSet(false, true)) {
+            channel.eventLoop().execute(this);
+        }
+        return promise;
+    }
+
+    @Override
+    public void run() {
+        try {
+            drain();
+        } finally {
+            scheduled.set(false);
+            // 重置标记后可能有新的写入未被调度
+            if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+                channel.eventLoop().execute(this);
+            }
+        }
+    }
+
+    private void drain() {
+        int written = 0;
+        PendingWrite write;
+        while ((write = queue.poll()) != null) {
+            channel.write(write.message, write.promise);
+            if (++written == batch) {
+                channel.flush();
+                written = 0;
+            }
+        }
+        if (written > 0) {
+            channel.flush();
+        }
+    }
+
+    private static final class PendingWrite {
+        final Object message;
+        final ChannelPromise promise;
+
+        PendingWrite(Object message, ChannelPromise promise) {
+            this.message = message;
+            this.promise = promise;
+        }
+    }
+}
@@ -7,6 +7,7 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.sogou.map.kubbo.remote.session.SessionChannel;
 import com.sogou.map.kubbo.remote.session.SessionClient;
@@ -51,8 +52,99 @@ public class SessionLayersTest {
         
         client.close(3000);
         server.close(3000);
-        
+
     }
-    
+
+    @Test
+    public void testHeartbeat() throws Exception{
+        SessionServer server = SessionLayers.bind("kubbo://localhost:8081?transportlayer=netty4&heartbeat=100", new SessionHandlerAdapter(){
+            @Override
+            public Object reply(SessionChannel channel, Object request) throws RemotingException {
+                return "Hello";
+            }
+
+        });
+
+        SessionClient client = SessionLayers.connect("kubbo://localhost:8081?transportlayer=netty4&heartbeat=100&reconnect=false");
+
+        // 空闲超过heartbeat.timeout, 心跳保持连接
+        Thread.sleep(1000);
+        assertTrue(client.isConnected());
+        assertEquals("Hello", client.request(new Message()).get());
+
+        client.close(3000);
+        server.close(3000);
+
+    }
+
+    @Test
+    public void testFailFastOnDisconnect() throws Exception{
+        SessionServer server = SessionLayers.bind("kubbo://localhost:8082?transportlayer=netty4", new SessionHandlerAdapter(){
+            @Override
+            public Object reply(SessionChannel channel, Object request) throws RemotingException {
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                return "Hello";
+            }
+
+        });
+
+        SessionClient client = SessionLayers.connect("kubbo://localhost:8082?transportlayer=netty4&reconnect=false");
+        ResponseFuture future = client.request(new Message(), 10000);
+        Thread.sleep(100);
+
+        // 连接断开后未完成的请求立即失败, 不等待超时
+        long start = System.currentTimeMillis();
+        server.close();
+        try {
+            future.get();
+            fail();
+        } catch (TimeoutException e) {
+            fail();
+        } catch (RemotingException e) {
+            assertTrue(System.currentTimeMillis() - start < 2000);
+        }
+
+        client.close();
+    }
+
+    @Test
+    public void testCancelQueuedRequest() throws Exception{
+        final AtomicInteger handled = new AtomicInteger();
+        SessionServer server = SessionLayers.bind("kubbo://localhost:8083?transportlayer=netty4&corethreads=1&maxthreads=1&queues=10", new SessionHandlerAdapter(){
+            @Override
+            public Object reply(SessionChannel channel, Object request) throws RemotingException {
+                handled.incrementAndGet();
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                return "Hello";
+            }
+
+        });
+
+        SessionClient client = SessionLayers.connect("kubbo://localhost:8083?transportlayer=netty4");
+        ResponseFuture first = client.request(new Message(), 10000);
+        ResponseFuture second = client.request(new Message(), 10000);
+        Thread.sleep(100);
+
+        // 单个处理线程, 取消后排队中的请求不再执行
+        assertTrue(second.cancel());
+        assertFalse(second.cancel());
+        assertEquals("Hello", first.get());
+        // 已经响应的请求不能再取消
+        assertFalse(first.cancel());
+        Thread.sleep(500);
+        assertEquals(1, handled.get());
+
+        client.close();
+        server.close();
+    }
+
 
 }
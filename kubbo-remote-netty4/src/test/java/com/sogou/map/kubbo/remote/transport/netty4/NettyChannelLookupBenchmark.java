@@ -0,0 +1,117 @@
+/**
+ *
+ */
+package com.sogou.map.kubbo.remote.transport.netty4;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.sogou.map.kubbo.common.URL;
+import com.sogou.map.kubbo.remote.ChannelHandler;
+import com.sogou.map.kubbo.remote.transport.handler.NoOpChannelHandler;
+
+import io.netty.channel.Channel;
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * 每条消息查找NettyChannel的开销: 全局ConcurrentHashMap(旧) vs channel attribute vs handler内缓存(新)
+ *
+ * @author liufuliang
+ *
+ */
+public class NettyChannelLookupBenchmark {
+
+    private static final int CHANNELS = 1000;
+
+    private static final int ROUNDS = 10000;
+
+    private static final ChannelHandler HANDLER = new NoOpChannelHandler();
+
+    static final ConcurrentMap<Channel, NettyChannel> channelMap = new ConcurrentHashMap<Channel, NettyChannel>();
+
+    // 查找结果的hash之和, 输出到结果中, 避免查找被优化掉
+    static long sink = 0;
+
+    // 旧实现: 每次编解码/事件都查一次全局map, 结束后再检查一次是否需要移除
+    static NettyChannel mapLookup(Channel ch, URL url) {
+        NettyChannel channel = channelMap.get(ch);
+        if (channel == null) {
+            NettyChannel nc = NettyChannel.getOrAddChannel(ch, url, HANDLER);
+            channel = channelMap.putIfAbsent(ch, nc);
+            if (channel == null) {
+                channel = nc;
+            }
+        }
+        if (!ch.isActive()) {
+            channelMap.remove(ch);
+        }
+        return channel;
+    }
+
+    static long runMap(Channel[] channels, URL url) {
+        long start = System.nanoTime();
+        int hash = 0;
+        for (int r = 0; r < ROUNDS; ++r) {
+            for (Channel ch : channels) {
+                hash += mapLookup(ch, url).hashCode();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        sink += hash;
+        return elapsed;
+    }
+
+    static long runAttribute(Channel[] channels, URL url) {
+        long start = System.nanoTime();
+        int hash = 0;
+        for (int r = 0; r < ROUNDS; ++r) {
+            for (Channel ch : channels) {
+                hash += NettyChannel.getOrAddChannel(ch, url, HANDLER).hashCode();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        sink += hash;
+        return elapsed;
+    }
+
+    // 新实现: pipeline中的handler每个连接独立, 首次查找attribute后缓存在字段中
+    static long runCached(Channel[] channels, URL url) {
+        NettyChannel[] cached = new NettyChannel[channels.length];
+        long start = System.nanoTime();
+        int hash = 0;
+        for (int r = 0; r < ROUNDS; ++r) {
+            for (int i = 0; i < channels.length; ++i) {
+                NettyChannel channel = cached[i];
+                if (channel == null) {
+                    channel = NettyChannel.getOrAddChannel(channels[i], url, HANDLER);
+                    cached[i] = channel;
+                }
+                hash += channel.hashCode();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        sink += hash;
+        return elapsed;
+    }
+
+    /**
+     * @param args
+     */
+    public static void main(String[] args) {
+        URL url = URL.valueOf("kubbo://127.0.0.1:40660/bench");
+        Channel[] channels = new Channel[CHANNELS];
+        for (int i = 0; i < CHANNELS; ++i) {
+            channels[i] = new EmbeddedChannel(DefaultChannelId.newInstance());
+        }
+        long ops = (long) CHANNELS * ROUNDS;
+        for (int i = 0; i < 5; ++i) {
+            long map = runMap(channels, url);
+            long attribute = runAttribute(channels, url);
+            long cached = runCached(channels, url);
+            System.out.printf("round %d: global map %.2f ns/op, attribute %.2f ns/op, cached %.2f ns/op (sink %d)%n",
+                    i, (double) map / ops, (double) attribute / ops, (double) cached / ops, sink);
+        }
+    }
+
+}
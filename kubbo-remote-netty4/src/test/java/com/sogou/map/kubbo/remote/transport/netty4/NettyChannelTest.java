@@ -0,0 +1,206 @@
+/**
+ *
+ */
+package com.sogou.map.kubbo.remote.transport.netty4;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sogou.map.kubbo.common.Constants;
+import com.sogou.map.kubbo.common.URL;
+import com.sogou.map.kubbo.remote.RemotingException;
+import com.sogou.map.kubbo.remote.transport.handler.NoOpChannelHandler;
+
+/**
+ * @author liufuliang
+ *
+ */
+public class NettyChannelTest {
+
+    private static final int HIGH = 1024;
+
+    private static final URL URL_BASE = URL.valueOf("kubbo://127.0.0.1:40660/sample")
+            .addParameter(Constants.WRITE_BUFFER_HIGH_WATER_MARK_KEY, HIGH)
+            .addParameter(Constants.WRITE_BUFFER_LOW_WATER_MARK_KEY, HIGH / 2)
+            .addParameter(Constants.WRITE_COALESCE_KEY, false);
+
+    private EventLoopGroup group;
+
+    private Channel server;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        group = new DefaultEventLoopGroup(2);
+        server = new ServerBootstrap()
+                .group(group)
+                .channel(LocalServerChannel.class)
+                .childHandler(new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                        ReferenceCountUtil.release(msg);
+                    }
+                })
+                .bind(new LocalAddress("netty-channel-test")).sync().channel();
+    }
+
+    @After
+    public void tearDown() {
+        server.close().syncUninterruptibly();
+        group.shutdownGracefully(0, 0, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    /*
+     * 客户端连接, 写缓冲水位与url一致, 可写状态变化时通知NettyChannel
+     */
+    private Channel connect(final URL url) throws InterruptedException {
+        return new Bootstrap()
+                .group(group)
+                .channel(LocalChannel.class)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, NettyChannel.writeBufferWaterMark(url))
+                .handler(new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+                        NettyChannel.getOrAddChannel(ctx.channel(), url, new NoOpChannelHandler()).onWritabilityChanged();
+                        ctx.fireChannelWritabilityChanged();
+                    }
+                })
+                .connect(server.localAddress()).sync().channel();
+    }
+
+    /*
+     * 只写不flush, 待发送数据超过write.buffer.high, 连接变为不可写
+     */
+    private static void fill(final Channel ch, NettyChannel channel) throws Exception {
+        ch.eventLoop().submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                ch.write(Unpooled.wrappedBuffer(new byte[HIGH * 2]));
+                return null;
+            }
+        }).sync();
+        Assert.assertFalse(ch.isWritable());
+        Assert.assertTrue(channel.hasAttribute(Constants.CHANNEL_ATTRIBUTE_UNWRITABLE_KEY));
+        Assert.assertTrue(channel.getPendingOutboundBytes() > HIGH);
+    }
+
+    /*
+     * flush之后待发送数据清空, 连接恢复可写
+     */
+    private static void drain(final Channel ch) throws Exception {
+        ch.eventLoop().submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                ch.flush();
+                return null;
+            }
+        }).sync();
+        Assert.assertTrue(ch.isWritable());
+    }
+
+    @Test
+    public void testFailfast() throws Exception {
+        URL url = URL_BASE.addParameter(Constants.BACKPRESSURE_KEY, Constants.BACKPRESSURE_FAILFAST);
+        Channel ch = connect(url);
+        NettyChannel channel = NettyChannel.getOrAddChannel(ch, url, new NoOpChannelHandler());
+        channel.send(Unpooled.wrappedBuffer(new byte[16]), false);
+
+        fill(ch, channel);
+        try {
+            channel.send(Unpooled.wrappedBuffer(new byte[16]), false);
+            Assert.fail();
+        } catch (RemotingException e) {
+            Assert.assertTrue(e.getMessage().contains("not writable"));
+        }
+
+        // 恢复可写后正常发送
+        drain(ch);
+        Assert.assertFalse(channel.hasAttribute(Constants.CHANNEL_ATTRIBUTE_UNWRITABLE_KEY));
+        channel.send(Unpooled.wrappedBuffer(new byte[16]), true);
+        channel.close();
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        URL url = URL_BASE.addParameter(Constants.BACKPRESSURE_KEY, Constants.BACKPRESSURE_BLOCK)
+                .addParameter(Constants.TIMEOUT_KEY, 5000);
+        Channel ch = connect(url);
+        final NettyChannel channel = NettyChannel.getOrAddChannel(ch, url, new NoOpChannelHandler());
+        fill(ch, channel);
+
+        final CountDownLatch sent = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    channel.send(Unpooled.wrappedBuffer(new byte[16]), false);
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+                sent.countDown();
+            }
+        });
+        sender.start();
+
+        // 不可写时阻塞, 可写后继续发送
+        Assert.assertFalse(sent.await(100, TimeUnit.MILLISECONDS));
+        drain(ch);
+        Assert.assertTrue(sent.await(5, TimeUnit.SECONDS));
+        Assert.assertNull(failure.get());
+        channel.close();
+    }
+
+    @Test
+    public void testBlockTimeout() throws Exception {
+        URL url = URL_BASE.addParameter(Constants.BACKPRESSURE_KEY, Constants.BACKPRESSURE_BLOCK)
+                .addParameter(Constants.TIMEOUT_KEY, 50);
+        Channel ch = connect(url);
+        NettyChannel channel = NettyChannel.getOrAddChannel(ch, url, new NoOpChannelHandler());
+        fill(ch, channel);
+        try {
+            channel.send(Unpooled.wrappedBuffer(new byte[16]), false);
+            Assert.fail();
+        } catch (RemotingException e) {
+            Assert.assertTrue(e.getMessage().contains("timeout(50ms)"));
+        }
+        channel.close();
+    }
+
+    @Test
+    public void testUnsupportedBackpressure() throws Exception {
+        Assert.assertEquals(Constants.DEFAULT_BACKPRESSURE,
+                NettyChannel.backpressure(URL_BASE.addParameter(Constants.BACKPRESSURE_KEY, "route")));
+        Assert.assertEquals(Constants.BACKPRESSURE_FAILFAST,
+                NettyChannel.backpressure(URL_BASE.addParameter(Constants.BACKPRESSURE_KEY, Constants.BACKPRESSURE_FAILFAST)));
+
+        // 按默认策略处理, 不可写时不阻塞也不失败
+        URL url = URL_BASE.addParameter(Constants.BACKPRESSURE_KEY, "route")
+                .addParameter(Constants.TIMEOUT_KEY, 5000);
+        Channel ch = connect(url);
+        NettyChannel channel = NettyChannel.getOrAddChannel(ch, url, new NoOpChannelHandler());
+        fill(ch, channel);
+        channel.send(Unpooled.wrappedBuffer(new byte[16]), false);
+        channel.close();
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ *
+ */
+package com.sogou.map.kubbo.remote.transport.netty4;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ResourceLeakDetector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sogou.map.kubbo.common.URL;
+import com.sogou.map.kubbo.remote.Channel;
+import com.sogou.map.kubbo.remote.Codec;
+import com.sogou.map.kubbo.remote.buffer.ChannelBuffer;
+import com.sogou.map.kubbo.remote.transport.handler.NoOpChannelHandler;
+
+/**
+ * @author liufuliang
+ *
+ */
+public class NettyTransportDecoderTest {
+
+    private static ResourceLeakDetector.Level level;
+
+    /*
+     * 帧格式: 1字节长度 + 内容
+     */
+    static class LengthCodec implements Codec {
+        @Override
+        public void encode(Channel channel, ChannelBuffer buffer, Object message) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object decode(Channel channel, ChannelBuffer buffer) throws IOException {
+            if (!buffer.readable()) {
+                return DecodeResult.NEED_MORE_INPUT;
+            }
+            int length = buffer.getByte(buffer.readerIndex()) & 0xff;
+            if (buffer.readableBytes() < 1 + length) {
+                return DecodeResult.NEED_MORE_INPUT;
+            }
+            buffer.readByte();
+            byte[] content = new byte[length];
+            buffer.readBytes(content);
+            return new String(content, CharsetUtil.UTF_8);
+        }
+    }
+
+    private EmbeddedChannel channel;
+
+    // 写入的所有缓冲, 检查是否都已释放
+    private final List<ByteBuf> inputs = new ArrayList<ByteBuf>();
+
+    @BeforeClass
+    public static void setUpClass() {
+        level = ResourceLeakDetector.getLevel();
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        ResourceLeakDetector.setLevel(level);
+    }
+
+    @Before
+    public void setUp() {
+        channel = new EmbeddedChannel(new NettyTransportDecoder(new LengthCodec(),
+                URL.valueOf("kubbo://127.0.0.1:40660/sample"), new NoOpChannelHandler()));
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    private static byte[] frames(String... messages) {
+        ByteBuf buf = Unpooled.buffer();
+        for (String message : messages) {
+            byte[] content = message.getBytes(CharsetUtil.UTF_8);
+            buf.writeByte(content.length).writeBytes(content);
+        }
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.readBytes(bytes);
+        buf.release();
+        return bytes;
+    }
+
+    /*
+     * 按给定的长度切分后逐次读入
+     */
+    private void read(byte[] bytes, int... splits) {
+        int offset = 0;
+        for (int split : splits) {
+            write(bytes, offset, split);
+            offset += split;
+        }
+        if (offset < bytes.length) {
+            write(bytes, offset, bytes.length - offset);
+        }
+    }
+
+    private void write(byte[] bytes, int offset, int length) {
+        ByteBuf input = channel.alloc().buffer(length).writeBytes(bytes, offset, length);
+        inputs.add(input);
+        channel.writeInbound(input);
+    }
+
+    private List<String> decoded() {
+        List<String> messages = new ArrayList<String>();
+        Object message;
+        while ((message = channel.readInbound()) != null) {
+            messages.add((String) message);
+        }
+        return messages;
+    }
+
+    private void assertReleased() {
+        for (ByteBuf input : inputs) {
+            Assert.assertEquals(0, input.refCnt());
+        }
+    }
+
+    @Test
+    public void testSplitFrames() {
+        byte[] bytes = frames("hello", "kubbo", "world");
+        // 帧头, 帧内容, 帧边界处分别切分
+        read(bytes, 1, 3, 4, 1, 6, 2);
+        List<String> messages = decoded();
+        Assert.assertEquals(3, messages.size());
+        Assert.assertEquals("hello", messages.get(0));
+        Assert.assertEquals("kubbo", messages.get(1));
+        Assert.assertEquals("world", messages.get(2));
+        assertReleased();
+    }
+
+    @Test
+    public void testManyComponents() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 100; ++i) {
+            builder.append((char) ('a' + i % 26));
+        }
+        String large = builder.toString();
+        byte[] bytes = frames(large, "tail");
+        // 远超过组合缓冲的最大组件数(16), 超出后合并
+        int[] splits = new int[bytes.length - 1];
+        for (int i = 0; i < splits.length; ++i) {
+            splits[i] = 1;
+        }
+        read(bytes, splits);
+        List<String> messages = decoded();
+        Assert.assertEquals(2, messages.size());
+        Assert.assertEquals(large, messages.get(0));
+        Assert.assertEquals("tail", messages.get(1));
+        assertReleased();
+    }
+
+    @Test
+    public void testReleaseOnInactive() {
+        byte[] bytes = frames("hello", "kubbo");
+        write(bytes, 0, 8);
+        write(bytes, 8, 1);
+        Assert.assertEquals("hello", decoded().get(0));
+        Assert.assertTrue(inputs.get(inputs.size() - 1).refCnt() > 0);
+
+        // 连接断开时释放未完成的半帧
+        channel.close();
+        assertReleased();
+    }
+
+    @Test
+    public void testReleaseOnRemoved() {
+        byte[] bytes = frames("hello");
+        write(bytes, 0, 2);
+        write(bytes, 2, 2);
+        Assert.assertTrue(decoded().isEmpty());
+
+        // 解码器移除时释放未完成的半帧
+        channel.pipeline().removeFirst();
+        assertReleased();
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ *
+ */
+package com.sogou.map.kubbo.remote.transport.netty4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author liufuliang
+ *
+ */
+public class NettyTransportStatisticsTest {
+
+    private static final int THREADS = 4;
+
+    private static final int MESSAGES = 10000;
+
+    @Test
+    public void testEncodedSumAcrossThreads() throws InterruptedException {
+        long allocations = NettyTransportStatistics.getEncodeBufferAllocations();
+        long expansions = NettyTransportStatistics.getEncodeBufferExpansions();
+        long bytes = NettyTransportStatistics.getEncodedBytes();
+
+        // 各线程分别计数, 线程结束后计数仍然保留
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < THREADS; ++i) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < MESSAGES; ++j) {
+                        NettyTransportStatistics.encoded(256, j % 2 == 0 ? 256 : 512, 100);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+
+        Assert.assertEquals(THREADS * MESSAGES, NettyTransportStatistics.getEncodeBufferAllocations() - allocations);
+        Assert.assertEquals(THREADS * MESSAGES / 2, NettyTransportStatistics.getEncodeBufferExpansions() - expansions);
+        Assert.assertEquals(THREADS * MESSAGES * 100L, NettyTransportStatistics.getEncodedBytes() - bytes);
+    }
+}
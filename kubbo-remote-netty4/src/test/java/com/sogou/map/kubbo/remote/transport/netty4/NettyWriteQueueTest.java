@@ -0,0 +1,177 @@
+/**
+ *
+ */
+package com.sogou.map.kubbo.remote.transport.netty4;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.util.concurrent.Future;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sogou.map.kubbo.common.Constants;
+import com.sogou.map.kubbo.common.URL;
+import com.sogou.map.kubbo.remote.transport.handler.NoOpChannelHandler;
+
+/**
+ * @author liufuliang
+ *
+ */
+public class NettyWriteQueueTest {
+
+    private static final int WRITERS = 8;
+
+    private static final int MESSAGES = 5000;
+
+    private EventLoopGroup group;
+
+    private Channel server;
+
+    private Channel client;
+
+    // 服务端按到达顺序记录的(writer, seq)
+    private final Queue<long[]> received = new ConcurrentLinkedQueue<long[]>();
+
+    private volatile CountDownLatch receivedAll;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        group = new DefaultEventLoopGroup(2);
+        server = new ServerBootstrap()
+                .group(group)
+                .channel(LocalServerChannel.class)
+                .childHandler(new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                        ByteBuf buf = (ByteBuf) msg;
+                        try {
+                            received.add(new long[] { buf.readInt(), buf.readInt() });
+                        } finally {
+                            buf.release();
+                        }
+                        receivedAll.countDown();
+                    }
+                })
+                .bind(new LocalAddress("netty-write-queue-test")).sync().channel();
+        client = new Bootstrap()
+                .group(group)
+                .channel(LocalChannel.class)
+                .handler(new ChannelInboundHandlerAdapter())
+                .connect(server.localAddress()).sync().channel();
+    }
+
+    @After
+    public void tearDown() {
+        client.close().syncUninterruptibly();
+        server.close().syncUninterruptibly();
+        group.shutdownGracefully(0, 0, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    private static ByteBuf message(int writer, int seq) {
+        return Unpooled.buffer(8).writeInt(writer).writeInt(seq);
+    }
+
+    /*
+     * 每个写入者的消息按写入的顺序到达
+     */
+    private void assertOrdered(int writers, int messages) {
+        int[] next = new int[writers];
+        for (long[] m : received) {
+            int writer = (int) m[0];
+            Assert.assertEquals("writer " + writer, next[writer], m[1]);
+            ++next[writer];
+        }
+        for (int i = 0; i < writers; ++i) {
+            Assert.assertEquals(messages, next[i]);
+        }
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        receivedAll = new CountDownLatch(WRITERS * MESSAGES);
+        final NettyChannel channel = NettyChannel.getOrAddChannel(client, URL.valueOf("kubbo://127.0.0.1:40660/sample")
+                .addParameter(Constants.WRITE_COALESCE_KEY, true)
+                .addParameter(Constants.WRITE_COALESCE_BATCH_KEY, 16), new NoOpChannelHandler());
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < WRITERS; ++i) {
+            final int writer = i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int seq = 0; seq < MESSAGES; ++seq) {
+                            channel.send(message(writer, seq), false);
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+
+        Assert.assertTrue(receivedAll.await(10, TimeUnit.SECONDS));
+        Assert.assertNull(failure.get());
+        assertOrdered(WRITERS, MESSAGES);
+    }
+
+    @Test
+    public void testMixedWithEventLoop() throws Exception {
+        receivedAll = new CountDownLatch(MESSAGES);
+        final NettyWriteQueue queue = new NettyWriteQueue(client, 16);
+        int seq = 0;
+        while (seq < MESSAGES) {
+            // 阻塞event loop, 之后的写入都在队列中等待
+            final CountDownLatch queued = new CountDownLatch(1);
+            final int last = seq + 9;
+            Future<ChannelFuture> inLoop = client.eventLoop().submit(new Callable<ChannelFuture>() {
+                @Override
+                public ChannelFuture call() throws InterruptedException {
+                    queued.await(5, TimeUnit.SECONDS);
+                    // IO线程内的写入先写出已入队的消息
+                    return queue.write(message(0, last));
+                }
+            });
+            for (; seq < last; ++seq) {
+                queue.write(message(0, seq));
+            }
+            queued.countDown();
+            inLoop.sync();
+            ++seq;
+        }
+
+        Assert.assertTrue(receivedAll.await(10, TimeUnit.SECONDS));
+        assertOrdered(1, MESSAGES);
+    }
+}
@@ -0,0 +1,90 @@
+package com.sogou.map.kubbo.rpc;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sogou.map.kubbo.common.logger.Logger;
+import com.sogou.map.kubbo.common.logger.LoggerFactory;
+import com.sogou.map.kubbo.remote.RemotingException;
+import com.sogou.map.kubbo.remote.session.RequestBatch;
+import com.sogou.map.kubbo.remote.session.SessionChannel;
+import com.sogou.map.kubbo.rpc.concurrent.ListenableFuture;
+
+/**
+ * 批量调用.
+ * 收集期间的调用按连接合并为批量请求, send时每个连接只发送一帧. 
+ * 每个调用的结果按调用顺序返回各自的future. 非线程安全, 由创建的线程使用.
+ * 
+ * @author liufuliang
+ */
+public class InvocationBatch {
+
+    private static final Logger logger = LoggerFactory.getLogger(InvocationBatch.class);
+
+    private final List<ListenableFuture<?>> futures = new ArrayList<ListenableFuture<?>>();
+
+    private final Map<SessionChannel, RequestBatch> batches = new LinkedHashMap<SessionChannel, RequestBatch>();
+
+    /**
+     * 连接上的批量请求, 不存在时创建
+     * 
+     * @param session
+     * @return request batch
+     */
+    public RequestBatch getRequestBatch(SessionChannel session) {
+        RequestBatch batch = batches.get(session);
+        if (batch == null) {
+            batch = session.batch();
+            batches.put(session, batch);
+        }
+        return batch;
+    }
+
+    /**
+     * 记录一次调用的结果
+     * 
+     * @param future
+     */
+    public void add(ListenableFuture<?> future) {
+        if (future == null) {
+            throw new IllegalArgumentException("future == NULL");
+        }
+        futures.add(future);
+    }
+
+    public int size() {
+        return futures.size();
+    }
+
+    /**
+     * 发送所有连接上的批量请求. 某个连接发送失败时, 该连接上的调用的future失败, 不影响其它连接.
+     * 
+     * @return 按调用顺序的所有future
+     */
+    public List<ListenableFuture<?>> send() {
+        for (Map.Entry<SessionChannel, RequestBatch> entry : batches.entrySet()) {
+            try {
+                entry.getValue().send();
+            } catch (RemotingException e) {
+                logger.warn("Fail to send batch requests, size: " + entry.getValue().size() 
+                        + ", channel: " + entry.getKey() + ", cause: " + e.getMessage(), e);
+            }
+        }
+        batches.clear();
+        return new ArrayList<ListenableFuture<?>>(futures);
+    }
+
+    /**
+     * 放弃所有未发送的调用
+     */
+    public void cancel() {
+        for (ListenableFuture<?> future : futures) {
+            future.cancel(false);
+        }
+        batches.clear();
+        futures.clear();
+    }
+
+}
@@ -2,6 +2,7 @@ package com.sogou.map.kubbo.rpc;
 
 import java.util.HashMap;
 
+import com.sogou.map.kubbo.remote.session.Request;
 import com.sogou.map.kubbo.rpc.concurrent.ListenableFuture;
 import com.sogou.map.kubbo.rpc.protocol.AbstractAttachable;
 
@@ -14,6 +15,9 @@ import com.sogou.map.kubbo.rpc.protocol.AbstractAttachable;
 public class RpcContext extends AbstractAttachable<RpcContext>{
     private ListenableFuture<?> future;
 
+    private Request request;
+
+    private InvocationBatch batch;
     
     protected RpcContext() {
         super(new HashMap<String, String>());
@@ -40,6 +44,55 @@ public class RpcContext extends AbstractAttachable<RpcContext>{
     }
     
     
+    /**
+     * 当前收集中的批量调用, 没有时为null
+     * 
+     * @return batch
+     */
+    public InvocationBatch getBatch() {
+        return batch;
+    }
+
+    /**
+     * set batch.
+     * 
+     * @param batch
+     */
+    public void setBatch(InvocationBatch batch) {
+        this.batch = batch;
+    }
+
+    /**
+     * 服务端当前处理的请求, 处理请求时设置
+     * 
+     * @param request
+     */
+    public void setRequest(Request request) {
+        this.request = request;
+    }
+
+    /**
+     * 当前处理的请求的截止时间, 0表示没有.
+     * 处理过程中发起的嵌套调用的超时不会超过剩余的时间.
+     * 
+     * @return deadline(ms)
+     */
+    public long getDeadline() {
+        Request r = request;
+        return r == null ? 0 : r.getDeadline();
+    }
+
+    /**
+     * 当前处理的请求是否已被调用方取消(超时或主动取消).
+     * 耗时的服务实现可以检查该标记提前结束.
+     * 
+     * @return cancelled or not
+     */
+    public boolean isCancelled() {
+        Request r = request;
+        return r != null && r.isCancelled();
+    }
+    
     private static final ThreadLocal<RpcContext> LOCAL = new ThreadLocal<RpcContext>() {
         @Override
         protected RpcContext initialValue() {
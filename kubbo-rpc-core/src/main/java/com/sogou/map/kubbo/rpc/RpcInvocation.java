@@ -5,6 +5,7 @@ import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.Map;
 
+import com.sogou.map.kubbo.remote.session.EncodedMessage;
 import com.sogou.map.kubbo.rpc.protocol.AbstractAttachable;
 
 /**
@@ -24,6 +25,11 @@ public class RpcInvocation extends AbstractAttachable<RpcInvocation> implements
 
     private transient Invoker<?> invoker;
 
+    // 参数只编码一次, 多次发送(重试, 广播)时复用编码结果
+    private transient volatile boolean encodeOnce;
+
+    private transient volatile EncodedMessage encodedArguments;
+
     public RpcInvocation() {
         super();
     }
@@ -91,6 +97,33 @@ public class RpcInvocation extends AbstractAttachable<RpcInvocation> implements
 
     public void setArguments(Object[] arguments) {
         this.arguments = arguments == null ? new Object[0] : arguments;
+        this.encodedArguments = null;
+    }
+
+    public boolean isEncodeOnce() {
+        return encodeOnce;
+    }
+
+    /**
+     * 同一个invocation发送多次时(重试, 广播)开启, 参数只序列化一次, 之后的发送直接写出编码后的字节.
+     * 对端不支持(低版本)时仍然每次序列化. 开启后不能再修改参数对象的内容.
+     */
+    public void setEncodeOnce(boolean encodeOnce) {
+        this.encodeOnce = encodeOnce;
+        if (!encodeOnce) {
+            this.encodedArguments = null;
+        }
+    }
+
+    /**
+     * @return 已经编码的参数, 由codec设置
+     */
+    public EncodedMessage getEncodedArguments() {
+        return encodedArguments;
+    }
+
+    public void setEncodedArguments(EncodedMessage encodedArguments) {
+        this.encodedArguments = encodedArguments;
     }
 
     @Override
@@ -0,0 +1,88 @@
+package com.sogou.map.kubbo.rpc.concurrent;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.sogou.map.kubbo.common.Constants;
+import com.sogou.map.kubbo.common.URL;
+import com.sogou.map.kubbo.common.threadpool.NamedThreadFactory;
+import com.sogou.map.kubbo.common.util.SystemPropertyUtils;
+
+/**
+ * 异步调用回调(FutureListener)的执行线程, 按引用的callback参数选择:
+ * <ul>
+ * <li>direct: 在完成响应的线程中执行(客户端处理线程, IO线程或超时线程), 默认</li>
+ * <li>shared: 在共享的回调线程池中执行, 慢回调不会阻塞其它响应的处理</li>
+ * <li>其它: 调用方通过{@link #register(String, Executor)}注册的Executor</li>
+ * </ul>
+ * 
+ * @author liufuliang
+ */
+public final class CallbackExecutors {
+
+    public static final String DIRECT = "direct";
+
+    public static final String SHARED = "shared";
+
+    private static final ConcurrentMap<String, Executor> EXECUTORS = new ConcurrentHashMap<String, Executor>();
+
+    private CallbackExecutors() {
+    }
+
+    /**
+     * 注册调用方提供的Executor
+     * 
+     * @param name callback参数的值
+     * @param executor
+     */
+    public static void register(String name, Executor executor) {
+        if (name == null) {
+            throw new IllegalArgumentException("name == NULL");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor == NULL");
+        }
+        if (DIRECT.equals(name) || SHARED.equals(name)) {
+            throw new IllegalArgumentException("Reserved callback executor name: " + name);
+        }
+        EXECUTORS.put(name, executor);
+    }
+
+    public static Executor unregister(String name) {
+        return EXECUTORS.remove(name);
+    }
+
+    /**
+     * @param url 引用的url
+     * @return 回调的Executor, direct时返回null
+     */
+    public static Executor getExecutor(URL url) {
+        String name = url.getParameter(Constants.CALLBACK_KEY, DIRECT);
+        if (DIRECT.equals(name)) {
+            return null;
+        }
+        if (SHARED.equals(name)) {
+            return SharedHolder.EXECUTOR;
+        }
+        Executor executor = EXECUTORS.get(name);
+        if (executor == null) {
+            throw new IllegalStateException("Callback executor not registered: " + name + ", url: " + url);
+        }
+        return executor;
+    }
+
+    // 第一次使用时创建
+    private static class SharedHolder {
+        static final Executor EXECUTOR;
+        static {
+            int threads = SystemPropertyUtils.getInt(Constants.CALLBACK_THREADS_KEY, Constants.DEFAULT_CALLBACK_THREADS);
+            EXECUTOR = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("kubbo-callback", true));
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+/**
+ *
+ */
+package com.sogou.map.kubbo.rpc.concurrent;
+
+import java.util.concurrent.ExecutionException;
+
+import com.sogou.map.kubbo.rpc.Result;
+import com.sogou.map.kubbo.rpc.RpcException;
+
+/**
+ * 已完成的调用结果, 如injvm的异步调用
+ *
+ * @author liufuliang
+ *
+ */
+public class CompletedListenableFuture<V> extends NoOpListenableFuture<V> {
+
+    private final Result result;
+
+    public CompletedListenableFuture(Result result) {
+        if (result == null) {
+            throw new IllegalArgumentException("result == NULL");
+        }
+        this.result = result;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+        if (result.hasException()) {
+            throw new ExecutionException(result.getException());
+        }
+        try {
+            return (V) result.recreate();
+        } catch (Throwable e) {
+            throw new RpcException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public ListenableFuture<V> addListener(FutureListener<V> listener) {
+        if (result.hasException()) {
+            listener.caught(result.getException());
+        } else {
+            listener.done((V) result.getValue());
+        }
+        return this;
+    }
+}
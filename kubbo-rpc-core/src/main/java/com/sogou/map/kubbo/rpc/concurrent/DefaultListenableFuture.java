@@ -1,9 +1,13 @@
 package com.sogou.map.kubbo.rpc.concurrent;
 
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import com.sogou.map.kubbo.common.logger.Logger;
+import com.sogou.map.kubbo.common.logger.LoggerFactory;
 import com.sogou.map.kubbo.common.util.StringUtils;
 import com.sogou.map.kubbo.remote.RemotingException;
 import com.sogou.map.kubbo.remote.session.Response;
@@ -13,19 +17,33 @@ import com.sogou.map.kubbo.rpc.Result;
 import com.sogou.map.kubbo.rpc.RpcException;
 
 /**
+ * 远程调用结果, 按java.util.concurrent.Future的语义包装ResponseFuture,
+ * 可以直接交给ExecutorService等基于Future的代码使用
  * 
  * @author liufuliang
  */
 public class DefaultListenableFuture<V> implements ListenableFuture<V> {
     
+    private static final Logger logger = LoggerFactory.getLogger(DefaultListenableFuture.class);
+    
     private final ResponseFuture future;
+
+    // 回调的执行线程, null时在完成响应的线程中执行
+    private final Executor executor;
+
+    private volatile boolean cancelled;
     
     public DefaultListenableFuture(){
-        future = null;
+        this(null, null);
     }
     
     public DefaultListenableFuture(ResponseFuture future){
+        this(future, null);
+    }
+
+    public DefaultListenableFuture(ResponseFuture future, Executor executor){
         this.future = future;
+        this.executor = executor;
     }
 
     protected ResponseFuture getResponseFuture() {
@@ -34,12 +52,17 @@ public class DefaultListenableFuture<V> implements ListenableFuture<V> {
 
     @Override
     public boolean cancel(boolean mayInterruptIfRunning) {
-        return false;
+        // 与响应同时完成时, 只有取消成功才标记为已取消
+        if (!future.cancel()) {
+            return false;
+        }
+        cancelled = true;
+        return true;
     }
 
     @Override
     public boolean isCancelled() {
-        return false;
+        return cancelled;
     }
 
     @Override
@@ -62,7 +85,7 @@ public class DefaultListenableFuture<V> implements ListenableFuture<V> {
     @SuppressWarnings("unchecked")
     @Override
     public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-        int timeoutInMillis = (int) unit.convert(timeout, TimeUnit.MILLISECONDS);
+        int timeoutInMillis = (int) Math.min(Integer.MAX_VALUE, unit.toMillis(timeout));
         try {
             return (V) (((Result) future.get(timeoutInMillis)).recreate());
         } catch (com.sogou.map.kubbo.remote.TimeoutException e) {
@@ -77,19 +100,56 @@ public class DefaultListenableFuture<V> implements ListenableFuture<V> {
     @Override
     public ListenableFuture<V> addListener(final FutureListener<V> listener){
         ResponseListener l = new ResponseListener(){
-            @SuppressWarnings("unchecked")
             @Override
-            public void done(Response response) {
-                listener.done((V)response.getResult());
+            public void done(final Response response) {
+                dispatch(new Runnable() {
+                    @SuppressWarnings("unchecked")
+                    @Override
+                    public void run() {
+                        Result result = (Result) response.getResult();
+                        if (result.hasException()) {
+                            listener.caught(result.getException());
+                            return;
+                        }
+                        listener.done((V) result.getValue());
+                    }
+                });
             }
 
             @Override
-            public void caught(Throwable exception) {
-                listener.caught(exception);
+            public void caught(final Throwable exception) {
+                dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.caught(exception);
+                    }
+                });
             }
         };
         future.addListener(l);
         return this;
     }
 
+    private void dispatch(final Runnable callback) {
+        if (executor == null) {
+            callback.run();
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        callback.run();
+                    } catch (Throwable t) {
+                        logger.error("Future listener invoke error: " + t.getMessage(), t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("Callback executor rejected, run in current thread. cause: " + e.getMessage());
+            callback.run();
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,136 @@
+/**
+ *
+ */
+package com.sogou.map.kubbo.rpc.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.sogou.map.kubbo.common.logger.Logger;
+import com.sogou.map.kubbo.common.logger.LoggerFactory;
+
+/**
+ * 由调用方设置结果的future, 只能设置一次, 回调在设置结果的线程中执行
+ *
+ * @author liufuliang
+ *
+ */
+public class SettableListenableFuture<V> implements ListenableFuture<V> {
+
+    private static final Logger logger = LoggerFactory.getLogger(SettableListenableFuture.class);
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private List<FutureListener<V>> listeners;
+
+    private boolean completed;
+
+    private V value;
+
+    private Throwable exception;
+
+    /**
+     * @return 已经设置过结果时返回false
+     */
+    public boolean set(V value) {
+        return complete(value, null);
+    }
+
+    /**
+     * @return 已经设置过结果时返回false
+     */
+    public boolean setException(Throwable exception) {
+        if (exception == null) {
+            throw new IllegalArgumentException("exception == NULL");
+        }
+        return complete(null, exception);
+    }
+
+    private boolean complete(V value, Throwable exception) {
+        List<FutureListener<V>> ls;
+        synchronized (this) {
+            if (completed) {
+                return false;
+            }
+            this.value = value;
+            this.exception = exception;
+            this.completed = true;
+            ls = listeners;
+            listeners = null;
+        }
+        done.countDown();
+        if (ls != null) {
+            for (FutureListener<V> listener : ls) {
+                notify(listener);
+            }
+        }
+        return true;
+    }
+
+    private void notify(FutureListener<V> listener) {
+        try {
+            if (exception != null) {
+                listener.caught(exception);
+            } else {
+                listener.done(value);
+            }
+        } catch (Throwable t) {
+            logger.error("Future listener invoke error: " + t.getMessage(), t);
+        }
+    }
+
+    @Override
+    public ListenableFuture<V> addListener(FutureListener<V> listener) {
+        synchronized (this) {
+            if (!completed) {
+                if (listeners == null) {
+                    listeners = new ArrayList<FutureListener<V>>(2);
+                }
+                listeners.add(listener);
+                return this;
+            }
+        }
+        notify(listener);
+        return this;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return completed;
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+        done.await();
+        return report();
+    }
+
+    @Override
+    public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException("Waiting " + unit.toMillis(timeout) + "ms timeout");
+        }
+        return report();
+    }
+
+    private synchronized V report() throws ExecutionException {
+        if (exception != null) {
+            throw new ExecutionException(exception);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,108 @@
+package com.sogou.map.kubbo.rpc.filters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.sogou.map.kubbo.common.Constants;
+import com.sogou.map.kubbo.common.URL;
+import com.sogou.map.kubbo.common.logger.Logger;
+import com.sogou.map.kubbo.common.logger.LoggerFactory;
+import com.sogou.map.kubbo.common.util.BoundedCache;
+import com.sogou.map.kubbo.remote.serialization.ObjectOutput;
+import com.sogou.map.kubbo.remote.serialization.Serialization;
+import com.sogou.map.kubbo.remote.serialization.Serializations;
+import com.sogou.map.kubbo.rpc.Invocation;
+
+/**
+ * 服务端和客户端结果缓存共用的key和配置
+ *
+ * @author liufuliang
+ */
+public final class Caches {
+
+    private static final Logger logger = LoggerFactory.getLogger(Caches.class);
+
+    private Caches() {
+    }
+
+    /**
+     * 按cache, cache.size, cache.ttl参数创建方法的缓存
+     *
+     * @return 方法没有开启缓存或配置错误时返回null
+     */
+    public static <V> BoundedCache<Key, V> create(URL url, String methodName) {
+        String policy = url.getMethodParameter(methodName, Constants.CACHE_KEY);
+        if (policy == null || policy.length() == 0 || Constants.FALSE.equalsIgnoreCase(policy)) {
+            return null;
+        }
+        if (Constants.TRUE.equalsIgnoreCase(policy)) {
+            policy = BoundedCache.LRU;
+        }
+        int size = url.getMethodParameter(methodName, Constants.CACHE_SIZE_KEY, Constants.DEFAULT_CACHE_SIZE);
+        int ttl = url.getMethodParameter(methodName, Constants.CACHE_TTL_KEY, Constants.DEFAULT_CACHE_TTL);
+        try {
+            return new BoundedCache<Key, V>(policy, size, ttl);
+        } catch (IllegalArgumentException e) {
+            if (logger.isWarnEnabled()) {
+                logger.warn("Illegal cache config of " + methodName + ", cause: " + e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 以参数类型和序列化后的参数为key, 不依赖参数对象的equals, 调用后修改参数对象也不影响key
+     */
+    public static Key key(Serialization serialization, Invocation invocation) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(64);
+        ObjectOutput out = serialization.serialize(stream);
+        try {
+            Object[] args = invocation.getArguments();
+            if (args != null) {
+                for (Object arg : args) {
+                    out.writeObject(arg);
+                }
+            }
+            out.flushBuffer();
+        } finally {
+            Serializations.releaseSafely(out);
+        }
+        return new Key(invocation.getParameterTypes(), stream.toByteArray());
+    }
+
+    /**
+     * 参数类型(区分重载的方法)和序列化后的参数
+     */
+    public static final class Key {
+        private final Class<?>[] parameterTypes;
+
+        private final byte[] arguments;
+
+        private final int hash;
+
+        Key(Class<?>[] parameterTypes, byte[] arguments) {
+            this.parameterTypes = parameterTypes;
+            this.arguments = arguments;
+            this.hash = Arrays.hashCode(arguments) * 31 + Arrays.hashCode(parameterTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && Arrays.equals(arguments, other.arguments)
+                    && Arrays.equals(parameterTypes, other.parameterTypes);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.sogou.map.kubbo.rpc.filters;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.sogou.map.kubbo.common.Constants;
+import com.sogou.map.kubbo.common.URL;
+import com.sogou.map.kubbo.common.extension.Activate;
+import com.sogou.map.kubbo.common.logger.Logger;
+import com.sogou.map.kubbo.common.logger.LoggerFactory;
+import com.sogou.map.kubbo.common.util.BoundedCache;
+import com.sogou.map.kubbo.remote.serialization.Serializations;
+import com.sogou.map.kubbo.rpc.Filter;
+import com.sogou.map.kubbo.rpc.Invocation;
+import com.sogou.map.kubbo.rpc.Invoker;
+import com.sogou.map.kubbo.rpc.InvokerListener;
+import com.sogou.map.kubbo.rpc.Result;
+import com.sogou.map.kubbo.rpc.RpcContext;
+import com.sogou.map.kubbo.rpc.RpcException;
+import com.sogou.map.kubbo.rpc.RpcInvocation;
+import com.sogou.map.kubbo.rpc.RpcResult;
+import com.sogou.map.kubbo.rpc.concurrent.CompletedListenableFuture;
+import com.sogou.map.kubbo.rpc.concurrent.FutureListener;
+import com.sogou.map.kubbo.rpc.concurrent.ListenableFuture;
+import com.sogou.map.kubbo.rpc.concurrent.SettableListenableFuture;
+import com.sogou.map.kubbo.rpc.utils.RpcHelper;
+
+/**
+ * 客户端结果缓存, 用于幂等的方法, 通过引用的cache参数按方法开启, 如getConfig.cache=lru.
+ * <p>
+ * 以方法和序列化后的参数为key, 缓存正常返回的结果, 不缓存异常; 命中时不发起调用, 同步和异步调用都适用.
+ * 同一个key同时未命中的调用合并为一次调用, 其它调用等待该调用的结果.
+ * 缓存项在过期前cache.refresh毫秒内被访问时, 在后台异步刷新, 刷新完成前仍返回旧的结果.
+ * <p>
+ * 同一个引用的所有服务提供者共享缓存, 不同的引用(如缓存配置不同)分别缓存; 命中时返回的是同一个对象, 调用方不应修改.
+ * 同时作为InvokerListener, 引用的所有invoker都销毁后丢弃该引用的缓存.
+ *
+ * @author liufuliang
+ */
+@Activate(group = Constants.CONSUMER, order = -100, value = Constants.CACHE_KEY)
+public class ResultCacheFilter implements Filter, InvokerListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResultCacheFilter.class);
+
+    // 没有开启缓存的方法
+    private static final Object NONE = new Object();
+
+    // 服务提供者的url(toFullString, 有缓存) -> 引用的缓存
+    private final ConcurrentMap<String, ReferenceCache> invokers = new ConcurrentHashMap<String, ReferenceCache>();
+
+    // 去掉服务提供者地址的url -> 引用的缓存, 只在加锁时访问
+    private final Map<String, ReferenceCache> references = new HashMap<String, ReferenceCache>();
+
+    @Override
+    public Result invoke(Invoker<?> invoker, Invocation invocation) throws RpcException {
+        URL url = invoker.getUrl();
+        MethodCache cache = getCache(url, invocation.getMethodName());
+        if (cache == null || RpcHelper.isOneway(url, invocation) || RpcContext.get().getBatch() != null) {
+            return invoker.invoke(invocation);
+        }
+        Caches.Key key;
+        try {
+            key = Caches.key(Serializations.getSerialization(url), invocation);
+        } catch (IOException e) {
+            if (logger.isWarnEnabled()) {
+                logger.warn("Fail to encode arguments of " + invocation.getMethodName() + " as cache key, cause: " + e.getMessage(), e);
+            }
+            return invoker.invoke(invocation);
+        }
+        boolean isAsync = RpcHelper.isAsync(url, invocation);
+
+        Cached cached = cache.values.get(key);
+        if (cached != null) {
+            if (System.currentTimeMillis() >= cached.refreshAt) {
+                refresh(invoker, invocation, cache, key);
+            }
+            return complete(new RpcResult(cached.value), isAsync);
+        }
+
+        SettableListenableFuture<Object> loader = new SettableListenableFuture<Object>();
+        SettableListenableFuture<Object> loading = cache.loading.putIfAbsent(key, loader);
+        if (loading != null) {
+            return await(loading, url, invocation.getMethodName(), isAsync);
+        }
+        return load(invoker, invocation, cache, key, loader);
+    }
+
+    /**
+     * 发起调用, 结果返回后加入缓存并通知等待的调用
+     */
+    private static Result load(Invoker<?> invoker, Invocation invocation, MethodCache cache, Caches.Key key,
+            SettableListenableFuture<Object> loader) {
+        Result result;
+        try {
+            result = invoker.invoke(invocation);
+        } catch (RuntimeException e) {
+            cache.failed(key, loader, e);
+            throw e;
+        }
+        ListenableFuture<Object> future = RpcContext.get().getFuture();
+        if (result == RpcResult.ASYNC && future != null) {
+            future.addListener(new Loader(cache, key, loader));
+        } else {
+            cache.loaded(key, loader, result);
+        }
+        return result;
+    }
+
+    /**
+     * 异步刷新即将过期的项, 同一个key同时只有一次刷新, 失败时保留旧的结果
+     */
+    private static void refresh(Invoker<?> invoker, Invocation invocation, MethodCache cache, Caches.Key key) {
+        SettableListenableFuture<Object> loader = new SettableListenableFuture<Object>();
+        if (cache.loading.putIfAbsent(key, loader) != null) {
+            return;
+        }
+        // 复制attachments, 不影响当前调用
+        Map<String, String> attachments = new HashMap<String, String>();
+        if (invocation.getAttachments() != null) {
+            attachments.putAll(invocation.getAttachments());
+        }
+        RpcInvocation inv = new RpcInvocation(invocation.getMethodName(), invocation.getParameterTypes(),
+                invocation.getArguments(), attachments, invocation.getInvoker());
+        inv.setAttachment(Constants.ASYNC_KEY, Constants.TRUE);
+        RpcContext context = RpcContext.get();
+        ListenableFuture<?> future = context.getFuture();
+        try {
+            load(invoker, inv, cache, key, loader);
+        } catch (RuntimeException e) {
+            if (logger.isWarnEnabled()) {
+                logger.warn("Fail to refresh cached result of " + invocation.getMethodName() + ", cause: " + e.getMessage(), e);
+            }
+        } finally {
+            context.setFuture(future);
+        }
+    }
+
+    /**
+     * 等待同一个key正在进行的调用
+     */
+    private static Result await(SettableListenableFuture<Object> loading, URL url, String methodName, boolean isAsync) {
+        if (isAsync) {
+            RpcContext.get().setFuture(loading);
+            return RpcResult.ASYNC;
+        }
+        RpcContext.get().setFuture(null);
+        // 不超过正在处理的请求的剩余时间
+        int timeout = url.getMethodParameter(methodName, Constants.TIMEOUT_KEY, Constants.DEFAULT_TIMEOUT);
+        long deadline = RpcContext.get().getDeadline();
+        if (deadline > 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new RpcException(RpcException.TIMEOUT_EXCEPTION, "Invocation deadline exceeded before waiting for cache loading. method: " + methodName);
+            }
+            timeout = (int) Math.min(timeout, remaining);
+        }
+        try {
+            return new RpcResult(loading.get(timeout, TimeUnit.MILLISECONDS));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RpcException) {
+                throw (RpcException) cause;
+            }
+            return new RpcResult(cause);
+        } catch (TimeoutException e) {
+            throw new RpcException(RpcException.TIMEOUT_EXCEPTION, "Invocation timeout. method: " + methodName
+                    + ", waiting for cache loading, cause: " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RpcException("Interrupted waiting for cache loading. method: " + methodName, e);
+        }
+    }
+
+    private static Result complete(Result result, boolean isAsync) {
+        if (isAsync) {
+            RpcContext.get().setFuture(new CompletedListenableFuture<Object>(result));
+            return RpcResult.ASYNC;
+        }
+        RpcContext.get().setFuture(null);
+        return result;
+    }
+
+    /**
+     * @return 方法没有开启缓存时返回null
+     */
+    MethodCache getCache(URL url, String methodName) {
+        ReferenceCache reference = invokers.get(url.toFullString());
+        if (reference == null) {
+            reference = attach(url);
+        }
+        return reference.get(url, methodName);
+    }
+
+    private synchronized ReferenceCache attach(URL url) {
+        String name = url.toFullString();
+        ReferenceCache reference = invokers.get(name);
+        if (reference != null) {
+            return reference;
+        }
+        String referenceName = new URL(url.getProtocol(), null, 0, url.getPath(),
+                url.removeParameter(Constants.UNIX_SOCKET_KEY).getParameters()).toFullString();
+        reference = references.get(referenceName);
+        if (reference == null) {
+            reference = new ReferenceCache(referenceName);
+            references.put(referenceName, reference);
+        }
+        reference.invokers++;
+        invokers.put(name, reference);
+        return reference;
+    }
+
+    @Override
+    public void referred(Invoker<?> invoker) throws RpcException {
+    }
+
+    @Override
+    public synchronized void destroyed(Invoker<?> invoker) {
+        ReferenceCache reference = invokers.remove(invoker.getUrl().toFullString());
+        if (reference != null && --reference.invokers == 0) {
+            references.remove(reference.name);
+        }
+    }
+
+    /**
+     * 一个引用的所有方法的缓存
+     */
+    static final class ReferenceCache {
+        final String name;
+
+        // 使用该缓存的服务提供者url数, 只在加锁时访问
+        int invokers = 0;
+
+        // 方法名 -> 缓存
+        private final ConcurrentMap<String, Object> caches = new ConcurrentHashMap<String, Object>();
+
+        ReferenceCache(String name) {
+            this.name = name;
+        }
+
+        MethodCache get(URL url, String methodName) {
+            Object cache = caches.get(methodName);
+            if (cache == null) {
+                BoundedCache<Caches.Key, Cached> values = Caches.create(url, methodName);
+                if (values == null) {
+                    cache = NONE;
+                } else {
+                    int ttl = url.getMethodParameter(methodName, Constants.CACHE_TTL_KEY, Constants.DEFAULT_CACHE_TTL);
+                    int refresh = url.getMethodParameter(methodName, Constants.CACHE_REFRESH_KEY, Constants.DEFAULT_CACHE_REFRESH);
+                    if (refresh < 0) {
+                        refresh = ttl / 5;
+                    }
+                    cache = new MethodCache(values, ttl > 0 && refresh > 0 ? ttl - refresh : -1);
+                }
+                Object old = caches.putIfAbsent(methodName, cache);
+                if (old != null) {
+                    cache = old;
+                }
+            }
+            return cache == NONE ? null : (MethodCache) cache;
+        }
+    }
+
+    static final class MethodCache {
+        final BoundedCache<Caches.Key, Cached> values;
+
+        // 加入缓存后开始刷新的时间(毫秒), <0表示不刷新
+        final long refreshAfter;
+
+        // 进行中的调用
+        final ConcurrentMap<Caches.Key, SettableListenableFuture<Object>> loading = new ConcurrentHashMap<Caches.Key, SettableListenableFuture<Object>>();
+
+        MethodCache(BoundedCache<Caches.Key, Cached> values, long refreshAfter) {
+            this.values = values;
+            this.refreshAfter = refreshAfter;
+        }
+
+        void loaded(Caches.Key key, SettableListenableFuture<Object> loader, Result result) {
+            if (result == null) {
+                failed(key, loader, new RpcException("Null result"));
+            } else if (result.hasException()) {
+                failed(key, loader, result.getException());
+            } else {
+                Object value = result.getValue();
+                long refreshAt = refreshAfter < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + refreshAfter;
+                // 先加入缓存再移除, 之后的调用总能命中缓存或等待
+                values.put(key, new Cached(value, refreshAt));
+                loading.remove(key, loader);
+                loader.set(value);
+            }
+        }
+
+        void failed(Caches.Key key, SettableListenableFuture<Object> loader, Throwable exception) {
+            loading.remove(key, loader);
+            loader.setException(exception);
+        }
+    }
+
+    static final class Cached {
+        final Object value;
+
+        final long refreshAt;
+
+        Cached(Object value, long refreshAt) {
+            this.value = value;
+            this.refreshAt = refreshAt;
+        }
+    }
+
+    private static final class Loader implements FutureListener<Object> {
+        private final MethodCache cache;
+
+        private final Caches.Key key;
+
+        private final SettableListenableFuture<Object> loader;
+
+        Loader(MethodCache cache, Caches.Key key, SettableListenableFuture<Object> loader) {
+            this.cache = cache;
+            this.key = key;
+            this.loader = loader;
+        }
+
+        @Override
+        public void done(Object result) {
+            cache.loaded(key, loader, new RpcResult(result));
+        }
+
+        @Override
+        public void caught(Throwable exception) {
+            cache.failed(key, loader, exception);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.sogou.map.kubbo.rpc.protocol.injvm;
+
+import java.util.Map;
+
+import com.sogou.map.kubbo.rpc.Exporter;
+import com.sogou.map.kubbo.rpc.Invoker;
+import com.sogou.map.kubbo.rpc.protocol.AbstractExporter;
+
+/**
+ * InjvmExporter
+ *
+ * @author liufuliang
+ */
+class InjvmExporter<T> extends AbstractExporter<T> {
+
+    private final String key;
+
+    private final Map<String, Exporter<?>> exporterMap;
+
+    InjvmExporter(Invoker<T> invoker, String key, Map<String, Exporter<?>> exporterMap){
+        super(invoker);
+        this.key = key;
+        this.exporterMap = exporterMap;
+    }
+
+    @Override
+    public void unexport() {
+        super.unexport();
+        // 同一服务重复暴露时, 不移除新的exporter
+        if (exporterMap.get(key) == this) {
+            exporterMap.remove(key);
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.sogou.map.kubbo.rpc.protocol.injvm;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+import com.sogou.map.kubbo.common.Constants;
+import com.sogou.map.kubbo.common.URL;
+import com.sogou.map.kubbo.remote.serialization.ObjectInput;
+import com.sogou.map.kubbo.remote.serialization.Serialization;
+import com.sogou.map.kubbo.remote.serialization.Serializations;
+import com.sogou.map.kubbo.rpc.Exporter;
+import com.sogou.map.kubbo.rpc.Invocation;
+import com.sogou.map.kubbo.rpc.Invoker;
+import com.sogou.map.kubbo.rpc.Result;
+import com.sogou.map.kubbo.rpc.RpcContext;
+import com.sogou.map.kubbo.rpc.RpcException;
+import com.sogou.map.kubbo.rpc.RpcInvocation;
+import com.sogou.map.kubbo.rpc.RpcResult;
+import com.sogou.map.kubbo.rpc.concurrent.CompletedListenableFuture;
+import com.sogou.map.kubbo.rpc.protocol.AbstractConsumerInvoker;
+import com.sogou.map.kubbo.rpc.utils.RpcHelper;
+
+/**
+ * InjvmInvoker
+ * 在调用线程内直接执行本地exporter的Invoker, 异步/单向调用同样同步执行.
+ * injvm.copy=true时通过序列化复制参数和返回值, 与远程调用的语义保持一致.
+ *
+ * @author liufuliang
+ */
+class InjvmInvoker<T> extends AbstractConsumerInvoker<T> {
+
+    private final String key;
+
+    private final Map<String, Exporter<?>> exporterMap;
+
+    private final Set<Invoker<?>> invokers;
+
+    private final Serialization serialization; // null表示不复制
+
+    InjvmInvoker(Class<T> serviceType, URL url, Map<String, Exporter<?>> exporterMap, Set<Invoker<?>> invokers){
+        super(serviceType, url, new String[] {
+                Constants.GROUP_KEY,
+                Constants.VERSION_KEY,
+                Constants.TOKEN_KEY,
+                Constants.TIMEOUT_KEY,
+                Constants.APPLICATION_KEY});
+        this.key = serviceKey(serviceType, url);
+        this.exporterMap = exporterMap;
+        this.invokers = invokers;
+        this.serialization = url.getParameter(Constants.INJVM_COPY_KEY, Constants.DEFAULT_INJVM_COPY) ?
+                Serializations.getSerialization(url) : null;
+    }
+
+    static String serviceKey(Class<?> serviceType, URL url) {
+        return RpcHelper.serviceKey(url.getParameter(Constants.GROUP_KEY),
+                url.getPath(),
+                serviceType.getName(),
+                url.getParameter(Constants.VERSION_KEY));
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return super.isAvailable() && exporterMap.containsKey(key);
+    }
+
+    @Override
+    protected Result doInvoke(Invocation invocation) throws Throwable {
+        Exporter<?> exporter = exporterMap.get(key);
+        if (exporter == null) {
+            throw new RpcException(RpcException.NETWORK_EXCEPTION,
+                    "Not found exported service: " + key + " in " + exporterMap.keySet()
+                    + ", may be (group, path, version) mismatch, message: " + invocation);
+        }
+        RpcInvocation inv = (RpcInvocation) invocation;
+
+        //attach path, interface
+        inv.setAttachment(Constants.PATH_KEY, getUrl().getPath());
+        inv.setAttachment(Constants.INTERFACE_KEY, getInterface().getName());
+        if (serialization != null && inv.getArguments() != null && inv.getArguments().length > 0) {
+            inv.setArguments(copy(inv.getArguments(), Object[].class));
+        }
+
+        boolean isAsync = RpcHelper.isAsync(getUrl(), invocation);
+        boolean isOneway = RpcHelper.isOneway(getUrl(), invocation);
+        Result result = exporter.getInvoker().invoke(inv);
+        if (serialization != null && !result.hasException() && result.getValue() != null) {
+            result = new RpcResult(copy(result.getValue(), Object.class));
+        }
+        if (isOneway) {
+            RpcContext.get().setFuture(null);
+            return RpcResult.ONEWAY;
+        } else if (isAsync) {
+            RpcContext.get().setFuture(new CompletedListenableFuture<Object>(result));
+            return RpcResult.ASYNC;
+        } else {
+            RpcContext.get().setFuture(null);
+            return result;
+        }
+    }
+
+    private <V> V copy(Object value, Class<V> type) throws IOException, ClassNotFoundException {
+        byte[] bytes = Serializations.serialize(serialization, value);
+        ObjectInput input = serialization.deserialize(new ByteArrayInputStream(bytes));
+        try {
+            return input.readObject(type);
+        } finally {
+            Serializations.releaseSafely(input);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (isDestroyed()) {
+            return;
+        }
+        super.destroy();
+        if (invokers != null) {
+            invokers.remove(this);
+        }
+    }
+
+}
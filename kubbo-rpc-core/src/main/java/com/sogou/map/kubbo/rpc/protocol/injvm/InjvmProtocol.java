@@ -0,0 +1,41 @@
+package com.sogou.map.kubbo.rpc.protocol.injvm;
+
+import com.sogou.map.kubbo.common.URL;
+import com.sogou.map.kubbo.rpc.Exporter;
+import com.sogou.map.kubbo.rpc.Invoker;
+import com.sogou.map.kubbo.rpc.RpcException;
+import com.sogou.map.kubbo.rpc.protocol.AbstractProtocol;
+
+/**
+ * injvm protocol support.
+ * 同一JVM内暴露的服务, 直接调用本地exporter的Invoker(经过provider filter链), 不经过编解码和网络.
+ *
+ * @author liufuliang
+ */
+public class InjvmProtocol extends AbstractProtocol {
+
+    public static final String NAME = "injvm";
+
+    public static final int DEFAULT_PORT = 0;
+
+    @Override
+    public int getDefaultPort() {
+        return DEFAULT_PORT;
+    }
+
+    @Override
+    public <T> Exporter<T> export(Invoker<T> invoker) throws RpcException {
+        String key = serviceKey(invoker);
+        InjvmExporter<T> exporter = new InjvmExporter<T>(invoker, key, exporterMap);
+        exporterMap.put(key, exporter);
+        return exporter;
+    }
+
+    @Override
+    public <T> Invoker<T> refer(Class<T> serviceType, URL url) throws RpcException {
+        InjvmInvoker<T> invoker = new InjvmInvoker<T>(serviceType, url, exporterMap, invokers);
+        invokers.add(invoker);
+        return invoker;
+    }
+
+}
@@ -4,8 +4,14 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 
 import com.sogou.map.kubbo.common.lang.Defaults;
+import com.sogou.map.kubbo.rpc.InvocationBatch;
 import com.sogou.map.kubbo.rpc.Invoker;
+import com.sogou.map.kubbo.rpc.Result;
+import com.sogou.map.kubbo.rpc.RpcContext;
 import com.sogou.map.kubbo.rpc.RpcInvocation;
+import com.sogou.map.kubbo.rpc.RpcResult;
+import com.sogou.map.kubbo.rpc.concurrent.CompletedListenableFuture;
+import com.sogou.map.kubbo.rpc.concurrent.ListenableFuture;
 
 /**
  * InvokerInvocationHandler
@@ -37,9 +43,21 @@ public class InvokerInvocationHandler implements InvocationHandler {
             return invoker.equals(args[0]);
         }
                 
-        Object result = invoker.invoke(new RpcInvocation(method, args)).recreate();
+        Result rpcResult = invoker.invoke(new RpcInvocation(method, args));
+        Object result;
+        InvocationBatch batch = RpcContext.get().getBatch();
+        if (batch != null) {
+            // 批量调用, 结果(含异常)通过future返回
+            if (rpcResult != RpcResult.ONEWAY) {
+                ListenableFuture<?> future = rpcResult == RpcResult.ASYNC ? RpcContext.get().getFuture() : null;
+                batch.add(future != null ? future : new CompletedListenableFuture<Object>(rpcResult));
+            }
+            result = null;
+        } else {
+            result = rpcResult.recreate();
+        }
         if(result == null){
-            // 异步调用会直接返回null, 对于原始类型, 需要返回默认值.
+            // 异步调用和批量调用会直接返回null, 对于原始类型, 需要返回默认值.
             Class<?> returnType = method.getReturnType();
             if(returnType.isPrimitive()){
                 return Defaults.defaultValue(returnType);
@@ -0,0 +1,80 @@
+/**
+ *
+ */
+package com.sogou.map.kubbo.rpc.protocol.injvm;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sogou.map.kubbo.common.URL;
+import com.sogou.map.kubbo.common.extension.Extensions;
+import com.sogou.map.kubbo.rpc.Exporter;
+import com.sogou.map.kubbo.rpc.Invoker;
+import com.sogou.map.kubbo.rpc.InvokerProxy;
+import com.sogou.map.kubbo.rpc.Protocol;
+import com.sogou.map.kubbo.rpc.Protocols;
+
+/**
+ * @author liufuliang
+ *
+ */
+public class InjvmProtocolTest {
+    private static Protocol protocol = Protocols.getExtension(InjvmProtocol.NAME);
+    private static InvokerProxy proxy = Extensions.getAdaptiveExtension(InvokerProxy.class);
+
+    public static class CapturedSampleService extends SampleServiceImpl {
+        Map<String, String> captured;
+
+        @Override
+        public Set<String> keys(Map<String, String> map) {
+            captured = map;
+            return super.keys(map);
+        }
+    }
+
+    @Test
+    public void testSampleService(){
+        CapturedSampleService exportservice = new CapturedSampleService();
+        URL url = URL.valueOf("injvm://127.0.0.1/sample");
+        Exporter<SampleService> exporter = protocol.export(
+                proxy.getInvoker(exportservice, SampleService.class, url));
+
+        // 有匹配的本地服务时可用
+        Invoker<SampleService> invoker = protocol.refer(SampleService.class, url);
+        Assert.assertTrue(invoker.isAvailable());
+        SampleService referservice = proxy.getProxy(invoker);
+        Assert.assertEquals("123456", referservice.echo("123456"));
+
+        // 默认不复制, 参数直接传递
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("key1", "1");
+        Assert.assertEquals(map.keySet(), referservice.keys(map));
+        Assert.assertSame(map, exportservice.captured);
+
+        exporter.unexport();
+        Assert.assertFalse(invoker.isAvailable());
+        invoker.destroy();
+    }
+
+    @Test
+    public void testCopyOnCall(){
+        CapturedSampleService exportservice = new CapturedSampleService();
+        URL url = URL.valueOf("injvm://127.0.0.1/sample-copy");
+        Exporter<SampleService> exporter = protocol.export(
+                proxy.getInvoker(exportservice, SampleService.class, url));
+
+        SampleService referservice = proxy.getProxy(
+                protocol.refer(SampleService.class, url.addParameter("injvm.copy", true)));
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("key1", "1");
+        Assert.assertEquals(map.keySet(), referservice.keys(map));
+        Assert.assertNotSame(map, exportservice.captured);
+        Assert.assertEquals(map, exportservice.captured);
+
+        exporter.unexport();
+    }
+}
@@ -0,0 +1,14 @@
+package com.sogou.map.kubbo.rpc.protocol.injvm;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <code>TestService</code>
+ */
+public interface SampleService
+{
+    Set<String> keys(Map<String, String> map);
+
+    String echo(String text);
+}
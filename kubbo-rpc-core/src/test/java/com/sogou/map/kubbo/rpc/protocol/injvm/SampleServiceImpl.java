@@ -0,0 +1,21 @@
+package com.sogou.map.kubbo.rpc.protocol.injvm;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * DemoServiceImpl
+ */
+public class SampleServiceImpl implements SampleService{
+
+    @Override
+    public String echo(String text){
+        return text;
+    }
+
+    @Override
+    public Set<String> keys(Map<String, String> map) {
+        return map == null ? null : new HashSet<String>(map.keySet());
+    }
+}
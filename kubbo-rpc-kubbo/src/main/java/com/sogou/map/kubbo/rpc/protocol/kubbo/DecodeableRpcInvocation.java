@@ -3,25 +3,32 @@ package com.sogou.map.kubbo.rpc.protocol.kubbo;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashMap;
 import java.util.Map;
 
+import com.sogou.map.kubbo.common.Constants;
 import com.sogou.map.kubbo.common.lang.Reflects;
 import com.sogou.map.kubbo.common.logger.Logger;
 import com.sogou.map.kubbo.common.logger.LoggerFactory;
 import com.sogou.map.kubbo.common.util.StringUtils;
 import com.sogou.map.kubbo.remote.Channel;
 import com.sogou.map.kubbo.remote.Decodeable;
+import com.sogou.map.kubbo.remote.buffer.UnsafeByteArrayInputStream;
 import com.sogou.map.kubbo.remote.serialization.ObjectInput;
 import com.sogou.map.kubbo.remote.serialization.Serialization;
+import com.sogou.map.kubbo.remote.serialization.Releasable;
 import com.sogou.map.kubbo.remote.serialization.Serializations;
 import com.sogou.map.kubbo.remote.session.Request;
 import com.sogou.map.kubbo.rpc.RpcInvocation;
+import com.sogou.map.kubbo.rpc.protocol.kubbo.codec.AttachmentTable;
+import com.sogou.map.kubbo.rpc.protocol.kubbo.codec.DecodeStatistics;
 import com.sogou.map.kubbo.rpc.protocol.kubbo.codec.KubboCodec;
+import com.sogou.map.kubbo.rpc.protocol.kubbo.codec.MethodDictionary;
 
 /**
  * @author liufuliang
  */
-public class DecodeableRpcInvocation extends RpcInvocation implements Decodeable {
+public class DecodeableRpcInvocation extends RpcInvocation implements Decodeable, Releasable {
 
     private static final long serialVersionUID = 6029662240065402716L;
 
@@ -37,6 +44,19 @@ public class DecodeableRpcInvocation extends RpcInvocation implements Decodeable
 
     private volatile boolean hasDecoded;
 
+    // 已解码方法名的输入, 参数在decode()中继续读取
+    private ObjectInput objectInput;
+
+    // 字典压缩的格式, attachments在参数之前
+    private boolean compressed;
+
+    private DecodeStatistics statistics;
+
+    private int length;
+
+    // 在io线程中创建, 即收到请求的时间
+    private final long received = System.currentTimeMillis();
+
     public DecodeableRpcInvocation(Channel channel, Serialization serialization, InputStream input, Request request) {
         if (channel == null) {
             throw new IllegalArgumentException("channel == NULL");
@@ -61,15 +81,19 @@ public class DecodeableRpcInvocation extends RpcInvocation implements Decodeable
     public void decode(){
         if (!hasDecoded) {
             try {
-                decode(channel, serialization, input);
-            } catch (Throwable e) {
-                if (log.isWarnEnabled()) {
-                    log.warn("Decode rpc invocation failed: " + e.getMessage(), e);
+                if (objectInput == null) {
+                    decodeHeader(channel, serialization, input);
                 }
-                request.setBroken(true);
-                request.setData(e);
+                long start = System.nanoTime();
+                decodeBody();
+                if (statistics != null) {
+                    statistics.record(System.nanoTime() - start, length);
+                }
+            } catch (Throwable e) {
+                broken(e);
             } finally {
                 hasDecoded = true;
+                release();
             }
         } else{
             if (log.isDebugEnabled()) {
@@ -79,42 +103,161 @@ public class DecodeableRpcInvocation extends RpcInvocation implements Decodeable
         
     }
 
-    public Object decode(Channel channel, Serialization serialization, InputStream input) throws IOException {
-        ObjectInput objectInput = serialization.deserialize(input);
-        setMethodName(objectInput.readUTF());
+    /**
+     * 在IO线程中按序解码方法名和attachments(字典压缩时依赖连接的方法字典和attachment表), 参数由{@link #decode()}解码
+     *
+     * @return 解码失败时返回false, 请求已标记为broken
+     */
+    public boolean decodeHeader() {
+        if (hasDecoded || objectInput != null) {
+            return !request.isBroken();
+        }
+        try {
+            decodeHeader(channel, serialization, input);
+            return true;
+        } catch (Throwable e) {
+            broken(e);
+            hasDecoded = true;
+            release();
+            return false;
+        }
+    }
+
+    /**
+     * 记录参数的解码耗时
+     *
+     * @param length 消息体的字节数
+     */
+    public void setStatistics(DecodeStatistics statistics, int length) {
+        this.statistics = statistics;
+        this.length = length;
+    }
+
+    private void broken(Throwable e) {
+        if (log.isWarnEnabled()) {
+            log.warn("Decode rpc invocation failed: " + e.getMessage(), e);
+        }
+        request.setBroken(true);
+        request.setData(e);
+    }
+
+    /**
+     * 直接解码时是连接复用的流, 不再持有; 延迟解码时释放持有的网络缓冲.
+     * 没有解码就丢弃时同样需要调用.
+     */
+    @Override
+    public void release() {
+        ObjectInput oi = objectInput;
+        objectInput = null;
+        if (oi != null) {
+            Serializations.releaseSafely(oi);
+        }
+        InputStream in = input;
+        input = null;
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                /* ignore */
+            }
+        }
+    }
+
+    public Request getRequest() {
+        return request;
+    }
+
+    // 调用方的超时时间从收到请求开始计算, 不依赖两端的时钟一致
+    private void setDeadline(Map<String, String> attachment) {
+        String timeout = attachment == null ? null : attachment.get(Constants.TIMEOUT_KEY);
+        if (timeout == null) {
+            return;
+        }
+        try {
+            int t = Integer.parseInt(timeout);
+            if (t > 0) {
+                request.setDeadline(received + t);
+            }
+        } catch (NumberFormatException e) {
+            /* ignore */
+        }
+    }
+
+    private void decodeHeader(Channel channel, Serialization serialization, InputStream input) throws IOException {
+        if (input == null) {
+            throw new IOException("Invocation input already released");
+        }
+        objectInput = serialization.deserialize(input);
         try {
-            Object[] args;
             Class<?>[] pts;
-            String desc = objectInput.readUTF();
-            if (desc.length() == 0) {
-                pts = KubboCodec.EMPTY_CLASS_ARRAY;
-                args = KubboCodec.EMPTY_OBJECT_ARRAY;
+            String methodName = objectInput.readUTF();
+            compressed = methodName.length() == 0;
+            if (compressed) {
+                // 字典压缩, 方法字典中的编号
+                MethodDictionary.Descriptor descriptor = MethodDictionary.get(channel).read(objectInput);
+                setMethodName(descriptor.getMethodName());
+                pts = descriptor.getParameterTypes();
+                Map<String, String> attachment = AttachmentTable.get(channel).read(objectInput);
+                setAttachments(attachment);
+                setDeadline(attachment);
             } else {
-                pts = Reflects.desc2classArray(desc);
-                args = new Object[pts.length];
-                for (int i = 0; i < args.length; i++) {
-                    try {
-                        args[i] = objectInput.readObject(pts[i]);
-                    } catch (Exception e) {
-                        if (log.isWarnEnabled()) {
-                            log.warn("Decode argument failed: " + e.getMessage(), e);
-                        }
-                    }
-                }
+                setMethodName(methodName);
+                String desc = objectInput.readUTF();
+                pts = desc.length() == 0 ? KubboCodec.EMPTY_CLASS_ARRAY : Reflects.desc2classArray(desc);
             }
             setParameterTypes(pts);
-            setArguments(args);
+        } catch (ClassNotFoundException e) {
+            throw new IOException(StringUtils.toString("Read invocation data failed.", e));
+        }
+    }
 
-            @SuppressWarnings("unchecked")
-            Map<String, String> attachment = (Map<String, String>) objectInput.readObject(Map.class);
-            setAttachments(attachment);
+    private Object[] decodeArguments(ObjectInput in) throws IOException {
+        Class<?>[] pts = getParameterTypes();
+        if (pts.length == 0) {
+            return KubboCodec.EMPTY_OBJECT_ARRAY;
+        }
+        Object[] args = new Object[pts.length];
+        for (int i = 0; i < args.length; i++) {
+            try {
+                args[i] = in.readObject(pts[i]);
+            } catch (Exception e) {
+                if (log.isWarnEnabled()) {
+                    log.warn("Decode argument failed: " + e.getMessage(), e);
+                }
+            }
+        }
+        return args;
+    }
 
+    private void decodeBody() throws IOException {
+        try {
+            if (compressed && objectInput.readByte() == KubboCodec.ARGUMENTS_ENCODED) {
+                // 单独编码的参数
+                ObjectInput in = serialization.deserialize(new UnsafeByteArrayInputStream(objectInput.readBytes()));
+                try {
+                    setArguments(decodeArguments(in));
+                } finally {
+                    Serializations.releaseSafely(in);
+                }
+            } else {
+                setArguments(decodeArguments(objectInput));
+            }
+
+            if (!compressed) {
+                @SuppressWarnings("unchecked")
+                Map<String, String> attachment = (Map<String, String>) objectInput.readObject(Map.class);
+                // 延迟解码时保留IO线程中已经设置的attachment(如input)
+                Map<String, String> current = getAttachments();
+                if (attachment != null && current != null && !current.isEmpty()) {
+                    attachment = new HashMap<String, String>(attachment);
+                    attachment.putAll(current);
+                }
+                setAttachments(attachment);
+                setDeadline(attachment);
+            }
         } catch (ClassNotFoundException e) {
             throw new IOException(StringUtils.toString("Read invocation data failed.", e));
-        } finally {
-            Serializations.releaseSafely(objectInput);
         }
-        return this;
     }
 
 }
@@ -10,16 +10,18 @@ import com.sogou.map.kubbo.remote.Channel;
 import com.sogou.map.kubbo.remote.Decodeable;
 import com.sogou.map.kubbo.remote.serialization.ObjectInput;
 import com.sogou.map.kubbo.remote.serialization.Serialization;
+import com.sogou.map.kubbo.remote.serialization.Releasable;
 import com.sogou.map.kubbo.remote.serialization.Serializations;
 import com.sogou.map.kubbo.remote.session.Response;
 import com.sogou.map.kubbo.rpc.RpcResult;
+import com.sogou.map.kubbo.rpc.protocol.kubbo.codec.DecodeStatistics;
 import com.sogou.map.kubbo.rpc.protocol.kubbo.codec.KubboCodec;
 
 
 /**
  * @author liufuliang
  */
-public class DecodeableRpcResult extends RpcResult implements Decodeable {
+public class DecodeableRpcResult extends RpcResult implements Decodeable, Releasable {
     
     private static final Logger log = LoggerFactory.getLogger(DecodeableRpcResult.class);
 
@@ -35,6 +37,10 @@ public class DecodeableRpcResult extends RpcResult implements Decodeable {
 
     private volatile boolean hasDecoded;
 
+    private DecodeStatistics statistics;
+
+    private int length;
+
     public DecodeableRpcResult(Channel channel, Serialization serialization, InputStream input, Response response) {
         if (channel == null) {
             throw new IllegalArgumentException("channel == NULL");
@@ -58,7 +64,11 @@ public class DecodeableRpcResult extends RpcResult implements Decodeable {
     public void decode() {
         if (!hasDecoded) {
             try {
+                long start = System.nanoTime();
                 decode(channel, serialization, input);
+                if (statistics != null) {
+                    statistics.record(System.nanoTime() - start, length);
+                }
             } catch (Throwable e) {
                 if (log.isWarnEnabled()) {
                     log.warn("Decode rpc result failed: " + e.getMessage(), e);
@@ -67,10 +77,38 @@ public class DecodeableRpcResult extends RpcResult implements Decodeable {
                 response.setErrorMessage(StringUtils.toString(e));
             } finally {
                 hasDecoded = true;
+                release();
             }
         }
     }
     
+    /**
+     * 记录返回值的解码耗时
+     *
+     * @param length 消息体的字节数
+     */
+    public void setStatistics(DecodeStatistics statistics, int length) {
+        this.statistics = statistics;
+        this.length = length;
+    }
+
+    /**
+     * 直接解码时是连接复用的流, 不再持有; 延迟解码时释放持有的网络缓冲.
+     * 没有解码就丢弃时同样需要调用.
+     */
+    @Override
+    public void release() {
+        InputStream in = input;
+        input = null;
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                /* ignore */
+            }
+        }
+    }
+
     public Object decode(Channel channel, Serialization serialization, InputStream input) throws IOException {
         ObjectInput objectInput = serialization.deserialize(input);
 
@@ -0,0 +1,359 @@
+package com.sogou.map.kubbo.rpc.protocol.kubbo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sogou.map.kubbo.common.Constants;
+import com.sogou.map.kubbo.common.URL;
+import com.sogou.map.kubbo.common.concurrent.AtomicPositiveInteger;
+import com.sogou.map.kubbo.common.logger.Logger;
+import com.sogou.map.kubbo.common.logger.LoggerFactory;
+import com.sogou.map.kubbo.common.threadpool.NamedThreadFactory;
+import com.sogou.map.kubbo.remote.session.Response;
+import com.sogou.map.kubbo.remote.session.ResponseListener;
+import com.sogou.map.kubbo.remote.session.SessionClient;
+
+/**
+ * 到同一服务提供者的连接池, 按未完成请求数最少选择连接.
+ * 开启自适应(connections.max &gt; 0)时, 连接的未完成请求数达到connections.pending或者全部不可写时扩容,
+ * 空闲超过connections.idle的连接被关闭, 连接数保持在[connections.min, connections.max]之间.
+ *
+ * @author liufuliang
+ */
+final class KubboConnectionPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(KubboConnectionPool.class);
+
+    // 只负责定时, 不执行网络IO
+    private static final ScheduledExecutorService MAINTAINER = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("kubbo-connection-pool", true));
+
+    // 建立和关闭连接, 每个池同时最多一个扩容任务, 慢的服务提供者不会阻塞其它池
+    private static final ThreadPoolExecutor CONNECTOR = new ThreadPoolExecutor(0, 32, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new NamedThreadFactory("kubbo-connection-pool-io", true));
+
+    private final URL url;
+
+    private final KubboProtocol protocol; // null表示固定连接数
+
+    private final int min;
+
+    private final int max;
+
+    private final int pendingThreshold;
+
+    private final long idleTimeout;
+
+    private volatile Connection[] connections;
+
+    private final AtomicPositiveInteger index = new AtomicPositiveInteger();
+
+    private final AtomicBoolean growing = new AtomicBoolean(false);
+
+    private final AtomicInteger referenceCount = new AtomicInteger(1);
+
+    private final ScheduledFuture<?> shrinkFuture;
+
+    private volatile boolean closed = false;
+
+    /**
+     * 固定连接
+     */
+    KubboConnectionPool(URL url, SessionClient[] clients) {
+        if (clients == null || clients.length == 0) {
+            throw new IllegalArgumentException("clients == NULL");
+        }
+        this.url = url;
+        this.protocol = null;
+        this.min = clients.length;
+        this.max = clients.length;
+        this.pendingThreshold = Integer.MAX_VALUE;
+        this.idleTimeout = 0;
+        Connection[] cs = new Connection[clients.length];
+        for (int i = 0; i < clients.length; ++i) {
+            cs[i] = new Connection(clients[i]);
+        }
+        this.connections = cs;
+        this.shrinkFuture = null;
+    }
+
+    /**
+     * 自适应连接, 同步建立connections.min个连接
+     */
+    KubboConnectionPool(URL url, KubboProtocol protocol) {
+        if (protocol == null) {
+            throw new IllegalArgumentException("protocol == NULL");
+        }
+        this.url = url;
+        this.protocol = protocol;
+        this.max = url.getPositiveParameter(Constants.CONNECTIONS_MAX_KEY, 1);
+        this.min = Math.min(max, url.getPositiveParameter(Constants.CONNECTIONS_MIN_KEY, Constants.DEFAULT_CONNECTIONS_MIN));
+        this.pendingThreshold = url.getPositiveParameter(Constants.CONNECTIONS_PENDING_KEY, Constants.DEFAULT_CONNECTIONS_PENDING);
+        this.idleTimeout = url.getPositiveParameter(Constants.CONNECTIONS_IDLE_KEY, Constants.DEFAULT_CONNECTIONS_IDLE);
+        Connection[] cs = new Connection[min];
+        try {
+            for (int i = 0; i < min; ++i) {
+                cs[i] = new Connection(protocol.initClient(url));
+            }
+        } catch (RuntimeException e) {
+            for (Connection c : cs) {
+                if (c != null) {
+                    c.client.close();
+                }
+            }
+            throw e;
+        }
+        this.connections = cs;
+        long period = Math.max(1000, idleTimeout / 2);
+        this.shrinkFuture = MAINTAINER.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    shrink();
+                } catch (Throwable t) {
+                    logger.warn("Failed to shrink connection pool " + KubboConnectionPool.this.url.getAddress(), t);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 选择未完成请求最少的可用连接, 跳过不可写和只读的连接
+     */
+    Connection select() {
+        Connection[] cs = connections;
+        int start = index.getAndIncrement();
+        Connection best = null;
+        int bestPending = Integer.MAX_VALUE;
+        for (int i = 0; i < cs.length; ++i) {
+            Connection c = cs[(start + i) % cs.length];
+            SessionClient client = c.client;
+            if (!client.isConnected()
+                    || client.hasAttribute(Constants.CHANNEL_ATTRIBUTE_UNWRITABLE_KEY)
+                    || client.hasAttribute(Constants.CHANNEL_ATTRIBUTE_READONLY_KEY)) {
+                continue;
+            }
+            int pending = c.pending.get();
+            if (pending < bestPending) {
+                best = c;
+                bestPending = pending;
+                if (pending == 0) {
+                    break;
+                }
+            }
+        }
+        if (best == null) {
+            // 全部不可用, 仍然发送, 由连接给出具体的异常
+            best = cs[start % cs.length];
+            grow();
+        } else if (bestPending >= pendingThreshold) {
+            grow();
+        }
+        best.lastActive = System.currentTimeMillis();
+        return best;
+    }
+
+    boolean isAvailable() {
+        for (Connection c : connections) {
+            if (c.client.isConnected() && !c.client.hasAttribute(Constants.CHANNEL_ATTRIBUTE_READONLY_KEY)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int size() {
+        return connections.length;
+    }
+
+    /**
+     * 共享时增加引用
+     */
+    boolean retain() {
+        for (;;) {
+            int count = referenceCount.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (referenceCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 引用全部释放后关闭所有连接
+     */
+    void close() {
+        if (referenceCount.decrementAndGet() > 0) {
+            return;
+        }
+        Connection[] cs;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            cs = connections;
+        }
+        if (shrinkFuture != null) {
+            shrinkFuture.cancel(false);
+        }
+        for (Connection c : cs) {
+            try {
+                c.client.close();
+            } catch (Throwable t) {
+                logger.warn(t.getMessage(), t);
+            }
+        }
+    }
+
+    private void grow() {
+        if (protocol == null || closed || connections.length >= max) {
+            return;
+        }
+        if (!growing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            CONNECTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        doGrow();
+                    } catch (Throwable t) {
+                        logger.warn("Failed to grow connection pool " + url.getAddress(), t);
+                    } finally {
+                        growing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 连接线程已满, 之后的请求再次触发扩容
+            growing.set(false);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Skip growing connection pool " + url.getAddress() + ", connector is busy");
+            }
+        } catch (RuntimeException e) {
+            growing.set(false);
+            throw e;
+        }
+    }
+
+    private void doGrow() {
+        if (closed || connections.length >= max) {
+            return;
+        }
+        SessionClient client = protocol.initClient(url);
+        synchronized (this) {
+            if (!closed) {
+                Connection[] cs = Arrays.copyOf(connections, connections.length + 1);
+                cs[cs.length - 1] = new Connection(client);
+                connections = cs;
+                if (logger.isInfoEnabled()) {
+                    logger.info("Connection pool " + url.getAddress() + " grows to " + cs.length);
+                }
+                return;
+            }
+        }
+        client.close();
+    }
+
+    void shrink() {
+        final List<Connection> idles = new ArrayList<Connection>();
+        synchronized (this) {
+            Connection[] cs = connections;
+            if (closed || cs.length <= min) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            List<Connection> remains = new ArrayList<Connection>(cs.length);
+            for (Connection c : cs) {
+                if (cs.length - idles.size() > min
+                        && c.pending.get() == 0
+                        && now - c.lastActive > idleTimeout) {
+                    idles.add(c);
+                } else {
+                    remains.add(c);
+                }
+            }
+            if (idles.isEmpty()) {
+                return;
+            }
+            connections = remains.toArray(new Connection[remains.size()]);
+            if (logger.isInfoEnabled()) {
+                logger.info("Connection pool " + url.getAddress() + " shrinks to " + remains.size());
+            }
+        }
+        // 移除后延迟关闭, 已经选中这些连接的请求仍可发出
+        final int timeout = url.getPositiveParameter(Constants.TIMEOUT_KEY, Constants.DEFAULT_TIMEOUT);
+        MAINTAINER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    CONNECTOR.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            for (Connection c : idles) {
+                                try {
+                                    c.client.close(timeout);
+                                } catch (Throwable t) {
+                                    logger.warn(t.getMessage(), t);
+                                }
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // 连接线程已满, 直接关闭, 不等待未完成的请求
+                    for (Connection c : idles) {
+                        try {
+                            c.client.close();
+                        } catch (Throwable t) {
+                            logger.warn(t.getMessage(), t);
+                        }
+                    }
+                }
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 连接及其未完成的请求数, 作为ResponseListener在请求完成时递减
+     */
+    static final class Connection implements ResponseListener {
+
+        final SessionClient client;
+
+        final AtomicInteger pending = new AtomicInteger();
+
+        volatile long lastActive = System.currentTimeMillis();
+
+        Connection(SessionClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public void done(Response response) {
+            pending.decrementAndGet();
+        }
+
+        @Override
+        public void caught(Throwable exception) {
+            pending.decrementAndGet();
+        }
+    }
+}
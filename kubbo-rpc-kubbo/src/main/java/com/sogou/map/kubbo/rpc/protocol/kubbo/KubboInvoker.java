@@ -1,22 +1,25 @@
 package com.sogou.map.kubbo.rpc.protocol.kubbo;
 
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.locks.ReentrantLock;
 
 import com.sogou.map.kubbo.common.Constants;
 import com.sogou.map.kubbo.common.URL;
-import com.sogou.map.kubbo.common.concurrent.AtomicPositiveInteger;
 import com.sogou.map.kubbo.remote.RemotingException;
 import com.sogou.map.kubbo.remote.TimeoutException;
+import com.sogou.map.kubbo.remote.session.RequestBatch;
 import com.sogou.map.kubbo.remote.session.SessionClient;
 import com.sogou.map.kubbo.remote.session.ResponseFuture;
 import com.sogou.map.kubbo.rpc.Invocation;
+import com.sogou.map.kubbo.rpc.InvocationBatch;
 import com.sogou.map.kubbo.rpc.Invoker;
 import com.sogou.map.kubbo.rpc.Result;
 import com.sogou.map.kubbo.rpc.RpcContext;
 import com.sogou.map.kubbo.rpc.RpcException;
 import com.sogou.map.kubbo.rpc.RpcInvocation;
 import com.sogou.map.kubbo.rpc.RpcResult;
+import com.sogou.map.kubbo.rpc.concurrent.CallbackExecutors;
 import com.sogou.map.kubbo.rpc.concurrent.DefaultListenableFuture;
 import com.sogou.map.kubbo.rpc.protocol.AbstractConsumerInvoker;
 import com.sogou.map.kubbo.rpc.utils.RpcHelper;
@@ -28,10 +31,8 @@ import com.sogou.map.kubbo.rpc.utils.RpcHelper;
  */
 public class KubboInvoker<T> extends AbstractConsumerInvoker<T> {
 
-    private final SessionClient[] sessions;
+    private final KubboConnectionPool pool;
 
-    private final AtomicPositiveInteger index = new AtomicPositiveInteger();
-            
     private final ReentrantLock destroyLock = new ReentrantLock();
     
     private final Set<Invoker<?>> invokers;
@@ -41,13 +42,17 @@ public class KubboInvoker<T> extends AbstractConsumerInvoker<T> {
     }
     
     public KubboInvoker(Class<T> serviceType, URL url, SessionClient[] sessions, Set<Invoker<?>> invokers){
+        this(serviceType, url, new KubboConnectionPool(url, sessions), invokers);
+    }
+    
+    KubboInvoker(Class<T> serviceType, URL url, KubboConnectionPool pool, Set<Invoker<?>> invokers){
         super(serviceType, url, new String[] { 
                     Constants.GROUP_KEY, 
                     Constants.VERSION_KEY, 
                     Constants.TOKEN_KEY, 
                     Constants.TIMEOUT_KEY,
                     Constants.APPLICATION_KEY});
-        this.sessions = sessions;
+        this.pool = pool;
         this.invokers = invokers; 
     }
 
@@ -60,29 +65,45 @@ public class KubboInvoker<T> extends AbstractConsumerInvoker<T> {
         inv.setAttachment(Constants.PATH_KEY, getUrl().getPath());
         inv.setAttachment(Constants.INTERFACE_KEY, getInterface().getName());
         
-        //select one client
-        SessionClient session;
-        if (sessions.length == 1) {
-            session = sessions[0];
-        } else {
-            session = sessions[index.getAndIncrement() % sessions.length];
+        //timeout, not exceeding the remaining time of the request being handled
+        int timeout = getUrl().getMethodParameter(methodName, Constants.TIMEOUT_KEY,Constants.DEFAULT_TIMEOUT);
+        long deadline = RpcContext.get().getDeadline();
+        if (deadline > 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new RpcException(RpcException.TIMEOUT_EXCEPTION, "Invocation deadline exceeded before sending. method: " 
+                        + invocation.getMethodName() + ", provider: " + getUrl());
+            }
+            timeout = (int) Math.min(timeout, remaining);
         }
+        inv.setAttachment(Constants.TIMEOUT_KEY, String.valueOf(timeout));
+        
+        //select the least pending connection
+        KubboConnectionPool.Connection connection = pool.select();
+        SessionClient session = connection.client;
         
         try {
             boolean isAsync = RpcHelper.isAsync(getUrl(), invocation);
             boolean isOneway = RpcHelper.isOneway(getUrl(), invocation);
-            int timeout = getUrl().getMethodParameter(methodName, Constants.TIMEOUT_KEY,Constants.DEFAULT_TIMEOUT);
+            InvocationBatch batch = RpcContext.get().getBatch();
             if (isOneway) {
                 boolean blocking = getUrl().getMethodParameter(methodName, Constants.SEND_BLOCKING_KEY, Constants.DEFAULT_SEND_BLOCKING);
                 session.send(inv, blocking);
                 RpcContext.get().setFuture(null);
                 return RpcResult.ONEWAY;
+            } else if (batch != null) {
+                // 批量调用, 加入连接上的批量请求, 由batch统一发送
+                Executor callbackExecutor = CallbackExecutors.getExecutor(getUrl());
+                ResponseFuture internalFuture = request(connection, batch.getRequestBatch(session), inv, timeout);
+                RpcContext.get().setFuture(new DefaultListenableFuture<Object>(internalFuture, callbackExecutor));
+                return RpcResult.ASYNC;
             } else if (isAsync) {
-                ResponseFuture internalFuture = session.request(inv, timeout);
-                RpcContext.get().setFuture(new DefaultListenableFuture<Object>(internalFuture));
+                Executor callbackExecutor = CallbackExecutors.getExecutor(getUrl());
+                ResponseFuture internalFuture = request(connection, null, inv, timeout);
+                RpcContext.get().setFuture(new DefaultListenableFuture<Object>(internalFuture, callbackExecutor));
                 return RpcResult.ASYNC;
             } else {
-                ResponseFuture internalFuture = session.request(inv, timeout);
+                ResponseFuture internalFuture = request(connection, null, inv, timeout);
                 RpcContext.get().setFuture(null);
                 return (Result)internalFuture.get();
             }
@@ -93,16 +114,30 @@ public class KubboInvoker<T> extends AbstractConsumerInvoker<T> {
         }
     }
     
+    /*
+     * 请求完成(含超时)时递减连接的未完成请求数
+     */
+    private static ResponseFuture request(KubboConnectionPool.Connection connection, RequestBatch batch, Object request, int timeout) throws RemotingException {
+        connection.pending.incrementAndGet();
+        ResponseFuture future;
+        try {
+            future = batch == null ? connection.client.request(request, timeout) : batch.request(request, timeout);
+        } catch (RemotingException e) {
+            connection.pending.decrementAndGet();
+            throw e;
+        } catch (RuntimeException e) {
+            connection.pending.decrementAndGet();
+            throw e;
+        }
+        future.addListener(connection);
+        return future;
+    }
+    
     @Override
     public boolean isAvailable() {
         if (!super.isAvailable())
             return false;
-        for (SessionClient client : sessions){
-            if (client.isConnected() && !client.hasAttribute(Constants.CHANNEL_ATTRIBUTE_READONLY_KEY)){
-                return true;
-            }
-        }
-        return false;
+        return pool.isAvailable();
     }
 
     @Override
@@ -120,13 +155,7 @@ public class KubboInvoker<T> extends AbstractConsumerInvoker<T> {
                 if (invokers != null){
                     invokers.remove(this);
                 }
-                for (SessionClient client : sessions) {
-                    try {
-                        client.close();
-                    } catch (Throwable t) {
-                        logger.warn(t.getMessage(), t);
-                    }
-                }
+                pool.close();
                 
             }finally {
                 destroyLock.unlock();
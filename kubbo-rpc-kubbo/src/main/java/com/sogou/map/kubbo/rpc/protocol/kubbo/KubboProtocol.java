@@ -22,6 +22,7 @@ import com.sogou.map.kubbo.rpc.Exporter;
 import com.sogou.map.kubbo.rpc.Invocation;
 import com.sogou.map.kubbo.rpc.Invoker;
 import com.sogou.map.kubbo.rpc.Result;
+import com.sogou.map.kubbo.rpc.RpcContext;
 import com.sogou.map.kubbo.rpc.RpcException;
 import com.sogou.map.kubbo.rpc.protocol.AbstractProtocol;
 import com.sogou.map.kubbo.rpc.protocol.kubbo.codec.KubboCodec;
@@ -44,14 +45,23 @@ public class KubboProtocol extends AbstractProtocol {
     
     private final Map<String, ReferenceCountSessionClient> referenceClientMap = new ConcurrentHashMap<String, ReferenceCountSessionClient>(); // <host:port,SessionClient>
     
+    private final Map<String, KubboConnectionPool> poolMap = new ConcurrentHashMap<String, KubboConnectionPool>(); // <host:port,KubboConnectionPool>
+    
     private SessionHandler requestHandler = new SessionHandlerAdapter() {
         @Override
         public Object reply(SessionChannel channel, Object message) throws RemotingException {
             if (message instanceof Invocation) {
                 Invocation inv = (Invocation) message;
                 Invoker<?> invoker = getInvoker(channel, inv);
-                Result result = invoker.invoke(inv);
-                return result;
+                // 嵌套调用继承剩余的时间, 服务实现可以检查是否已被取消
+                RpcContext context = RpcContext.get();
+                context.setRequest(inv instanceof DecodeableRpcInvocation ? ((DecodeableRpcInvocation) inv).getRequest() : null);
+                try {
+                    Result result = invoker.invoke(inv);
+                    return result;
+                } finally {
+                    context.setRequest(null);
+                }
             }
             throw new RemotingException(channel, 
                     "Unsupported request: " + message == null ? null : (message.getClass().getName() + ": " + message) 
@@ -134,7 +144,13 @@ public class KubboProtocol extends AbstractProtocol {
     public <T> Invoker<T> refer(Class<T> serviceType, URL url) throws RpcException {
         // create rpc invoker.
         
-        KubboInvoker<T> invoker = new KubboInvoker<T>(serviceType, url, getClients(url), invokers);
+        KubboInvoker<T> invoker;
+        if (url.getParameter(Constants.CONNECTIONS_MAX_KEY, Constants.DEFAULT_CONNECTIONS_MAX) > 0) {
+            //自适应连接池, 同一地址共享
+            invoker = new KubboInvoker<T>(serviceType, url, getSharedPool(url), invokers);
+        } else {
+            invoker = new KubboInvoker<T>(serviceType, url, getClients(url), invokers);
+        }
         invokers.add(invoker);
         
         logger.info("Reference " + serviceType.getCanonicalName() + " attached to " + url.getAddress());
@@ -185,12 +201,28 @@ public class KubboProtocol extends AbstractProtocol {
         return client; 
     }
 
+    /**
+     * 获取共享的自适应连接池
+     * @param url server url
+     * @return KubboConnectionPool
+     */
+    private synchronized KubboConnectionPool getSharedPool(URL url){
+        String key = url.getAddress();
+        KubboConnectionPool pool = poolMap.get(key);
+        if (pool != null && pool.retain()) {
+            return pool;
+        }
+        pool = new KubboConnectionPool(url, this);
+        poolMap.put(key, pool);
+        return pool;
+    }
+
     /**
      * 创建新连接.
      * @param url server url
      * @return SessionClient
      */
-    private SessionClient initClient(URL url) {
+    SessionClient initClient(URL url) {
         //默认开启heartbeat
         url = url.addParameterIfAbsent(Constants.HEARTBEAT_KEY, String.valueOf(Constants.DEFAULT_HEARTBEAT));
 
@@ -238,5 +270,7 @@ public class KubboProtocol extends AbstractProtocol {
             }
         }
         super.destroy();
+        //连接池随invoker销毁关闭
+        poolMap.clear();
     }
 }
\ No newline at end of file
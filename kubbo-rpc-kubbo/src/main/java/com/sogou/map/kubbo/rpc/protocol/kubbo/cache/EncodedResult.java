@@ -0,0 +1,63 @@
+package com.sogou.map.kubbo.rpc.protocol.kubbo.cache;
+
+import java.util.Collections;
+import java.util.Map;
+
+import com.sogou.map.kubbo.remote.session.EncodedMessage;
+import com.sogou.map.kubbo.rpc.Result;
+
+/**
+ * 已经按响应格式编码的结果, 编码时直接写出字节, 不再序列化.
+ * 同时保留原始的返回值, 供外层的filter和injvm调用使用, 多个请求共享, 不能修改.
+ *
+ * @author liufuliang
+ */
+public class EncodedResult extends EncodedMessage implements Result {
+
+    private final Object value;
+
+    public EncodedResult(byte serializationId, byte[] bytes, Object value) {
+        super(serializationId, bytes);
+        this.value = value;
+    }
+
+    @Override
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    public boolean hasException() {
+        return false;
+    }
+
+    @Override
+    public Throwable getException() {
+        return null;
+    }
+
+    @Override
+    public Object recreate() throws Throwable {
+        return value;
+    }
+
+    @Override
+    public Map<String, String> getAttachments() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public String getAttachment(String key) {
+        return null;
+    }
+
+    @Override
+    public String getAttachment(String key, String defaultValue) {
+        return defaultValue;
+    }
+
+    @Override
+    public String toString() {
+        return "EncodedResult [result=" + value + ", bytes=" + getBytes().length + "]";
+    }
+}
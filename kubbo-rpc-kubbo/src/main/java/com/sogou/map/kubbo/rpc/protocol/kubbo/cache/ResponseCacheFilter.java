@@ -0,0 +1,123 @@
+package com.sogou.map.kubbo.rpc.protocol.kubbo.cache;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.sogou.map.kubbo.common.Constants;
+import com.sogou.map.kubbo.common.extension.Activate;
+import com.sogou.map.kubbo.common.logger.Logger;
+import com.sogou.map.kubbo.common.logger.LoggerFactory;
+import com.sogou.map.kubbo.common.util.BoundedCache;
+import com.sogou.map.kubbo.remote.serialization.Serialization;
+import com.sogou.map.kubbo.remote.serialization.Serializations;
+import com.sogou.map.kubbo.rpc.Exporter;
+import com.sogou.map.kubbo.rpc.ExporterListener;
+import com.sogou.map.kubbo.rpc.Filter;
+import com.sogou.map.kubbo.rpc.Invocation;
+import com.sogou.map.kubbo.rpc.Invoker;
+import com.sogou.map.kubbo.rpc.Result;
+import com.sogou.map.kubbo.rpc.RpcException;
+import com.sogou.map.kubbo.rpc.filters.Caches;
+import com.sogou.map.kubbo.rpc.filters.Caches.Key;
+import com.sogou.map.kubbo.rpc.protocol.kubbo.codec.KubboCodec;
+
+/**
+ * 服务端响应缓存, 用于幂等的方法, 通过cache参数按方法开启, 如echo.cache=lru.
+ * <p>
+ * 以方法和序列化后的参数为key, 缓存按响应格式编码后的结果;
+ * 命中时不再调用服务, 编码时直接写出缓存的字节, 不再序列化. 只缓存正常返回的结果, 不缓存异常.
+ * 在filter链的最内层, 命中的请求同样经过日志, 统计等filter.
+ * <p>
+ * 按服务的url分别缓存, 同时作为ExporterListener, 服务取消暴露时丢弃该服务的缓存.
+ *
+ * @author liufuliang
+ */
+@Activate(group = Constants.PROVIDER, order = 10000, value = Constants.CACHE_KEY)
+public class ResponseCacheFilter implements Filter, ExporterListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResponseCacheFilter.class);
+
+    // 没有开启缓存的方法
+    private static final Object NONE = new Object();
+
+    // 服务的url(toFullString, 有缓存) -> 方法名 -> 缓存
+    private final ConcurrentMap<String, ConcurrentMap<String, Object>> caches = new ConcurrentHashMap<String, ConcurrentMap<String, Object>>();
+
+    @Override
+    public Result invoke(Invoker<?> invoker, Invocation invocation) throws RpcException {
+        BoundedCache<Key, EncodedResult> cache = getCache(invoker, invocation.getMethodName());
+        if (cache == null) {
+            return invoker.invoke(invocation);
+        }
+        Serialization serialization = Serializations.getSerialization(invoker.getUrl());
+        Key key;
+        try {
+            key = Caches.key(serialization, invocation);
+        } catch (IOException e) {
+            if (logger.isWarnEnabled()) {
+                logger.warn("Fail to encode arguments of " + invocation.getMethodName() + " as cache key, cause: " + e.getMessage(), e);
+            }
+            return invoker.invoke(invocation);
+        }
+
+        EncodedResult cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        Result result = invoker.invoke(invocation);
+        if (result == null || result.hasException()) {
+            return result;
+        }
+        try {
+            // 返回编码后的结果, 第一次响应同样不再序列化
+            EncodedResult encoded = new EncodedResult(serialization.getContentTypeId(),
+                    KubboCodec.encodeResult(serialization, result), result.getValue());
+            cache.put(key, encoded);
+            return encoded;
+        } catch (IOException e) {
+            if (logger.isWarnEnabled()) {
+                logger.warn("Fail to encode result of " + invocation.getMethodName() + " for cache, cause: " + e.getMessage(), e);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @return 方法没有开启缓存时返回null
+     */
+    @SuppressWarnings("unchecked")
+    BoundedCache<Key, EncodedResult> getCache(Invoker<?> invoker, String methodName) {
+        String name = invoker.getUrl().toFullString();
+        ConcurrentMap<String, Object> methods = caches.get(name);
+        if (methods == null) {
+            methods = new ConcurrentHashMap<String, Object>();
+            ConcurrentMap<String, Object> old = caches.putIfAbsent(name, methods);
+            if (old != null) {
+                methods = old;
+            }
+        }
+        Object cache = methods.get(methodName);
+        if (cache == null) {
+            cache = Caches.create(invoker.getUrl(), methodName);
+            if (cache == null) {
+                cache = NONE;
+            }
+            Object old = methods.putIfAbsent(methodName, cache);
+            if (old != null) {
+                cache = old;
+            }
+        }
+        return cache == NONE ? null : (BoundedCache<Key, EncodedResult>) cache;
+    }
+
+    @Override
+    public void exported(Exporter<?> exporter) throws RpcException {
+    }
+
+    @Override
+    public void unexported(Exporter<?> exporter) {
+        caches.remove(exporter.getInvoker().getUrl().toFullString());
+    }
+}
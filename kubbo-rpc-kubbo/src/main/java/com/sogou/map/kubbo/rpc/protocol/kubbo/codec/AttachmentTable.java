@@ -0,0 +1,326 @@
+package com.sogou.map.kubbo.rpc.protocol.kubbo.codec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sogou.map.kubbo.common.util.LongObjectHashMap;
+import com.sogou.map.kubbo.remote.Channel;
+import com.sogou.map.kubbo.remote.serialization.ObjectInput;
+import com.sogou.map.kubbo.remote.serialization.ObjectOutput;
+
+/**
+ * 每个连接的attachment表(类似HPACK的动态表), 作为attribute保存在传输层的channel上.
+ * 重复出现的key/value对分配编号, 之后的请求只发送编号; 其它的key/value按字段写入, 不再通过序列化HashMap.
+ * <p>
+ * 同一个key连续两次出现相同的value时才加入表, 每次都不同的value(如trace id)不占用表的空间.
+ * 与方法字典相同, 客户端随请求发送插入指令, 收到该请求的响应后才引用编号, 请求丢失时重新发送.
+ * 表满后由客户端按CLOCK算法淘汰最近没有使用的项, 在其编号上插入新的项; 服务端按请求的顺序解码, 
+ * 插入之前的请求仍引用旧的项, 淘汰的项收到确认时忽略.
+ * <p>
+ * 格式: short类型的个数, -1表示之后是序列化的Map. 每一项以short开头:
+ * <ul>
+ * <li>&gt;=0: 表中的编号</li>
+ * <li>-1: 不加入表, 之后是key和value</li>
+ * <li>-2: value为null, 之后是key</li>
+ * <li>&lt;=-3: 加入表中编号为-(code+3)的位置, 之后是key和value</li>
+ * </ul>
+ * key以short开头, &gt;=0表示与表中该编号的key相同, -1表示之后是字符串.
+ * <p>
+ * 编解码都在连接的IO线程中进行, 非线程安全.
+ *
+ * @author liufuliang
+ */
+public final class AttachmentTable {
+
+    private static final String TABLE_KEY = AttachmentTable.class.getName() + ".TABLE";
+
+    // 每个连接最多的key/value对, 表满后淘汰旧的项
+    static final int MAX_SIZE = 512;
+
+    // 每个连接最多记录的key, 超过后新的key按字段写入
+    static final int MAX_KEYS = 1024;
+
+    // 超过该长度的value不加入表
+    static final int MAX_VALUE_LENGTH = 1024;
+
+    private static final short LEGACY = -1;
+
+    private static final short LITERAL = -1;
+
+    private static final short NULL_VALUE = -2;
+
+    private static final short INSERT = -3;
+
+    /*
+     * 客户端
+     */
+    private final Map<String, Key> keys = new HashMap<String, Key>();
+
+    // 等待确认的插入, 请求id -> 插入的项
+    private final LongObjectHashMap<List<Entry>> unacked = new LongObjectHashMap<List<Entry>>();
+
+    // 编号 -> 项
+    private Entry[] slots = new Entry[16];
+
+    private int size = 0;
+
+    // 淘汰时的CLOCK指针
+    private int hand = 0;
+
+    /*
+     * 服务端, 编号 -> 项
+     */
+    private Entry[] entries = new Entry[16];
+
+    AttachmentTable() {
+    }
+
+    public static AttachmentTable get(Channel channel) {
+        AttachmentTable table = (AttachmentTable) channel.getAttribute(TABLE_KEY);
+        if (table == null) {
+            table = new AttachmentTable();
+            channel.setAttribute(TABLE_KEY, table);
+        }
+        return table;
+    }
+
+    /**
+     * 客户端: 收到响应
+     */
+    void received(long id) {
+        if (unacked.isEmpty()) {
+            return;
+        }
+        List<Entry> inserted = unacked.remove(id);
+        if (inserted != null) {
+            for (Entry entry : inserted) {
+                if (!entry.evicted) {
+                    entry.acked = true;
+                    entry.key.indexed = entry.index;
+                }
+            }
+        }
+    }
+
+    /**
+     * 客户端: 写入attachments
+     */
+    void write(ObjectOutput out, Map<String, String> attachments, long requestId) throws IOException {
+        if (attachments == null || attachments.containsKey(null) || attachments.size() > Short.MAX_VALUE) {
+            out.writeShort(LEGACY);
+            out.writeObject(attachments);
+            return;
+        }
+        out.writeShort((short) attachments.size());
+        List<Entry> inserted = null;
+        for (Map.Entry<String, String> attachment : attachments.entrySet()) {
+            String name = attachment.getKey();
+            String value = attachment.getValue();
+            Key key = keys.get(name);
+            if (key == null) {
+                key = new Key(name);
+                if (keys.size() < MAX_KEYS) {
+                    keys.put(name, key);
+                }
+            }
+            if (value == null) {
+                out.writeShort(NULL_VALUE);
+                writeKey(out, key);
+                continue;
+            }
+            Entry entry = key.values.get(value);
+            if (entry == null && value.equals(key.last) && value.length() <= MAX_VALUE_LENGTH) {
+                entry = allocate(key, value);
+            }
+            key.last = value;
+            if (entry != null) {
+                entry.referenced = true;
+            }
+            if (entry == null) {
+                out.writeShort(LITERAL);
+                writeKey(out, key);
+                out.writeUTF(value);
+            } else if (entry.acked) {
+                out.writeShort((short) entry.index);
+            } else {
+                out.writeShort((short) (INSERT - entry.index));
+                writeKey(out, key);
+                out.writeUTF(value);
+                if (inserted == null) {
+                    inserted = new ArrayList<Entry>(4);
+                }
+                inserted.add(entry);
+            }
+        }
+        if (inserted != null) {
+            // 没有响应(单向调用或超时)的请求不会被确认, 这些项之后会重新插入
+            if (unacked.size() >= MAX_SIZE) {
+                unacked.clear();
+            }
+            unacked.put(requestId, inserted);
+        }
+    }
+
+    /**
+     * 客户端: 分配编号, 表满时淘汰最近没有使用的项
+     */
+    private Entry allocate(Key key, String value) {
+        int index;
+        if (size < MAX_SIZE) {
+            index = size++;
+            if (index >= slots.length) {
+                slots = Arrays.copyOf(slots, Math.min(MAX_SIZE, slots.length << 1));
+            }
+        } else {
+            index = evict();
+        }
+        Entry entry = new Entry(index, key, value);
+        slots[index] = entry;
+        key.values.put(value, entry);
+        return entry;
+    }
+
+    private int evict() {
+        for (;;) {
+            int index = hand;
+            Entry victim = slots[index];
+            hand = (hand + 1) % MAX_SIZE;
+            if (victim.referenced) {
+                victim.referenced = false;
+                continue;
+            }
+            victim.evicted = true;
+            Key key = victim.key;
+            key.values.remove(victim.value);
+            if (key.indexed == index) {
+                key.indexed = -1;
+                for (Entry entry : key.values.values()) {
+                    if (entry.acked) {
+                        key.indexed = entry.index;
+                        break;
+                    }
+                }
+            }
+            return index;
+        }
+    }
+
+    private static void writeKey(ObjectOutput out, Key key) throws IOException {
+        if (key.indexed >= 0) {
+            out.writeShort((short) key.indexed);
+        } else {
+            out.writeShort((short) -1);
+            out.writeUTF(key.name);
+        }
+    }
+
+    /**
+     * 服务端: 读取attachments
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, String> read(ObjectInput in) throws IOException {
+        short count = in.readShort();
+        if (count == LEGACY) {
+            try {
+                return (Map<String, String>) in.readObject(Map.class);
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+        if (count < 0) {
+            throw new IOException("Illegal attachment count " + count);
+        }
+        Map<String, String> attachments = new HashMap<String, String>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; ++i) {
+            short code = in.readShort();
+            if (code >= 0) {
+                Entry entry = get(code);
+                attachments.put(entry.name, entry.value);
+            } else if (code == LITERAL) {
+                attachments.put(readKey(in), in.readUTF());
+            } else if (code == NULL_VALUE) {
+                attachments.put(readKey(in), null);
+            } else {
+                String name = readKey(in);
+                String value = in.readUTF();
+                insert(INSERT - code, name, value);
+                attachments.put(name, value);
+            }
+        }
+        return attachments;
+    }
+
+    private String readKey(ObjectInput in) throws IOException {
+        short index = in.readShort();
+        return index >= 0 ? get(index).name : in.readUTF();
+    }
+
+    private void insert(int index, String name, String value) throws IOException {
+        if (index >= MAX_SIZE) {
+            throw new IOException("Illegal attachment index " + index + ", max " + MAX_SIZE);
+        }
+        if (index >= entries.length) {
+            entries = Arrays.copyOf(entries, Math.min(MAX_SIZE, Math.max(index + 1, entries.length << 1)));
+        }
+        entries[index] = new Entry(index, name, value);
+    }
+
+    private Entry get(int index) throws IOException {
+        Entry entry = index < entries.length ? entries[index] : null;
+        if (entry == null) {
+            throw new IOException("Undefined attachment index " + index);
+        }
+        return entry;
+    }
+
+    // 客户端: 同一个key的状态
+    private static final class Key {
+        final String name;
+
+        final Map<String, Entry> values = new HashMap<String, Entry>(4);
+
+        // 上一次的value
+        String last;
+
+        // 已确认的任意一项的编号, 用于引用key
+        int indexed = -1;
+
+        Key(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final class Entry {
+        final int index;
+
+        final String name;
+
+        final String value;
+
+        // 客户端
+        Key key;
+
+        boolean acked = false;
+
+        // 上次淘汰扫描之后被使用过
+        boolean referenced = false;
+
+        // 编号已分配给其它项
+        boolean evicted = false;
+
+        Entry(int index, Key key, String value) {
+            this(index, key.name, value);
+            this.key = key;
+        }
+
+        Entry(int index, String name, String value) {
+            this.index = index;
+            this.name = name;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.sogou.map.kubbo.rpc.protocol.kubbo.codec;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按服务(path)和方法名统计的解码耗时, 请求(服务端)和响应(客户端)分开统计.
+ * 自适应解码(decode.adaptive)时, 平均耗时超过阈值的方法在task线程中解码.
+ * <p>
+ * 统计的是参数(请求)或返回值(响应)的解码耗时, 不包括方法名和attachments.
+ * 旧格式的请求(低版本客户端或关闭了dictionary)在参数之后才有path, 不统计, 自适应解码只按消息体大小判断.
+ * 平均耗时为指数加权移动平均, 并发更新时可能丢失个别样本.
+ *
+ * @author liufuliang
+ */
+public final class DecodeStatistics {
+
+    // 最多统计的方法数, 避免异常的方法名无限增长
+    private static final int MAX_METHODS = 4096;
+
+    // 移动平均的权重为1/8
+    private static final int AVERAGE_SHIFT = 3;
+
+    private static final Table REQUESTS = new Table();
+
+    private static final Table RESPONSES = new Table();
+
+    private final String service;
+
+    private final String method;
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong deferred = new AtomicLong();
+
+    private final AtomicLong elapsed = new AtomicLong();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private volatile long averageElapsed = 0;
+
+    private DecodeStatistics(String service, String method) {
+        this.service = service;
+        this.method = method;
+    }
+
+    /**
+     * @param service 服务的path
+     * @return 请求的统计, service或method为null, 或方法数超过上限时返回null
+     */
+    public static DecodeStatistics request(String service, String method) {
+        return REQUESTS.get(service, method);
+    }
+
+    /**
+     * @param service 服务的path
+     * @return 响应的统计, service或method为null, 或方法数超过上限时返回null
+     */
+    public static DecodeStatistics response(String service, String method) {
+        return RESPONSES.get(service, method);
+    }
+
+    /**
+     * @return 服务#方法名 -> 请求的解码统计, 当前的快照
+     */
+    public static Map<String, DecodeStatistics> getRequestStatistics() {
+        return REQUESTS.snapshot();
+    }
+
+    /**
+     * @return 服务#方法名 -> 响应的解码统计, 当前的快照
+     */
+    public static Map<String, DecodeStatistics> getResponseStatistics() {
+        return RESPONSES.snapshot();
+    }
+
+    /**
+     * 记录一次解码
+     *
+     * @param nanos 耗时(纳秒)
+     * @param length 消息体的字节数
+     */
+    public void record(long nanos, int length) {
+        count.incrementAndGet();
+        elapsed.addAndGet(nanos);
+        bytes.addAndGet(length);
+        long average = averageElapsed;
+        averageElapsed = average == 0 ? nanos : average + ((nanos - average) >> AVERAGE_SHIFT);
+    }
+
+    void deferred() {
+        deferred.incrementAndGet();
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return 解码次数
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return 在task线程中解码的次数
+     */
+    public long getDeferred() {
+        return deferred.get();
+    }
+
+    /**
+     * @return 总耗时(纳秒)
+     */
+    public long getElapsed() {
+        return elapsed.get();
+    }
+
+    /**
+     * @return 总字节数
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return 最近的平均耗时(纳秒)
+     */
+    public long getAverageElapsed() {
+        return averageElapsed;
+    }
+
+    @Override
+    public String toString() {
+        long c = count.get();
+        return "DecodeStatistics [service=" + service + ", method=" + method + ", count=" + c + ", deferred=" + deferred.get()
+                + ", averageElapsed=" + averageElapsed + "ns, averageBytes=" + (c == 0 ? 0 : bytes.get() / c) + "]";
+    }
+
+    // 服务 -> 方法名 -> 统计, 查找时不需要拼接key
+    private static final class Table {
+        private final ConcurrentMap<String, ConcurrentMap<String, DecodeStatistics>> services = new ConcurrentHashMap<String, ConcurrentMap<String, DecodeStatistics>>();
+
+        private final AtomicInteger size = new AtomicInteger();
+
+        DecodeStatistics get(String service, String method) {
+            if (service == null || method == null) {
+                return null;
+            }
+            ConcurrentMap<String, DecodeStatistics> methods = services.get(service);
+            DecodeStatistics s = methods == null ? null : methods.get(method);
+            if (s != null) {
+                return s;
+            }
+            if (size.get() >= MAX_METHODS) {
+                return null;
+            }
+            if (methods == null) {
+                methods = new ConcurrentHashMap<String, DecodeStatistics>();
+                ConcurrentMap<String, DecodeStatistics> old = services.putIfAbsent(service, methods);
+                if (old != null) {
+                    methods = old;
+                }
+            }
+            s = new DecodeStatistics(service, method);
+            DecodeStatistics old = methods.putIfAbsent(method, s);
+            if (old != null) {
+                return old;
+            }
+            size.incrementAndGet();
+            return s;
+        }
+
+        Map<String, DecodeStatistics> snapshot() {
+            Map<String, DecodeStatistics> snapshot = new HashMap<String, DecodeStatistics>();
+            for (Map<String, DecodeStatistics> methods : services.values()) {
+                for (DecodeStatistics s : methods.values()) {
+                    snapshot.put(s.service + "#" + s.method, s);
+                }
+            }
+            return snapshot;
+        }
+    }
+}
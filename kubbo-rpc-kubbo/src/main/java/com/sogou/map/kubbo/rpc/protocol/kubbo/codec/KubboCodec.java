@@ -1,20 +1,26 @@
 package com.sogou.map.kubbo.rpc.protocol.kubbo.codec;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
 import com.sogou.map.kubbo.common.Constants;
+import com.sogou.map.kubbo.common.URL;
 import com.sogou.map.kubbo.common.Version;
 import com.sogou.map.kubbo.common.lang.Reflects;
 import com.sogou.map.kubbo.remote.Channel;
 import com.sogou.map.kubbo.remote.Codec;
 import com.sogou.map.kubbo.remote.buffer.ChannelBuffer;
+import com.sogou.map.kubbo.remote.buffer.ChannelBufferInputStream;
 import com.sogou.map.kubbo.remote.buffer.UnsafeByteArrayInputStream;
 import com.sogou.map.kubbo.remote.serialization.ObjectOutput;
 import com.sogou.map.kubbo.remote.serialization.Serialization;
+import com.sogou.map.kubbo.remote.serialization.Serializations;
+import com.sogou.map.kubbo.remote.session.EncodedMessage;
 import com.sogou.map.kubbo.remote.session.Request;
 import com.sogou.map.kubbo.remote.session.Response;
 import com.sogou.map.kubbo.remote.session.codec.SessionCodec;
+import com.sogou.map.kubbo.remote.session.inner.InternalResponseFuture;
 import com.sogou.map.kubbo.remote.transport.MessageArray;
 import com.sogou.map.kubbo.rpc.Result;
 import com.sogou.map.kubbo.rpc.RpcInvocation;
@@ -40,6 +46,11 @@ public class KubboCodec extends SessionCodec implements Codec {
 
     public static final byte FLAG_RESPONSE_NULL_VALUE = 2;
 
+    // 字典压缩的格式中参数之前的标记: 逐个序列化的参数, 或单独编码的参数(writeBytes)
+    public static final byte ARGUMENTS_INLINE = 0;
+
+    public static final byte ARGUMENTS_ENCODED = 1;
+
     public static final Object[] EMPTY_OBJECT_ARRAY = new Object[0];
 
     public static final Class<?>[] EMPTY_CLASS_ARRAY = new Class<?>[0];
@@ -47,27 +58,43 @@ public class KubboCodec extends SessionCodec implements Codec {
     @Override
     public Object decode(Channel channel, ChannelBuffer buffer) throws IOException {
         int save = buffer.readerIndex();
-        MessageArray result = MessageArray.create();
+        Object first = null;
+        MessageArray result = null;
         do {
             Object obj = super.decode(channel, buffer);
             if (obj == DecodeResult.NEED_MORE_INPUT) {
                 buffer.readerIndex(save);
                 break;
-            } else {
-                result.addMessage(obj);
+            }
+            if (!(obj instanceof MessageArray)) {
                 logMessageLength(obj, buffer.readerIndex() - save);
-                save = buffer.readerIndex();
+            }
+            save = buffer.readerIndex();
+            if (first == null) {
+                // 只有一个消息(或一个批量帧)时不创建MessageArray
+                first = obj;
+            } else {
+                if (result == null) {
+                    result = MessageArray.create();
+                    addMessage(result, first);
+                }
+                addMessage(result, obj);
             }
         } while (true);
 
-        if (result.isEmpty()) {
+        if (first == null) {
             return DecodeResult.NEED_MORE_INPUT;
         }
-        if (result.size() == 1) {
-            return result.get(0);
-        }
+        return result == null ? first : result;
+    }
 
-        return result;
+    // 批量帧展开
+    private static void addMessage(MessageArray result, Object obj) {
+        if (obj instanceof MessageArray) {
+            result.addMessages(((MessageArray) obj).getMessages());
+        } else {
+            result.addMessage(obj);
+        }
     }
 
     private void logMessageLength(Object result, int bytes) {
@@ -88,22 +115,95 @@ public class KubboCodec extends SessionCodec implements Codec {
     }
     
     
+    @Override
+    protected Object decodeBody(Channel channel, InputStream is, byte flag, byte status, long id) throws IOException {
+        if ((flag & FLAG_REQUEST) == 0) {
+            MethodDictionary.get(channel).received(id, (flag & FLAG_EXTENDED) != 0);
+            AttachmentTable.get(channel).received(id);
+        }
+        return super.decodeBody(channel, is, flag, status, id);
+    }
+
+    @Override
+    protected void encodeRequestData(Channel channel, ObjectOutput out, Request request) throws IOException {
+        RpcInvocation inv = (RpcInvocation) request.getData();
+        MethodDictionary dictionary = MethodDictionary.get(channel);
+        if (!dictionary.isSupported()) {
+            encodeRequestData(channel, out, inv);
+            return;
+        }
+        // 方法名为空字符串表示使用字典压缩
+        out.writeUTF("");
+        dictionary.write(out, inv.getMethodName(), inv.getParameterTypes(), request.getId());
+        // attachments在参数之前, 服务端在io线程中解码attachments, 参数可以延迟解码
+        AttachmentTable.get(channel).write(out, inv.getAttachments(), request.getId());
+        if (inv.isEncodeOnce()) {
+            // 重试或广播时直接写出第一次编码的参数
+            out.writeByte(ARGUMENTS_ENCODED);
+            out.writeBytes(getEncodedArguments(channel, inv).getBytes());
+        } else {
+            out.writeByte(ARGUMENTS_INLINE);
+            encodeArguments(out, inv);
+        }
+    }
+
     @Override
     protected void encodeRequestData(Channel channel, ObjectOutput out, Object data) throws IOException {
         RpcInvocation inv = (RpcInvocation) data;
         out.writeUTF(inv.getMethodName());
         out.writeUTF(Reflects.getDesc(inv.getParameterTypes()));
+        encodeArguments(out, inv);
+        out.writeObject(inv.getAttachments());
+    }
+
+    // 参数单独编码, 按序列化方式缓存在invocation上; 多个连接并发编码时可能重复编码, 结果相同
+    private static EncodedMessage getEncodedArguments(Channel channel, RpcInvocation inv) throws IOException {
+        Serialization serialization = Serializations.getSerialization(channel.getUrl());
+        EncodedMessage encoded = inv.getEncodedArguments();
+        if (encoded == null || encoded.getSerializationId() != serialization.getContentTypeId()) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream(256);
+            ObjectOutput out = serialization.serialize(stream);
+            try {
+                encodeArguments(out, inv);
+                out.flushBuffer();
+            } finally {
+                Serializations.releaseSafely(out);
+            }
+            encoded = new EncodedMessage(serialization.getContentTypeId(), stream.toByteArray());
+            inv.setEncodedArguments(encoded);
+        }
+        return encoded;
+    }
+
+    private static void encodeArguments(ObjectOutput out, RpcInvocation inv) throws IOException {
         Object[] args = inv.getArguments();
         if (args != null)
             for (int i = 0; i < args.length; i++){
                 out.writeObject(args[i]);
             }
-        out.writeObject(inv.getAttachments());
     }
 
     @Override
     protected void encodeResponseData(Channel channel, ObjectOutput out, Object data) throws IOException {        
-        Result result = (Result) data;
+        encodeResult(out, (Result) data);
+    }
+
+    /**
+     * 按响应的格式单独编码结果, 编码后的字节可以作为{@link EncodedMessage}直接写出
+     */
+    public static byte[] encodeResult(Serialization serialization, Result result) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(256);
+        ObjectOutput out = serialization.serialize(stream);
+        try {
+            encodeResult(out, result);
+            out.flushBuffer();
+        } finally {
+            Serializations.releaseSafely(out);
+        }
+        return stream.toByteArray();
+    }
+
+    private static void encodeResult(ObjectOutput out, Result result) throws IOException {
         if(result.hasException()){
             out.writeByte(FLAG_RESPONSE_EXCEPTION);
             out.writeObject(result.getException());
@@ -121,32 +221,83 @@ public class KubboCodec extends SessionCodec implements Codec {
     @Override
     protected Object decodeRequestData(Channel channel, Serialization serialization, InputStream input, Request request)
             throws IOException {
-        if(decodeExecuteInTaskThread(channel)){
-            // 在task线程中解码, 会提高io效率, 但会增加内存拷贝
-            return new DecodeableRpcInvocation(channel, serialization, new UnsafeByteArrayInputStream(input), request);
+        int length = input.available();
+        boolean task = decodeExecuteInTaskThread(channel);
+        boolean adaptive = !task && decodeAdaptive(channel);
+        // 延迟解码时持有消息体; 自适应解码在读出方法名之后才能决定, 同样需要持有
+        DecodeableRpcInvocation inv = new DecodeableRpcInvocation(channel, serialization,
+                task || adaptive ? retain(input) : input, request);
+        // 方法名和attachments总是在io线程中按序解码
+        if (!inv.decodeHeader()) {
+            return inv;
+        }
+        DecodeStatistics statistics = DecodeStatistics.request(inv.getAttachment(Constants.PATH_KEY), inv.getMethodName());
+        inv.setStatistics(statistics, length);
+        if (task || adaptive && isExpensive(channel, statistics, length)) {
+            // 在task线程中解码参数, 减少io线程的占用
+            if (statistics != null) {
+                statistics.deferred();
+            }
         } else {
             // 直接在io线程中解码
-            DecodeableRpcInvocation inv = new DecodeableRpcInvocation(channel, serialization, input, request);
             inv.decode();
-            return inv;
         }
+        return inv;
     }
 
     @Override
     protected Object decodeResponseData(Channel channel, Serialization serialization, InputStream input, Response response) throws IOException {        
-        if(decodeExecuteInTaskThread(channel)){
-            // 在task线程中解码, 会提高io效率, 但会增加内存拷贝
-            return new DecodeableRpcResult(channel, serialization, new UnsafeByteArrayInputStream(input), response);
+        int length = input.available();
+        RpcInvocation inv = getInvocation(channel, response.getId());
+        DecodeStatistics statistics = inv == null ? null
+                : DecodeStatistics.response(inv.getAttachment(Constants.PATH_KEY), inv.getMethodName());
+        boolean task = decodeExecuteInTaskThread(channel)
+                || decodeAdaptive(channel) && isExpensive(channel, statistics, length);
+        DecodeableRpcResult result = new DecodeableRpcResult(channel, serialization, task ? retain(input) : input, response);
+        result.setStatistics(statistics, length);
+        if (task) {
+            // 在task线程中解码, 减少io线程的占用
+            if (statistics != null) {
+                statistics.deferred();
+            }
         } else {
             // 直接在io线程中解码
-            DecodeableRpcResult inv = new DecodeableRpcResult(channel, serialization, input, response);
-            inv.decode();
-            return inv;
+            result.decode();
         }
+        return result;
+    }
+
+    // 消息体较大, 或该方法的平均解码耗时较长
+    private static boolean isExpensive(Channel channel, DecodeStatistics statistics, int length) {
+        URL url = channel.getUrl();
+        if (length >= url.getParameter(Constants.DECODE_ADAPTIVE_BYTES_KEY, Constants.DEFAULT_DECODE_ADAPTIVE_BYTES)) {
+            return true;
+        }
+        return statistics != null && statistics.getAverageElapsed() >= 1000L
+                * url.getParameter(Constants.DECODE_ADAPTIVE_ELAPSED_KEY, Constants.DEFAULT_DECODE_ADAPTIVE_ELAPSED);
+    }
+
+    // 客户端: 响应对应的请求, 请求已经超时时返回null
+    private static RpcInvocation getInvocation(Channel channel, long id) {
+        InternalResponseFuture future = InternalResponseFuture.getFuture(channel, id);
+        Object data = future == null ? null : future.getRequest().getData();
+        return data instanceof RpcInvocation ? (RpcInvocation) data : null;
     }
     
+    // 延迟解码的消息体: 持有网络缓冲的引用而不拷贝, 解码或丢弃时释放
+    private static InputStream retain(InputStream input) throws IOException {
+        if (input instanceof ChannelBufferInputStream) {
+            return ((ChannelBufferInputStream) input).readRetainedStream();
+        }
+        return new UnsafeByteArrayInputStream(input);
+    }
+
     private boolean decodeExecuteInTaskThread(Channel channel){
         return channel.getUrl().getParameter(Constants.DECODE_EXECUTE_IN_TASK_THREAD_KEY, 
                 Constants.DEFAULT_DECODE_EXECUTE_IN_TASK_THREAD);
     }
+
+    private boolean decodeAdaptive(Channel channel){
+        return channel.getUrl().getParameter(Constants.DECODE_ADAPTIVE_KEY, Constants.DEFAULT_DECODE_ADAPTIVE);
+    }
 }
\ No newline at end of file
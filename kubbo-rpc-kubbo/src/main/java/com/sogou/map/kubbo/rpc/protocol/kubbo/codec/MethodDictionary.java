@@ -0,0 +1,235 @@
+package com.sogou.map.kubbo.rpc.protocol.kubbo.codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sogou.map.kubbo.common.Constants;
+import com.sogou.map.kubbo.common.lang.Reflects;
+import com.sogou.map.kubbo.common.util.LongObjectHashMap;
+import com.sogou.map.kubbo.remote.Channel;
+import com.sogou.map.kubbo.remote.serialization.ObjectInput;
+import com.sogou.map.kubbo.remote.serialization.ObjectOutput;
+
+/**
+ * 每个连接的方法字典, 作为attribute保存在传输层的channel上.
+ * 方法(方法名+参数类型)第一次调用时分配一个编号, 之后的请求只发送编号,
+ * 服务端按编号取出已经解析好的参数类型, 不再重复发送和解析参数描述.
+ * <p>
+ * 服务端在响应的header中标记支持扩展帧格式(FLAG_EXTENDED, 与服务端的配置无关), 客户端开启时收到后才开始使用, 同时负责记录该状态.
+ * 服务端总是可以解码两种格式, 是否使用由客户端的dictionary参数决定.
+ * 客户端随请求发送定义(编号, 方法名, 参数描述), 收到该请求的响应, 即确认服务端已经记录后, 只发送编号.
+ * 请求丢失或编码失败时, 下一次请求重新发送定义.
+ * <p>
+ * 请求体开头的方法名为空字符串时, 之后是short类型的编号, 负数-(id+1)表示定义, 后面跟方法名和参数描述;
+ * Short.MIN_VALUE表示不在字典中, 后面跟方法名和参数描述.
+ * 编解码都在连接的IO线程中进行, 非线程安全.
+ *
+ * @author liufuliang
+ */
+public final class MethodDictionary {
+
+    private static final String DICTIONARY_KEY = MethodDictionary.class.getName() + ".DICTIONARY";
+
+    // 每个连接最多的方法数, 超过后使用完整的描述
+    static final int MAX_SIZE = 1024;
+
+    private static final short INLINE = Short.MIN_VALUE;
+
+    // 客户端开启字典压缩
+    private final boolean enabled;
+
+    /*
+     * 客户端
+     */
+    // 对端支持字典压缩
+    private boolean supported = false;
+
+    // 方法名 -> 定义, 重载的方法链在一起
+    private final Map<String, Descriptor> methods = new HashMap<String, Descriptor>();
+
+    // 等待确认的定义, 请求id -> 定义
+    private final LongObjectHashMap<Descriptor> unacked = new LongObjectHashMap<Descriptor>();
+
+    private int size = 0;
+
+    /*
+     * 服务端, 编号 -> 定义
+     */
+    private Descriptor[] descriptors = new Descriptor[16];
+
+    private MethodDictionary(Channel channel) {
+        this.enabled = channel.getUrl().getParameter(Constants.DICTIONARY_KEY, Constants.DEFAULT_DICTIONARY);
+    }
+
+    public static MethodDictionary get(Channel channel) {
+        MethodDictionary dictionary = (MethodDictionary) channel.getAttribute(DICTIONARY_KEY);
+        if (dictionary == null) {
+            dictionary = new MethodDictionary(channel);
+            channel.setAttribute(DICTIONARY_KEY, dictionary);
+        }
+        return dictionary;
+    }
+
+    /**
+     * 客户端: 收到响应
+     *
+     * @param id 响应的id
+     * @param supported 对端是否支持字典压缩
+     */
+    void received(long id, boolean supported) {
+        if (supported && enabled) {
+            this.supported = true;
+        }
+        if (!unacked.isEmpty()) {
+            Descriptor descriptor = unacked.remove(id);
+            if (descriptor != null) {
+                descriptor.acked = true;
+            }
+        }
+    }
+
+    boolean isSupported() {
+        return supported;
+    }
+
+    /**
+     * 客户端: 查找或分配方法的编号
+     *
+     * @return 超过字典大小时返回null
+     */
+    private Descriptor lookup(String methodName, Class<?>[] parameterTypes) {
+        Descriptor head = methods.get(methodName);
+        for (Descriptor d = head; d != null; d = d.next) {
+            if (Arrays.equals(d.parameterTypes, parameterTypes)) {
+                return d;
+            }
+        }
+        if (size >= MAX_SIZE) {
+            return null;
+        }
+        Descriptor descriptor = new Descriptor(size++, methodName, Reflects.getDesc(parameterTypes), parameterTypes.clone());
+        descriptor.next = head;
+        methods.put(methodName, descriptor);
+        return descriptor;
+    }
+
+    /**
+     * 客户端: 写入方法编号, 未确认时同时写入定义并等待该请求的响应确认
+     */
+    void write(ObjectOutput out, String methodName, Class<?>[] parameterTypes, long requestId) throws IOException {
+        if (parameterTypes == null) {
+            parameterTypes = KubboCodec.EMPTY_CLASS_ARRAY;
+        }
+        Descriptor descriptor = lookup(methodName, parameterTypes);
+        if (descriptor == null) {
+            out.writeShort(INLINE);
+            out.writeUTF(methodName);
+            out.writeUTF(Reflects.getDesc(parameterTypes));
+            return;
+        }
+        if (descriptor.acked) {
+            out.writeShort((short) descriptor.id);
+            return;
+        }
+        out.writeShort((short) -(descriptor.id + 1));
+        out.writeUTF(descriptor.methodName);
+        out.writeUTF(descriptor.desc);
+        if (unacked.get(descriptor.definedIn) == descriptor) {
+            unacked.remove(descriptor.definedIn);
+        }
+        descriptor.definedIn = requestId;
+        unacked.put(requestId, descriptor);
+    }
+
+    /**
+     * 服务端: 读取方法名为空字符串之后的编号或定义
+     */
+    public Descriptor read(ObjectInput in) throws IOException {
+        short id = in.readShort();
+        if (id >= 0) {
+            return get(id);
+        }
+        if (id == INLINE) {
+            return new Descriptor(-1, in.readUTF(), in.readUTF(), null);
+        }
+        return define(-id - 1, in.readUTF(), in.readUTF());
+    }
+
+    /**
+     * 服务端: 记录客户端发送的定义
+     */
+    private Descriptor define(int id, String methodName, String desc) throws IOException {
+        if (id < 0 || id >= MAX_SIZE) {
+            throw new IOException("Illegal method id " + id + ", max " + MAX_SIZE);
+        }
+        if (id >= descriptors.length) {
+            descriptors = Arrays.copyOf(descriptors, Math.min(MAX_SIZE, Math.max(id + 1, descriptors.length << 1)));
+        }
+        Descriptor descriptor = descriptors[id];
+        // 重复发送的定义
+        if (descriptor != null && descriptor.methodName.equals(methodName) && descriptor.desc.equals(desc)) {
+            return descriptor;
+        }
+        descriptor = new Descriptor(id, methodName, desc, null);
+        descriptors[id] = descriptor;
+        return descriptor;
+    }
+
+    /**
+     * 服务端: 按编号查找定义
+     */
+    private Descriptor get(int id) throws IOException {
+        Descriptor descriptor = id >= 0 && id < descriptors.length ? descriptors[id] : null;
+        if (descriptor == null) {
+            throw new IOException("Undefined method id " + id);
+        }
+        return descriptor;
+    }
+
+    /**
+     * 方法定义
+     */
+    public static final class Descriptor {
+        final int id;
+
+        final String methodName;
+
+        final String desc;
+
+        // 服务端第一次使用时解析
+        Class<?>[] parameterTypes;
+
+        // 客户端: 服务端已经确认
+        boolean acked = false;
+
+        // 客户端: 最后一次发送定义的请求id
+        long definedIn = -1;
+
+        Descriptor next;
+
+        Descriptor(int id, String methodName, String desc, Class<?>[] parameterTypes) {
+            this.id = id;
+            this.methodName = methodName;
+            this.desc = desc;
+            this.parameterTypes = parameterTypes;
+        }
+
+        public String getMethodName() {
+            return methodName;
+        }
+
+        public Class<?>[] getParameterTypes() throws ClassNotFoundException {
+            if (parameterTypes == null) {
+                parameterTypes = desc.length() == 0 ? KubboCodec.EMPTY_CLASS_ARRAY : Reflects.desc2classArray(desc);
+            }
+            return parameterTypes;
+        }
+
+        @Override
+        public String toString() {
+            return "Descriptor [id=" + id + ", method=" + methodName + "(" + desc + ")]";
+        }
+    }
+}
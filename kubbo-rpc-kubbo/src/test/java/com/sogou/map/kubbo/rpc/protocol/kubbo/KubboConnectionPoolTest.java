@@ -0,0 +1,400 @@
+/**
+ *
+ */
+package com.sogou.map.kubbo.rpc.protocol.kubbo;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sogou.map.kubbo.common.Constants;
+import com.sogou.map.kubbo.common.URL;
+import com.sogou.map.kubbo.remote.session.SessionClient;
+import com.sogou.map.kubbo.rpc.protocol.kubbo.KubboConnectionPool.Connection;
+
+/**
+ * @author liufuliang
+ *
+ */
+public class KubboConnectionPoolTest {
+
+    private static final URL URL_FIXED = URL.valueOf("kubbo://127.0.0.1:40660/sample");
+
+    /*
+     * 只记录连接状态的SessionClient
+     */
+    static class StubClient implements InvocationHandler {
+        final SessionClient client = (SessionClient) Proxy.newProxyInstance(
+                KubboConnectionPoolTest.class.getClassLoader(), new Class<?>[] { SessionClient.class }, this);
+        final Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+        volatile boolean connected = true;
+        volatile int closedTimeout = -1;
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if ("isConnected".equals(name)) {
+                return connected;
+            }
+            if ("hasAttribute".equals(name)) {
+                return attributes.containsKey(args[0]);
+            }
+            if ("getAttribute".equals(name)) {
+                return attributes.get(args[0]);
+            }
+            if ("setAttribute".equals(name)) {
+                attributes.put((String) args[0], args[1]);
+                return null;
+            }
+            if ("removeAttribute".equals(name)) {
+                attributes.remove(args[0]);
+                return null;
+            }
+            if ("close".equals(name)) {
+                closedTimeout = args == null ? 0 : (Integer) args[0];
+                closed.countDown();
+                return null;
+            }
+            if ("isClosed".equals(name)) {
+                return closed.getCount() == 0;
+            }
+            if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            }
+            if ("toString".equals(name)) {
+                return "StubClient@" + Integer.toHexString(System.identityHashCode(proxy));
+            }
+            throw new UnsupportedOperationException(name);
+        }
+
+        boolean isClosed() {
+            return closed.getCount() == 0;
+        }
+    }
+
+    /*
+     * 新建的连接都是StubClient, block后建立连接阻塞到release
+     */
+    static class StubProtocol extends KubboProtocol {
+        final List<StubClient> clients = new ArrayList<StubClient>();
+        final AtomicInteger connects = new AtomicInteger();
+        volatile CountDownLatch block;
+
+        @Override
+        SessionClient initClient(URL url) {
+            connects.incrementAndGet();
+            CountDownLatch latch = block;
+            if (latch != null) {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            StubClient stub = new StubClient();
+            synchronized (clients) {
+                clients.add(stub);
+            }
+            return stub.client;
+        }
+
+        StubClient get(int i) {
+            synchronized (clients) {
+                return clients.get(i);
+            }
+        }
+    }
+
+    private static URL adaptive(int min, int max, int pending, int idle) {
+        return URL_FIXED.addParameter(Constants.CONNECTIONS_MIN_KEY, min)
+                .addParameter(Constants.CONNECTIONS_MAX_KEY, max)
+                .addParameter(Constants.CONNECTIONS_PENDING_KEY, pending)
+                .addParameter(Constants.CONNECTIONS_IDLE_KEY, idle)
+                .addParameter(Constants.TIMEOUT_KEY, 1000);
+    }
+
+    private static void awaitSize(KubboConnectionPool pool, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.size() != size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(size, pool.size());
+    }
+
+    /*
+     * 连接都达到connections.pending时持续请求, 直到扩容到size
+     * (上一次扩容的任务结束前不会再次扩容)
+     */
+    private static void growTo(KubboConnectionPool pool, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.size() < size && System.currentTimeMillis() < deadline) {
+            pool.select();
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(size, pool.size());
+    }
+
+    /*
+     * 依次选中池中的每个连接(未完成请求都为0时轮流选择)
+     */
+    private static List<Connection> connections(KubboConnectionPool pool) {
+        List<Connection> connections = new ArrayList<Connection>();
+        for (int i = 0; i < pool.size(); ++i) {
+            Connection c = pool.select();
+            Assert.assertFalse(connections.contains(c));
+            connections.add(c);
+        }
+        return connections;
+    }
+
+    @Test
+    public void testSelectLeastPending() {
+        StubClient[] stubs = new StubClient[] { new StubClient(), new StubClient(), new StubClient() };
+        SessionClient[] clients = new SessionClient[stubs.length];
+        for (int i = 0; i < stubs.length; ++i) {
+            clients[i] = stubs[i].client;
+        }
+        KubboConnectionPool pool = new KubboConnectionPool(URL_FIXED, clients);
+        List<Connection> cs = connections(pool);
+        Map<SessionClient, StubClient> stubOf = new HashMap<SessionClient, StubClient>();
+        for (StubClient stub : stubs) {
+            stubOf.put(stub.client, stub);
+        }
+
+        cs.get(0).pending.set(3);
+        cs.get(1).pending.set(1);
+        cs.get(2).pending.set(2);
+        // 与轮询的起点无关, 总是选择未完成请求最少的连接
+        for (int i = 0; i < 6; ++i) {
+            Assert.assertSame(cs.get(1), pool.select());
+        }
+
+        // 跳过不可写, 只读和断开的连接
+        stubOf.get(cs.get(1).client).attributes.put(Constants.CHANNEL_ATTRIBUTE_UNWRITABLE_KEY, Boolean.TRUE);
+        for (int i = 0; i < 6; ++i) {
+            Assert.assertSame(cs.get(2), pool.select());
+        }
+        stubOf.get(cs.get(2).client).attributes.put(Constants.CHANNEL_ATTRIBUTE_READONLY_KEY, Boolean.TRUE);
+        for (int i = 0; i < 6; ++i) {
+            Assert.assertSame(cs.get(0), pool.select());
+        }
+        Assert.assertTrue(pool.isAvailable());
+
+        // 全部不可用时仍然返回连接, 由连接给出具体的异常
+        stubOf.get(cs.get(0).client).connected = false;
+        stubOf.get(cs.get(1).client).connected = false;
+        Assert.assertNotNull(pool.select());
+        Assert.assertFalse(pool.isAvailable());
+
+        // 固定连接数不扩容
+        Assert.assertEquals(3, pool.size());
+        pool.close();
+    }
+
+    @Test
+    public void testGrowAtPendingThreshold() throws InterruptedException {
+        StubProtocol protocol = new StubProtocol();
+        KubboConnectionPool pool = new KubboConnectionPool(adaptive(1, 3, 2, 60000), protocol);
+        Assert.assertEquals(1, pool.size());
+        Assert.assertEquals(1, protocol.connects.get());
+
+        // 未达到connections.pending时不扩容
+        Connection first = pool.select();
+        first.pending.set(1);
+        Assert.assertSame(first, pool.select());
+        Assert.assertEquals(1, protocol.connects.get());
+
+        // 达到connections.pending时扩容, 新连接之后被优先选择
+        first.pending.set(2);
+        Assert.assertSame(first, pool.select());
+        awaitSize(pool, 2);
+        Connection second = pool.select();
+        Assert.assertNotSame(first, second);
+
+        second.pending.set(2);
+        growTo(pool, 3);
+        Connection third = pool.select();
+        Assert.assertNotSame(first, third);
+        Assert.assertNotSame(second, third);
+
+        // 不超过connections.max
+        first.pending.set(5);
+        second.pending.set(5);
+        third.pending.set(5);
+        pool.select();
+        pool.select();
+        Assert.assertEquals(3, pool.size());
+        Assert.assertEquals(3, protocol.connects.get());
+
+        pool.close();
+        for (int i = 0; i < 3; ++i) {
+            Assert.assertTrue(protocol.get(i).isClosed());
+        }
+    }
+
+    @Test
+    public void testGrowOnePerPool() throws InterruptedException {
+        StubProtocol protocol = new StubProtocol();
+        KubboConnectionPool pool = new KubboConnectionPool(adaptive(1, 4, 1, 60000), protocol);
+        protocol.block = new CountDownLatch(1);
+        Connection first = pool.select();
+        first.pending.set(1);
+
+        // 扩容进行中时不重复触发
+        for (int i = 0; i < 10; ++i) {
+            pool.select();
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (protocol.connects.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(2, protocol.connects.get());
+        Assert.assertEquals(1, pool.size());
+
+        protocol.block.countDown();
+        awaitSize(pool, 2);
+        Assert.assertEquals(2, protocol.connects.get());
+        pool.close();
+    }
+
+    @Test
+    public void testGrowWhenConnectorSaturated() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<StubProtocol> protocols = new ArrayList<StubProtocol>();
+        List<KubboConnectionPool> pools = new ArrayList<KubboConnectionPool>();
+        try {
+            // 占满所有连接线程(32)
+            for (int i = 0; i < 32; ++i) {
+                StubProtocol protocol = new StubProtocol();
+                KubboConnectionPool pool = new KubboConnectionPool(adaptive(1, 2, 1, 60000), protocol);
+                protocol.block = release;
+                protocols.add(protocol);
+                pools.add(pool);
+                pool.select().pending.set(1);
+                pool.select();
+            }
+            for (StubProtocol protocol : protocols) {
+                long deadline = System.currentTimeMillis() + 5000;
+                while (protocol.connects.get() < 2 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                Assert.assertEquals(2, protocol.connects.get());
+            }
+
+            // 连接线程已满, 跳过扩容, 不阻塞也不抛出异常
+            StubProtocol protocol = new StubProtocol();
+            KubboConnectionPool pool = new KubboConnectionPool(adaptive(1, 2, 1, 60000), protocol);
+            pools.add(pool);
+            Connection first = pool.select();
+            first.pending.set(1);
+            Assert.assertSame(first, pool.select());
+            Assert.assertEquals(1, protocol.connects.get());
+            Assert.assertEquals(1, pool.size());
+
+            // 连接线程空闲后, 之后的请求再次触发扩容
+            release.countDown();
+            for (KubboConnectionPool p : pools.subList(0, 32)) {
+                awaitSize(p, 2);
+            }
+            pool.select();
+            awaitSize(pool, 2);
+        } finally {
+            release.countDown();
+            for (KubboConnectionPool pool : pools) {
+                pool.close();
+            }
+        }
+    }
+
+    @Test
+    public void testShrinkToMin() throws InterruptedException {
+        StubProtocol protocol = new StubProtocol();
+        KubboConnectionPool pool = new KubboConnectionPool(adaptive(2, 4, 1, 1), protocol);
+        List<Connection> cs = connections(pool);
+        for (int size = 2; size < 4; ++size) {
+            for (Connection c : cs) {
+                c.pending.set(1);
+            }
+            growTo(pool, size + 1);
+            // 新连接没有未完成的请求, 被优先选择
+            Connection c = pool.select();
+            Assert.assertFalse(cs.contains(c));
+            cs.add(c);
+        }
+        for (Connection c : cs) {
+            c.pending.set(0);
+        }
+        // 有未完成请求的连接不关闭
+        Connection busy = cs.get(3);
+        busy.pending.set(1);
+        Thread.sleep(10);
+
+        pool.shrink();
+        Assert.assertEquals(2, pool.size());
+        busy.pending.set(0);
+        List<Connection> remains = connections(pool);
+        Assert.assertTrue(remains.contains(busy));
+
+        // 移除的连接延迟关闭, 已选中的请求仍可发出
+        List<StubClient> removed = new ArrayList<StubClient>();
+        for (int i = 0; i < 4; ++i) {
+            StubClient stub = protocol.get(i);
+            boolean remain = false;
+            for (Connection c : remains) {
+                remain |= c.client == stub.client;
+            }
+            if (!remain) {
+                removed.add(stub);
+            }
+        }
+        Assert.assertEquals(2, removed.size());
+        for (StubClient stub : removed) {
+            Assert.assertFalse(stub.isClosed());
+        }
+        for (StubClient stub : removed) {
+            Assert.assertTrue(stub.closed.await(5, TimeUnit.SECONDS));
+            // 等待未完成的请求
+            Assert.assertEquals(1000, stub.closedTimeout);
+        }
+
+        // 不低于connections.min
+        Thread.sleep(10);
+        pool.shrink();
+        Assert.assertEquals(2, pool.size());
+        pool.close();
+    }
+
+    @Test
+    public void testRetainAndClose() {
+        StubClient stub = new StubClient();
+        KubboConnectionPool pool = new KubboConnectionPool(URL_FIXED, new SessionClient[] { stub.client });
+        Assert.assertTrue(pool.retain());
+
+        // 仍有引用时不关闭
+        pool.close();
+        Assert.assertFalse(pool.isClosed());
+        Assert.assertFalse(stub.isClosed());
+
+        pool.close();
+        Assert.assertTrue(pool.isClosed());
+        Assert.assertTrue(stub.isClosed());
+
+        // 关闭后不能再共享
+        Assert.assertFalse(pool.retain());
+    }
+}
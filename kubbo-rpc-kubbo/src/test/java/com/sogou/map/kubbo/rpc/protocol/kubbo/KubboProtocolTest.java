@@ -2,15 +2,42 @@
  * 
  */package com.sogou.map.kubbo.rpc.protocol.kubbo;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.sogou.map.kubbo.common.Constants;
 import com.sogou.map.kubbo.common.URL;
 import com.sogou.map.kubbo.common.extension.Extensions;
+import com.sogou.map.kubbo.common.threadpool.NamedThreadFactory;
+import com.sogou.map.kubbo.remote.session.EncodedMessage;
 import com.sogou.map.kubbo.rpc.Protocol;
 import com.sogou.map.kubbo.rpc.Protocols;
 import com.sogou.map.kubbo.rpc.Exporter;
+import com.sogou.map.kubbo.rpc.Invocation;
+import com.sogou.map.kubbo.rpc.InvocationBatch;
+import com.sogou.map.kubbo.rpc.Invoker;
 import com.sogou.map.kubbo.rpc.InvokerProxy;
+import com.sogou.map.kubbo.rpc.RpcContext;
+import com.sogou.map.kubbo.rpc.RpcException;
+import com.sogou.map.kubbo.rpc.Result;
+import com.sogou.map.kubbo.rpc.RpcInvocation;
+import com.sogou.map.kubbo.rpc.concurrent.CallbackExecutors;
+import com.sogou.map.kubbo.rpc.concurrent.FutureListener;
+import com.sogou.map.kubbo.rpc.concurrent.ListenableFuture;
+import com.sogou.map.kubbo.rpc.protocol.kubbo.codec.DecodeStatistics;
 
 /**
  * @author liufuliang
@@ -20,6 +47,69 @@ public class KubboProtocolTest {
     private static Protocol protocol = Protocols.getExtension("kubbo");
     private static InvokerProxy proxy = Extensions.getAdaptiveExtension(InvokerProxy.class);
 
+    public static class SlowSampleService extends SampleServiceImpl {
+        final AtomicInteger invoked = new AtomicInteger();
+
+        @Override
+        public String echo(String text) {
+            invoked.incrementAndGet();
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            return text;
+        }
+    }
+
+    /*
+     * 记录服务端解码的请求大小(Constants.INPUT_KEY)
+     */
+    static class InputRecordingInvoker<T> implements Invoker<T> {
+        final Invoker<T> invoker;
+        final String method;
+        final List<Integer> inputs = new CopyOnWriteArrayList<Integer>();
+
+        InputRecordingInvoker(Invoker<T> invoker, String method) {
+            this.invoker = invoker;
+            this.method = method;
+        }
+
+        @Override
+        public Result invoke(Invocation invocation) throws RpcException {
+            String input = invocation.getAttachment(Constants.INPUT_KEY);
+            if (method.equals(invocation.getMethodName()) && input != null) {
+                inputs.add(Integer.valueOf(input));
+            }
+            return invoker.invoke(invocation);
+        }
+
+        @Override
+        public Kind kind() {
+            return invoker.kind();
+        }
+
+        @Override
+        public Class<T> getInterface() {
+            return invoker.getInterface();
+        }
+
+        @Override
+        public URL getUrl() {
+            return invoker.getUrl();
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return invoker.isAvailable();
+        }
+
+        @Override
+        public void destroy() {
+            invoker.destroy();
+        }
+    }
+
     public static void main(String[] args){
         new KubboProtocolTest().testSampleService();
         protocol.destroy();
@@ -49,4 +139,442 @@ public class KubboProtocolTest {
         exporter.unexport();
         
     }
+
+    public static class CancellableSampleService extends SampleServiceImpl {
+        volatile boolean cancelled;
+
+        @Override
+        public String echo(String text) {
+            long start = System.currentTimeMillis();
+            while (System.currentTimeMillis() - start < 5000) {
+                if (RpcContext.get().isCancelled()) {
+                    cancelled = true;
+                    break;
+                }
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+            return text;
+        }
+    }
+
+    @Test
+    public void testCancelRunningRequestOnTimeout() throws Exception{
+        CancellableSampleService exportservice = new CancellableSampleService();
+        Exporter<SampleService> exporter = protocol.export(
+                proxy.getInvoker(exportservice, SampleService.class, URL.valueOf("kubbo://127.0.0.1:9022/sample")));
+        
+        SampleService referservice = proxy.getProxy(
+                protocol.refer(SampleService.class, URL.valueOf("kubbo://127.0.0.1:9022/sample?timeout=100")));
+        
+        try {
+            referservice.echo("123456");
+            Assert.fail();
+        } catch (RpcException e) {
+            Assert.assertTrue(e.isTimeout());
+        }
+        // 调用方超时后服务端通过RpcContext看到取消
+        Thread.sleep(500);
+        Assert.assertTrue(exportservice.cancelled);
+        
+        exporter.unexport();
+    }
+
+    @Test
+    public void testDropExpiredRequest() throws Exception{
+        BlockingSampleService exportservice = new BlockingSampleService();
+        Exporter<SampleService> exporter = protocol.export(
+                proxy.getInvoker(exportservice, SampleService.class, URL.valueOf("kubbo://127.0.0.1:9021/sample?corethreads=1&maxthreads=1&queues=10")));
+        
+        SampleService referservice = proxy.getProxy(
+                protocol.refer(SampleService.class, URL.valueOf("kubbo://127.0.0.1:9021/sample?timeout=100&async=true")));
+        
+        // 单个处理线程, 后两个请求在队列中等待超过了调用方的超时时间
+        List<ListenableFuture<String>> futures = new ArrayList<ListenableFuture<String>>();
+        for (String text : new String[] {"block", "123456", "123456"}) {
+            referservice.echo(text);
+            futures.add(RpcContext.get().<String>getFuture());
+        }
+        awaitCount(exportservice.invoked, 1);
+        for (ListenableFuture<String> future : futures) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                Assert.fail("request should time out");
+            } catch (TimeoutException e) {
+                // 调用方超时完成, 而不是等待超过5秒
+                Assert.assertTrue(future.isDone());
+            }
+        }
+        exportservice.latch.countDown();
+
+        // 之后的请求排在过期的请求之后, 返回时过期的请求已经被丢弃
+        SampleService syncservice = proxy.getProxy(
+                protocol.refer(SampleService.class, URL.valueOf("kubbo://127.0.0.1:9021/sample?timeout=5000")));
+        Assert.assertEquals("after", syncservice.echo("after"));
+        Assert.assertEquals(2, exportservice.invoked.get());
+        
+        exporter.unexport();
+    }
+
+    public static class BlockingSampleService extends SampleServiceImpl {
+        final AtomicInteger invoked = new AtomicInteger();
+
+        volatile CountDownLatch latch = new CountDownLatch(1);
+
+        @Override
+        public String echo(String text) {
+            invoked.incrementAndGet();
+            if ("block".equals(text)) {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+            return text;
+        }
+    }
+
+    // 等待计数达到expected, 最长5秒
+    private static void awaitCount(AtomicInteger count, int expected) throws InterruptedException {
+        for (int i = 0; i < 500 && count.get() < expected; ++i) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(expected, count.get());
+    }
+
+    private static List<ListenableFuture<?>> batch(SampleService referservice, String... texts) {
+        InvocationBatch batch = new InvocationBatch();
+        RpcContext.get().setBatch(batch);
+        RpcContext.get().setAttachment(Constants.ASYNC_KEY, Constants.TRUE);
+        try {
+            for (String text : texts) {
+                referservice.echo(text);
+            }
+        } finally {
+            RpcContext.get().removeAttachment(Constants.ASYNC_KEY);
+            RpcContext.get().setBatch(null);
+        }
+        return batch.send();
+    }
+
+    @Test
+    public void testBatch() throws Exception{
+        testBatch("kubbo://127.0.0.1:9023/sample", "kubbo://127.0.0.1:9023/sample?timeout=5000");
+    }
+
+    @Test
+    public void testBatchWithoutDictionary() throws Exception{
+        // 批量帧与字典压缩无关, 服务端关闭dictionary时同样支持
+        testBatch("kubbo://127.0.0.1:9032/sample?dictionary=false", "kubbo://127.0.0.1:9032/sample?timeout=5000");
+    }
+
+    private void testBatch(String exportUrl, String referUrl) throws Exception{
+        BlockingSampleService exportservice = new BlockingSampleService();
+        Exporter<SampleService> exporter = protocol.export(
+                proxy.getInvoker(exportservice, SampleService.class, URL.valueOf(exportUrl)));
+        
+        SampleService referservice = proxy.getProxy(
+                protocol.refer(SampleService.class, URL.valueOf(referUrl)));
+        
+        // 第一次: 尚未收到服务端的响应, 逐个发送, 各自返回
+        List<ListenableFuture<?>> futures = batch(referservice, "block", "quick");
+        Assert.assertEquals(2, futures.size());
+        Assert.assertEquals("quick", futures.get(1).get(5, TimeUnit.SECONDS));
+        Assert.assertFalse(futures.get(0).isDone());
+        exportservice.latch.countDown();
+        Assert.assertEquals("block", futures.get(0).get(5, TimeUnit.SECONDS));
+        
+        // 第二次: 服务端已声明支持, 合并为一帧发送; 服务端并行执行, 全部完成后按调用顺序一起返回
+        exportservice.latch = new CountDownLatch(1);
+        futures = batch(referservice, "block", "quick");
+        awaitCount(exportservice.invoked, 4);
+        try {
+            futures.get(1).get(200, TimeUnit.MILLISECONDS);
+            Assert.fail("batched response returned before the whole batch completed");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        exportservice.latch.countDown();
+        Assert.assertEquals("block", futures.get(0).get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("quick", futures.get(1).get(5, TimeUnit.SECONDS));
+        
+        exporter.unexport();
+    }
+
+    @Test
+    public void testCallbackExecutor() throws Exception{
+        SampleService exportservice = new SampleServiceImpl();
+        Exporter<SampleService> exporter = protocol.export(
+                proxy.getInvoker(exportservice, SampleService.class, URL.valueOf("kubbo://127.0.0.1:9024/sample")));
+        
+        ExecutorService executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("test-callback", true));
+        CallbackExecutors.register("test", executor);
+        SampleService referservice = proxy.getProxy(
+                protocol.refer(SampleService.class, URL.valueOf("kubbo://127.0.0.1:9024/sample?callback=test&async=true")));
+        
+        // 回调在注册的Executor中执行
+        referservice.echo("123456");
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<String> thread = new AtomicReference<String>();
+        RpcContext.get().<String>getFuture().addListener(new FutureListener<String>() {
+            @Override
+            public void done(String result) {
+                thread.set(Thread.currentThread().getName());
+                latch.countDown();
+            }
+
+            @Override
+            public void caught(Throwable exception) {
+                latch.countDown();
+            }
+        });
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(thread.get().startsWith("test-callback"));
+        
+        CallbackExecutors.unregister("test");
+        executor.shutdown();
+        exporter.unexport();
+    }
+
+    @Test
+    public void testDictionary() throws Exception{
+        // 服务端在IO线程中解码参数, 或在task线程中解码参数, 方法名和attachments都在IO线程中按序解码
+        String[] urls = {"kubbo://127.0.0.1:9025/sample", "kubbo://127.0.0.1:9026/sample?decode.execute.task=true"};
+        for (String url : urls) {
+            InputRecordingInvoker<SampleService> recorder = new InputRecordingInvoker<SampleService>(
+                    proxy.getInvoker(new SampleServiceImpl(), SampleService.class, URL.valueOf(url)), "echo");
+            Exporter<SampleService> exporter = protocol.export(recorder);
+            SampleService referservice = proxy.getProxy(
+                    protocol.refer(SampleService.class, URL.valueOf(url)));
+
+            Map<String, String> map = new HashMap<String, String>();
+            map.put("key1", "1");
+            map.put("key2", "2");
+            // 第一次调用发送定义, 之后只发送编号; 重复的attachment第二次加入表
+            for (int i = 0; i < 5; ++i) {
+                Assert.assertEquals("123456" + i, referservice.echo("123456" + i));
+                Assert.assertEquals(map.keySet(), referservice.keys(map));
+                referservice.update(new byte[10]);
+            }
+            // 第一个响应确认服务端支持后发送定义, 定义被确认后只发送编号, 请求变小且保持不变
+            List<Integer> inputs = new ArrayList<Integer>(recorder.inputs);
+            Assert.assertEquals(5, inputs.size());
+            Assert.assertTrue(inputs.toString(), inputs.get(2) < inputs.get(1));
+            Assert.assertEquals(inputs.get(2), inputs.get(3));
+            Assert.assertEquals(inputs.get(2), inputs.get(4));
+
+            // 客户端关闭字典压缩(独立的连接), 始终发送方法名和参数描述
+            recorder.inputs.clear();
+            SampleService plainservice = proxy.getProxy(
+                    protocol.refer(SampleService.class, URL.valueOf(url).addParameter(Constants.DICTIONARY_KEY, false)
+                            .addParameter(Constants.CONNECTIONS_KEY, 1)));
+            for (int i = 0; i < 5; ++i) {
+                Assert.assertEquals("123456" + i, plainservice.echo("123456" + i));
+                Assert.assertEquals(map.keySet(), plainservice.keys(map));
+            }
+            Assert.assertEquals(5, recorder.inputs.size());
+            Assert.assertTrue(recorder.inputs.get(4) > inputs.get(4));
+
+            exporter.unexport();
+        }
+    }
+
+    @Test
+    public void testDecodeInTaskThread() throws Exception{
+        // 在task线程中解码, 消息体持有网络缓冲的切片, 大的消息体跨多次读取(组合缓冲)
+        String url = "kubbo://127.0.0.1:9027/sample?decode.execute.task=true&timeout=10000";
+        Exporter<SampleService> exporter = protocol.export(
+                proxy.getInvoker(new SampleServiceImpl(), SampleService.class, URL.valueOf(url)));
+        SampleService referservice = proxy.getProxy(
+                protocol.refer(SampleService.class, URL.valueOf(url)));
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100000; ++i) {
+            text.append(i);
+        }
+        for (int i = 0; i < 5; ++i) {
+            Assert.assertEquals("123456" + i, referservice.echo("123456" + i));
+            Assert.assertEquals(text.toString(), referservice.echo(text.toString()));
+        }
+
+        exporter.unexport();
+    }
+
+    @Test
+    public void testDecodeAdaptive() throws Exception{
+        // 小的消息体在io线程中解码, 大的消息体在task线程中解码
+        String url = "kubbo://127.0.0.1:9028/sample?decode.adaptive=true&decode.adaptive.bytes=4096&decode.adaptive.elapsed=1000000&timeout=10000";
+        Exporter<SampleService> exporter = protocol.export(
+                proxy.getInvoker(new SampleServiceImpl(), SampleService.class, URL.valueOf(url)));
+        SampleService referservice = proxy.getProxy(
+                protocol.refer(SampleService.class, URL.valueOf(url)));
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10000; ++i) {
+            text.append(i);
+        }
+        long deferred = 0;
+        DecodeStatistics before = DecodeStatistics.getRequestStatistics().get("sample#echo");
+        if (before != null) {
+            deferred = before.getDeferred();
+        }
+        for (int i = 0; i < 5; ++i) {
+            Assert.assertEquals("123456" + i, referservice.echo("123456" + i));
+            Assert.assertEquals(text.toString(), referservice.echo(text.toString()));
+        }
+
+        DecodeStatistics statistics = DecodeStatistics.getRequestStatistics().get("sample#echo");
+        Assert.assertNotNull(statistics);
+        Assert.assertEquals(deferred + 5, statistics.getDeferred());
+        Assert.assertNotNull(DecodeStatistics.getResponseStatistics().get("sample#echo"));
+
+        exporter.unexport();
+    }
+
+    @Test
+    public void testEncodeOnce() throws Throwable{
+        // 同一个invocation发送多次, 参数只编码一次
+        String url = "kubbo://127.0.0.1:9029/sample";
+        Exporter<SampleService> exporter = protocol.export(
+                proxy.getInvoker(new SampleServiceImpl(), SampleService.class, URL.valueOf(url)));
+        Invoker<SampleService> invoker = protocol.refer(SampleService.class, URL.valueOf(url));
+
+        // 第一次响应之后使用字典压缩的格式
+        RpcInvocation invocation = new RpcInvocation("echo", new Class<?>[] {String.class}, new Object[] {"hello"});
+        Assert.assertEquals("hello", invoker.invoke(invocation).recreate());
+
+        invocation.setEncodeOnce(true);
+        Assert.assertEquals("hello", invoker.invoke(invocation).recreate());
+        EncodedMessage encoded = invocation.getEncodedArguments();
+        Assert.assertNotNull(encoded);
+        for (int i = 0; i < 3; ++i) {
+            Assert.assertEquals("hello", invoker.invoke(invocation).recreate());
+            Assert.assertSame(encoded, invocation.getEncodedArguments());
+        }
+
+        // 修改参数后重新编码
+        invocation.setArguments(new Object[] {"world"});
+        Assert.assertEquals("world", invoker.invoke(invocation).recreate());
+        Assert.assertNotSame(encoded, invocation.getEncodedArguments());
+
+        invoker.destroy();
+        exporter.unexport();
+    }
+
+    public static class CountingSampleService extends SampleServiceImpl {
+        final AtomicInteger invoked = new AtomicInteger();
+
+        @Override
+        public String echo(String text) {
+            invoked.incrementAndGet();
+            return text;
+        }
+    }
+
+    @Test
+    public void testResponseCache() throws Exception{
+        // echo开启缓存, 相同参数的请求只调用一次服务
+        CountingSampleService service = new CountingSampleService();
+        String url = "kubbo://127.0.0.1:9030/sample?echo.cache=lru&echo.cache.ttl=100000";
+        Exporter<SampleService> exporter = protocol.export(
+                proxy.getInvoker(service, SampleService.class, URL.valueOf(url)));
+        // 客户端不开启缓存
+        SampleService referservice = proxy.getProxy(
+                protocol.refer(SampleService.class, URL.valueOf("kubbo://127.0.0.1:9030/sample")));
+
+        for (int i = 0; i < 5; ++i) {
+            Assert.assertEquals("hello", referservice.echo("hello"));
+            Assert.assertEquals("world", referservice.echo("world"));
+        }
+        Assert.assertEquals(2, service.invoked.get());
+
+        // 没有开启缓存的方法
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("key", "value");
+        Assert.assertEquals(map.keySet(), referservice.keys(map));
+
+        // 取消暴露时丢弃缓存, 重新暴露后调用新的服务
+        exporter.unexport();
+        CountingSampleService reexported = new CountingSampleService();
+        exporter = protocol.export(proxy.getInvoker(reexported, SampleService.class, URL.valueOf(url)));
+        Assert.assertEquals("hello", referservice.echo("hello"));
+        Assert.assertEquals(1, reexported.invoked.get());
+
+        exporter.unexport();
+    }
+
+    @Test
+    public void testResultCache() throws Exception{
+        // 客户端echo开启缓存, 同时未命中的调用合并为一次调用
+        final SlowSampleService service = new SlowSampleService();
+        String url = "kubbo://127.0.0.1:9031/sample";
+        Exporter<SampleService> exporter = protocol.export(
+                proxy.getInvoker(service, SampleService.class, URL.valueOf(url)));
+        final Invoker<SampleService> invoker = protocol.refer(SampleService.class,
+                URL.valueOf(url + "?echo.cache=lru&echo.cache.ttl=5000&echo.cache.refresh=4000"));
+        final SampleService referservice = proxy.getProxy(invoker);
+
+        int threads = 5;
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger failed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; ++i) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!"hello".equals(referservice.echo("hello"))) {
+                            failed.incrementAndGet();
+                        }
+                    } catch (Throwable t) {
+                        failed.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        Assert.assertEquals(0, failed.get());
+        Assert.assertEquals(1, service.invoked.get());
+
+        // 异步调用命中缓存
+        RpcInvocation invocation = new RpcInvocation("echo", new Class<?>[] {String.class}, new Object[] {"hello"});
+        invocation.setAttachment(Constants.ASYNC_KEY, Constants.TRUE);
+        invoker.invoke(invocation);
+        Assert.assertEquals("hello", RpcContext.get().getFuture().get(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, service.invoked.get());
+
+        // 不同的参数
+        Assert.assertEquals("world", referservice.echo("world"));
+        Assert.assertEquals(2, service.invoked.get());
+
+        // 过期前4000ms内(加入缓存1000ms后)访问时在后台刷新, 仍立即返回旧的结果
+        Thread.sleep(1200);
+        long start = System.currentTimeMillis();
+        Assert.assertEquals("hello", referservice.echo("hello"));
+        Assert.assertTrue(System.currentTimeMillis() - start < 200);
+        for (int i = 0; i < 50 && service.invoked.get() < 3; ++i) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(3, service.invoked.get());
+        Thread.sleep(400);
+        Assert.assertEquals("hello", referservice.echo("hello"));
+        Assert.assertEquals(3, service.invoked.get());
+
+        // 销毁引用时丢弃缓存, 重新引用后发起调用
+        invoker.destroy();
+        Invoker<SampleService> rereferred = protocol.refer(SampleService.class,
+                URL.valueOf(url + "?echo.cache=lru&echo.cache.ttl=5000&echo.cache.refresh=4000"));
+        Assert.assertEquals("hello", proxy.getProxy(rereferred).echo("hello"));
+        Assert.assertEquals(4, service.invoked.get());
+
+        rereferred.destroy();
+        exporter.unexport();
+    }
 }
@@ -0,0 +1,97 @@
+/**
+ *
+ */
+package com.sogou.map.kubbo.rpc.protocol.kubbo.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sogou.map.kubbo.remote.serialization.ObjectOutput;
+import com.sogou.map.kubbo.remote.serialization.Serialization;
+import com.sogou.map.kubbo.remote.serialization.hessian.HessianSerialization;
+
+/**
+ * @author liufuliang
+ *
+ */
+public class AttachmentTableTest {
+
+    private final Serialization serialization = new HessianSerialization();
+
+    private final AttachmentTable client = new AttachmentTable();
+
+    private final AttachmentTable server = new AttachmentTable();
+
+    private long requestId = 0;
+
+    private byte[] encode(Map<String, String> attachments) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        ObjectOutput out = serialization.serialize(stream);
+        client.write(out, attachments, ++requestId);
+        out.flushBuffer();
+        return stream.toByteArray();
+    }
+
+    private Map<String, String> decode(byte[] bytes) throws IOException {
+        return server.read(serialization.deserialize(new ByteArrayInputStream(bytes)));
+    }
+
+    private int roundTrip(Map<String, String> attachments, boolean ack) throws IOException {
+        byte[] bytes = encode(attachments);
+        Assert.assertEquals(attachments, decode(bytes));
+        if (ack) {
+            client.received(requestId);
+        }
+        return bytes.length;
+    }
+
+    private static Map<String, String> attachments(String... pairs) {
+        Map<String, String> attachments = new HashMap<String, String>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            attachments.put(pairs[i], pairs[i + 1]);
+        }
+        return attachments;
+    }
+
+    @Test
+    public void testEvictBeyondMaxSize() throws IOException {
+        Map<String, String> hot = attachments("path", "sample", "version", "1.0.0");
+        roundTrip(hot, true);
+        roundTrip(hot, true);
+        int indexed = roundTrip(hot, true);
+
+        // 远超过表的大小的不同的key/value对, 每一对重复出现, 都会加入表
+        for (int i = 0; i < AttachmentTable.MAX_SIZE * 4; ++i) {
+            Map<String, String> attachments = attachments("path", "sample", "version", "1.0.0", "key" + (i % 7), "value" + i);
+            for (int j = 0; j < 3; ++j) {
+                roundTrip(attachments, true);
+            }
+        }
+
+        // 常用的项没有被淘汰, 仍只发送编号
+        Assert.assertEquals(indexed, roundTrip(hot, true));
+
+        // 淘汰后的新项同样可以加入表并被引用
+        Map<String, String> fresh = attachments("key0", "fresh");
+        int literal = roundTrip(fresh, true);
+        roundTrip(fresh, true);
+        Assert.assertTrue(roundTrip(fresh, true) < literal);
+    }
+
+    @Test
+    public void testEvictWithLostResponses() throws IOException {
+        Random random = new Random(7);
+        for (int i = 0; i < AttachmentTable.MAX_SIZE * 8; ++i) {
+            Map<String, String> attachments = attachments("path", "sample", "key" + random.nextInt(5), "value" + random.nextInt(2048));
+            // 部分请求没有响应, 其插入不被确认
+            roundTrip(attachments, random.nextInt(4) != 0);
+        }
+    }
+}